@@ -0,0 +1,71 @@
+package benchmark;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * 基准测试的公共方法
+ */
+final class BenchmarkSupport {
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * 默认日志级别为DEBUG，会淹没被测代码的开销
+     */
+    static void quietLogging() {
+        LogManager.getRootLogger().setLevel(Level.WARN);
+    }
+
+    /**
+     * 新建临时数据目录，返回以分隔符结尾的路径
+     * @param name
+     * @return
+     */
+    static String newDataDir(String name) {
+        try {
+            return Files.createTempDirectory("kv-" + name).toFile().getAbsolutePath() + File.separator;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * 定长key，数值顺序与字节序一致
+     * @param i
+     * @return
+     */
+    static byte[] key(long i) {
+        return String.format("key%012d", i).getBytes();
+    }
+
+    /**
+     * 落在key(i)和key(i + 1)之间、不存在的key
+     * @param i
+     * @return
+     */
+    static byte[] missingKey(long i) {
+        return String.format("key%012d-", i).getBytes();
+    }
+
+    static byte[] value(int size, Random random) {
+        byte[] value = new byte[size];
+        random.nextBytes(value);
+        return value;
+    }
+}
@@ -0,0 +1,86 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import service.KvStoreConfig;
+import service.KvStoreImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程读写混合：3个读线程和1个写线程共享同一个存储，在同一个key空间上随机读写
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MixedBenchmark {
+    private static final long KEY_SPACE = 100_000;
+
+    @Param({"100", "1024"})
+    private int valueSize;
+
+    @Param({"1000", "10000"})
+    private long storeThreshold;
+
+    @Param({"16", "64"})
+    private long partSize;
+
+    private String dataDir;
+
+    private KvStoreImpl kvStore;
+
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.quietLogging();
+        dataDir = BenchmarkSupport.newDataDir("mixed");
+        kvStore = new KvStoreImpl(dataDir, new KvStoreConfig().setStoreThreshold(storeThreshold)
+                .setPartSize(partSize));
+        value = BenchmarkSupport.value(valueSize, new Random(42));
+        //预先写入一半的key，读操作既有命中也有未命中
+        for (long i = 0; i < KEY_SPACE; i += 2) {
+            kvStore.put(BenchmarkSupport.key(i), value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        kvStore.close();
+        BenchmarkSupport.deleteDir(new File(dataDir));
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public byte[] get() {
+        return kvStore.get(BenchmarkSupport.key(ThreadLocalRandom.current().nextLong(KEY_SPACE)));
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void set() {
+        kvStore.put(BenchmarkSupport.key(ThreadLocalRandom.current().nextLong(KEY_SPACE)), value);
+    }
+}
@@ -0,0 +1,99 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import service.KvStoreConfig;
+import service.KvStoreImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 点查：hot为内存表中的key，cold为分布在各层SsTable中的key，missing为落在SsTable的key范围内但不存在的key（主要由布隆过滤器拦截）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+    /**
+     * 持久化为SsTable的内存表个数
+     */
+    private static final int COLD_MEMTABLES = 20;
+
+    @Param({"100", "1024"})
+    private int valueSize;
+
+    @Param({"1000", "5000"})
+    private long storeThreshold;
+
+    @Param({"16", "64"})
+    private long partSize;
+
+    private String dataDir;
+
+    private KvStoreImpl kvStore;
+
+    private long coldCount;
+
+    private long hotCount;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkSupport.quietLogging();
+        dataDir = BenchmarkSupport.newDataDir("read");
+        KvStoreConfig config = new KvStoreConfig().setStoreThreshold(storeThreshold)
+                .setWriteBufferSize(Long.MAX_VALUE).setPartSize(partSize);
+        Random random = new Random(42);
+        //内存表达到storeThreshold + 1个key时切换，写满整数个内存表后全部持久化
+        coldCount = COLD_MEMTABLES * (storeThreshold + 1);
+        kvStore = new KvStoreImpl(dataDir, config);
+        for (long i = 0; i < coldCount; i++) {
+            kvStore.put(BenchmarkSupport.key(i), BenchmarkSupport.value(valueSize, random));
+        }
+        //关闭时等待持久化完成，重新打开后内存表为空
+        kvStore.close();
+        kvStore = new KvStoreImpl(dataDir, config);
+        hotCount = storeThreshold / 2;
+        for (long i = 0; i < hotCount; i++) {
+            kvStore.put(BenchmarkSupport.key(coldCount + i), BenchmarkSupport.value(valueSize, random));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        kvStore.close();
+        BenchmarkSupport.deleteDir(new File(dataDir));
+    }
+
+    @Benchmark
+    public byte[] hotGet() {
+        return kvStore.get(BenchmarkSupport.key(coldCount + ThreadLocalRandom.current().nextLong(hotCount)));
+    }
+
+    @Benchmark
+    public byte[] coldGet() {
+        return kvStore.get(BenchmarkSupport.key(ThreadLocalRandom.current().nextLong(coldCount)));
+    }
+
+    @Benchmark
+    public byte[] missingGet() {
+        return kvStore.get(BenchmarkSupport.missingKey(ThreadLocalRandom.current().nextLong(coldCount)));
+    }
+}
@@ -0,0 +1,98 @@
+package benchmark;
+
+import model.command.Command;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import service.KvStoreConfig;
+import service.KvStoreImpl;
+import utils.BytesUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 崩溃恢复：从日志重放到内存表的耗时，以及包含重放的完整打开耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecoveryBenchmark {
+    @Param({"10000", "100000"})
+    private int walRecords;
+
+    @Param({"100", "1024"})
+    private int valueSize;
+
+    private String dataDir;
+
+    private KvStoreConfig config;
+
+    private KvStoreImpl kvStore;
+
+    private File walFile;
+
+    /**
+     * 只包含日志副本的目录，用于测量打开耗时
+     */
+    private String openDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkSupport.quietLogging();
+        dataDir = BenchmarkSupport.newDataDir("recovery");
+        //内存表不切换，全部数据留在日志中
+        config = new KvStoreConfig().setStoreThreshold(Long.MAX_VALUE).setWriteBufferSize(Long.MAX_VALUE)
+                .setCompactionEnabled(false);
+        KvStoreImpl writer = new KvStoreImpl(dataDir, config);
+        Random random = new Random(42);
+        for (int i = 0; i < walRecords; i++) {
+            writer.put(BenchmarkSupport.key(i), BenchmarkSupport.value(valueSize, random));
+        }
+        writer.close();
+        walFile = new File(dataDir + KvStoreImpl.WAL);
+        openDir = dataDir + "open" + File.separator;
+        new File(openDir).mkdirs();
+        Files.copy(walFile.toPath(), new File(openDir + KvStoreImpl.WAL).toPath());
+        kvStore = new KvStoreImpl(dataDir, config);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        kvStore.close();
+        BenchmarkSupport.deleteDir(new File(dataDir));
+    }
+
+    @Benchmark
+    public Map<byte[], Command> restoreFromWal() {
+        Map<byte[], Command> index = new TreeMap<>(BytesUtils.COMPARATOR);
+        kvStore.restoreFromWal(walFile, index);
+        return index;
+    }
+
+    /**
+     * 打开并关闭存储，日志没有持久化为SsTable，每次打开都完整重放
+     */
+    @Benchmark
+    public void open() throws IOException {
+        new KvStoreImpl(openDir, config).close();
+    }
+}
@@ -0,0 +1,70 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import service.KvStoreConfig;
+import service.ShardedKvStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程随机写，比较分片数对写入吞吐的影响
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ShardedWriteBenchmark {
+    private static final long KEY_SPACE = 1_000_000;
+
+    @Param({"1", "4", "8"})
+    private int shards;
+
+    @Param({"100"})
+    private int valueSize;
+
+    private String dataDir;
+
+    private ShardedKvStore kvStore;
+
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.quietLogging();
+        dataDir = BenchmarkSupport.newDataDir("sharded");
+        kvStore = new ShardedKvStore(dataDir, shards, new KvStoreConfig().setFlushThreads(shards)
+                .setCompactionThreads(shards));
+        value = BenchmarkSupport.value(valueSize, new Random(42));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        kvStore.close();
+        BenchmarkSupport.deleteDir(new File(dataDir));
+    }
+
+    @Benchmark
+    public void randomSet() {
+        kvStore.put(BenchmarkSupport.key(ThreadLocalRandom.current().nextLong(KEY_SPACE)), value);
+    }
+}
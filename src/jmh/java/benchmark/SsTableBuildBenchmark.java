@@ -0,0 +1,99 @@
+package benchmark;
+
+import model.command.Command;
+import model.command.SetCommand;
+import model.ssTable.BlockCodec;
+import model.ssTable.BloomFilterPolicy;
+import model.ssTable.SsTable;
+import model.ssTable.SsTableOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.BytesUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 由内存表构建SsTable的耗时，包括编码、压缩、写文件、稀疏索引和布隆过滤器
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SsTableBuildBenchmark {
+    @Param({"1000", "10000"})
+    private int storeThreshold;
+
+    @Param({"100", "1024"})
+    private int valueSize;
+
+    @Param({"16", "64"})
+    private long partSize;
+
+    /**
+     * data block压缩算法：none、snappy或deflate-级别
+     */
+    @Param({"none", "snappy", "deflate-6"})
+    private String codec;
+
+    private String dataDir;
+
+    private TreeMap<byte[], Command> index;
+
+    private SsTableOptions options;
+
+    private SsTable ssTable;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.quietLogging();
+        dataDir = BenchmarkSupport.newDataDir("build");
+        index = new TreeMap<>(BytesUtils.COMPARATOR);
+        Random random = new Random(42);
+        for (int i = 0; i < storeThreshold; i++) {
+            byte[] key = BenchmarkSupport.key(i);
+            index.put(key, new SetCommand(key, BenchmarkSupport.value(valueSize, random)));
+        }
+        options = new SsTableOptions().setFilterPolicy(new BloomFilterPolicy(10))
+                .setLevelCodecs(Collections.singletonList(codec.equals("none") ? BlockCodec.NONE
+                        : codec.equals("snappy") ? BlockCodec.SNAPPY
+                        : BlockCodec.deflate(Integer.parseInt(codec.substring("deflate-".length())))));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.deleteDir(new File(dataDir));
+    }
+
+    @Benchmark
+    public SsTable createFromIndex() {
+        ssTable = SsTable.createFromIndex(dataDir + "1.table", partSize, index, true, options);
+        return ssTable;
+    }
+
+    /**
+     * 每次构建后删除文件，单次构建为毫秒级，调用级别的清理开销可以忽略
+     */
+    @TearDown(Level.Invocation)
+    public void deleteTable() throws IOException {
+        ssTable.close();
+        new File(dataDir + "1.table").delete();
+    }
+}
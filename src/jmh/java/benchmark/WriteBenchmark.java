@@ -0,0 +1,82 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import service.KvStoreConfig;
+import service.KvStoreImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 顺序写和随机写，包含内存表切换、后台持久化和合并的影响
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmark {
+    /**
+     * 随机写的key空间
+     */
+    private static final long KEY_SPACE = 1_000_000;
+
+    @Param({"100", "1024"})
+    private int valueSize;
+
+    @Param({"1000", "10000"})
+    private long storeThreshold;
+
+    @Param({"16", "64"})
+    private long partSize;
+
+    private String dataDir;
+
+    private KvStoreImpl kvStore;
+
+    private byte[] value;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.quietLogging();
+        dataDir = BenchmarkSupport.newDataDir("write");
+        kvStore = new KvStoreImpl(dataDir, new KvStoreConfig().setStoreThreshold(storeThreshold)
+                .setPartSize(partSize));
+        value = BenchmarkSupport.value(valueSize, new Random(42));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        kvStore.close();
+        BenchmarkSupport.deleteDir(new File(dataDir));
+    }
+
+    @Benchmark
+    public void sequentialSet() {
+        kvStore.put(BenchmarkSupport.key(sequence.getAndIncrement()), value);
+    }
+
+    @Benchmark
+    public void randomSet() {
+        kvStore.put(BenchmarkSupport.key(ThreadLocalRandom.current().nextLong(KEY_SPACE)), value);
+    }
+}
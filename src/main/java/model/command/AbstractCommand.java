@@ -1,7 +1,9 @@
 package model.command;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.annotation.JSONField;
 import lombok.Getter;
+import lombok.Setter;
 
 /**
  * 抽象命令
@@ -13,6 +15,19 @@ public abstract class AbstractCommand implements Command{
      */
     private CommandTypeEnum type;
 
+    /**
+     * 序列号
+     */
+    @Setter
+    private long seq;
+
+    /**
+     * 内存表中同一个key的上一个版本，写入内存表前设置，之后不再修改
+     */
+    @Setter
+    @JSONField(serialize = false)
+    private Command prev;
+
 
     public AbstractCommand(CommandTypeEnum type){
         this.type = type;
@@ -8,5 +8,21 @@ public interface Command {
      * 获取key
      * @return
      */
-    String getKey();
+    byte[] getKey();
+
+    /**
+     * 序列号，越大越新，旧版本的数据为0
+     * @return
+     */
+    long getSeq();
+
+    void setSeq(long seq);
+
+    /**
+     * 内存表中同一个key的上一个版本，不存在或已不需要时为null
+     * @return
+     */
+    Command getPrev();
+
+    void setPrev(Command prev);
 }
@@ -12,9 +12,9 @@ public class RmCommand extends AbstractCommand{
     /**
      * 数据key
      */
-    private String key;
+    private byte[] key;
 
-    public RmCommand(String key) {
+    public RmCommand(byte[] key) {
         super(CommandTypeEnum.RM);
         this.key = key;
     }
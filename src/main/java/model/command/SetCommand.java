@@ -12,15 +12,15 @@ public class SetCommand extends AbstractCommand{
     /**
      * 数据key
      */
-    private String key;
+    private byte[] key;
 
     /**
      * 数据value
      */
-    private String value;
+    private byte[] value;
 
 
-    public SetCommand(String key, String value) {
+    public SetCommand(byte[] key, byte[] value) {
         super(CommandTypeEnum.SET);
         this.key = key;
         this.value = value;
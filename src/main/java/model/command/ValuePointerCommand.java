@@ -0,0 +1,27 @@
+package model.command;
+
+import lombok.Getter;
+import model.vlog.ValuePointer;
+
+/**
+ * 值存放在值日志中的新增命令，value为编码后的{@link ValuePointer}，读取时需要到值日志中取出真正的值
+ */
+@Getter
+public class ValuePointerCommand extends SetCommand {
+    private final ValuePointer pointer;
+
+    public ValuePointerCommand(byte[] key, ValuePointer pointer) {
+        super(key, pointer.encode());
+        this.pointer = pointer;
+    }
+
+    /**
+     * 由日志或SsTable中编码后的指针构建
+     * @param key
+     * @param encodedPointer
+     * @return
+     */
+    public static ValuePointerCommand decode(byte[] key, byte[] encodedPointer) {
+        return new ValuePointerCommand(key, ValuePointer.decode(encodedPointer));
+    }
+}
@@ -0,0 +1,16 @@
+package model.iterator;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 按key顺序遍历键值对，用完需要关闭以释放持有的SsTable
+ */
+public interface KvIterator extends Iterator<Map.Entry<String, String>>, Closeable {
+    /**
+     * 释放遍历持有的资源，遍历到末尾时自动释放
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,78 @@
+package model.iterator;
+
+import utils.BytesUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * 按key顺序归并多个互不相交的字节遍历，用于跨分片遍历，同一个key只会出现在一个分片中
+ * 关闭时关闭全部来源
+ */
+public class MergedBytesIterator implements BytesIterator {
+    private final List<BytesIterator> sources;
+
+    /**
+     * 各来源的当前元素，按key排列
+     */
+    private final PriorityQueue<Head> heads = new PriorityQueue<>(
+            (a, b) -> BytesUtils.compare(a.entry.getKey(), b.entry.getKey()));
+
+    private boolean closed;
+
+    public MergedBytesIterator(List<BytesIterator> sources) {
+        this.sources = sources;
+        for (BytesIterator source : sources) {
+            if (source.hasNext()) {
+                heads.add(new Head(source, source.next()));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (heads.isEmpty()) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Head head = heads.poll();
+        Map.Entry<byte[], byte[]> entry = head.entry;
+        if (head.source.hasNext()) {
+            heads.add(new Head(head.source, head.source.next()));
+        }
+        return entry;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        heads.clear();
+        for (BytesIterator source : sources) {
+            source.close();
+        }
+    }
+
+    private static class Head {
+        private final BytesIterator source;
+
+        private final Map.Entry<byte[], byte[]> entry;
+
+        private Head(BytesIterator source, Map.Entry<byte[], byte[]> entry) {
+            this.source = source;
+            this.entry = entry;
+        }
+    }
+}
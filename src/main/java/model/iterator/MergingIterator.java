@@ -0,0 +1,79 @@
+package model.iterator;
+
+import model.command.Command;
+
+import utils.BytesUtils;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * 多路归并迭代器，输入均按key有序，同一个key按序列号从新到旧
+ * 输出按key递增、序列号递减排列，同一个key的各个版本都会输出
+ * key和序列号都相同时（旧版本数据的序列号均为0）只输出优先级最高（下标最小，即最新）的数据源中的命令
+ */
+public class MergingIterator implements Iterator<Command> {
+    private final PriorityQueue<Head> heap;
+
+    public MergingIterator(List<? extends Iterator<Command>> sources) {
+        heap = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> {
+            int cmp = BytesUtils.compare(a.command.getKey(), b.command.getKey());
+            if (cmp != 0) {
+                return cmp;
+            }
+            cmp = Long.compare(b.command.getSeq(), a.command.getSeq());
+            return cmp != 0 ? cmp : Integer.compare(a.priority, b.priority);
+        });
+        for (int i = 0; i < sources.size(); i++) {
+            Iterator<Command> source = sources.get(i);
+            if (source.hasNext()) {
+                heap.add(new Head(i, source, source.next()));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heap.isEmpty();
+    }
+
+    @Override
+    public Command next() {
+        Head head = heap.poll();
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+        Command command = head.command;
+        advance(head);
+        //跳过较旧数据源中的同一个版本
+        while (!heap.isEmpty() && heap.peek().command.getSeq() == command.getSeq()
+                && Arrays.equals(heap.peek().command.getKey(), command.getKey())) {
+            advance(heap.poll());
+        }
+        return command;
+    }
+
+    private void advance(Head head) {
+        if (head.source.hasNext()) {
+            head.command = head.source.next();
+            heap.add(head);
+        }
+    }
+
+    private static class Head {
+        private final int priority;
+
+        private final Iterator<Command> source;
+
+        private Command command;
+
+        private Head(int priority, Iterator<Command> source, Command command) {
+            this.priority = priority;
+            this.source = source;
+            this.command = command;
+        }
+    }
+}
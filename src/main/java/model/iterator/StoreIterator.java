@@ -0,0 +1,116 @@
+package model.iterator;
+
+import model.command.Command;
+import model.command.SetCommand;
+import utils.BytesUtils;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * 存储的范围遍历：在多路归并结果上取每个key在快照中可见的最新版本，跳过删除标记，到达结束key或不再匹配前缀时停止
+ */
+public class StoreIterator implements BytesIterator {
+    private final MergingIterator merging;
+
+    /**
+     * 结束key（不包含），为null时直到末尾
+     */
+    private final byte[] endKey;
+
+    /**
+     * 前缀，为null时不限制
+     */
+    private final byte[] prefix;
+
+    /**
+     * 快照的序列号，只能看到不大于它的版本
+     */
+    private final long sequence;
+
+    /**
+     * 读取新增命令的值，值在值日志中时到值日志读取
+     */
+    private final Function<SetCommand, byte[]> valueReader;
+
+    /**
+     * 关闭时释放遍历期间持有的版本和快照
+     */
+    private final Runnable onClose;
+
+    /**
+     * 上一个已处理的key，其余较旧的版本跳过
+     */
+    private byte[] lastKey;
+
+    private Map.Entry<byte[], byte[]> nextEntry;
+
+    private boolean closed;
+
+    /**
+     * @param sources  按从新到旧排列的数据源
+     * @param endKey
+     * @param prefix
+     * @param sequence 快照的序列号
+     * @param valueReader 读取新增命令的值
+     * @param onClose  关闭或遍历结束时调用一次
+     */
+    public StoreIterator(List<Iterator<Command>> sources, byte[] endKey, byte[] prefix, long sequence,
+                         Function<SetCommand, byte[]> valueReader, Runnable onClose) {
+        this.merging = new MergingIterator(sources);
+        this.endKey = endKey;
+        this.prefix = prefix;
+        this.sequence = sequence;
+        this.valueReader = valueReader;
+        this.onClose = onClose;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (nextEntry == null && !closed) {
+            if (!merging.hasNext()) {
+                close();
+                return false;
+            }
+            Command command = merging.next();
+            byte[] key = command.getKey();
+            if ((endKey != null && BytesUtils.compare(key, endKey) >= 0)
+                    || (prefix != null && !BytesUtils.startsWith(key, prefix))) {
+                close();
+                return false;
+            }
+            if (command.getSeq() > sequence || (lastKey != null && Arrays.equals(lastKey, key))) {
+                continue;
+            }
+            lastKey = key;
+            if (command instanceof SetCommand) {
+                nextEntry = new AbstractMap.SimpleImmutableEntry<>(key, valueReader.apply((SetCommand) command));
+            }
+        }
+        return nextEntry != null;
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map.Entry<byte[], byte[]> entry = nextEntry;
+        nextEntry = null;
+        return entry;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        onClose.run();
+    }
+}
@@ -0,0 +1,34 @@
+package model.iterator;
+
+import utils.BytesUtils;
+
+import java.util.AbstractMap;
+import java.util.Map;
+
+/**
+ * 将字节遍历按UTF-8解码为字符串，供字符串接口使用
+ */
+public class StringKvIterator implements KvIterator {
+    private final BytesIterator iterator;
+
+    public StringKvIterator(BytesIterator iterator) {
+        this.iterator = iterator;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return iterator.hasNext();
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+        Map.Entry<byte[], byte[]> entry = iterator.next();
+        return new AbstractMap.SimpleImmutableEntry<>(BytesUtils.toString(entry.getKey()),
+                BytesUtils.toString(entry.getValue()));
+    }
+
+    @Override
+    public void close() {
+        iterator.close();
+    }
+}
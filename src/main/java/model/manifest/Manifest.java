@@ -0,0 +1,281 @@
+package model.manifest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.Crc32c;
+import utils.FileUtils;
+import utils.LoggerUtil;
+import utils.VarIntUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * SsTable集合的修改日志，是各层SsTable的唯一依据，目录中不在MANIFEST里的SsTable都是未完成的文件
+ * 文件头：MAGIC(4)
+ * 记录：len(4) | addedCount(varint) | added... | removedCount(varint) | removedFileId(8)... | crc32c(4)
+ * 新增的表：fileId(8) | level(varint) | fileSize(8) | maxSequence(8) | smallestLen(varint) | smallestKey
+ * | largestLen(varint) | largestKey
+ * 每条记录写入后刷盘，恢复时遇到不完整或校验失败的记录停止；打开时重写为只含一条快照记录的新文件
+ */
+public class Manifest implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Manifest.class);
+
+    public static final String MANIFEST = "MANIFEST";
+
+    public static final String MANIFEST_TMP = "MANIFEST_tmp";
+
+    public static final int MAGIC = 0x4B564D01;
+
+    /**
+     * 追加的记录数超过该值和存活表个数时重写快照，避免文件无限增长
+     */
+    private static final int MIN_EDITS_BEFORE_REWRITE = 1024;
+
+    private final String dataDir;
+
+    /**
+     * 当前存活的SsTable，按文件编号排列
+     */
+    private final TreeMap<Long, TableFileMeta> tables;
+
+    private FileOutputStream out;
+
+    /**
+     * 上次重写快照后追加的记录数
+     */
+    private int editCount;
+
+    private Manifest(String dataDir, TreeMap<Long, TableFileMeta> tables) {
+        this.dataDir = dataDir;
+        this.tables = tables;
+    }
+
+    /**
+     * 回放MANIFEST，得到存活的SsTable
+     * @param dataDir
+     * @return 文件编号到表信息，MANIFEST不存在时返回null
+     */
+    public static Map<Long, TableFileMeta> recover(String dataDir) {
+        File file = new File(dataDir + MANIFEST);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if (buffer.remaining() < 4 || buffer.getInt() != MAGIC) {
+                throw new IOException("not a manifest: " + file.getAbsolutePath());
+            }
+            TreeMap<Long, TableFileMeta> tables = new TreeMap<>();
+            int records = 0;
+            while (buffer.hasRemaining()) {
+                int start = buffer.position();
+                VersionEdit edit = decode(buffer);
+                if (edit == null) {
+                    LoggerUtil.info(LOGGER, "[Manifest][recover]: truncated record at {} of {}",
+                            start, buffer.limit());
+                    break;
+                }
+                apply(tables, edit);
+                records++;
+            }
+            LoggerUtil.info(LOGGER, "[Manifest][recover]: {} records, {} tables", records, tables.size());
+            return tables;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 以给定的SsTable集合为快照创建MANIFEST并打开用于追加，原子地替换已有的文件
+     * @param dataDir
+     * @param tables
+     * @return
+     */
+    public static Manifest create(String dataDir, Collection<TableFileMeta> tables) {
+        TreeMap<Long, TableFileMeta> live = new TreeMap<>();
+        for (TableFileMeta table : tables) {
+            live.put(table.getFileId(), table);
+        }
+        Manifest manifest = new Manifest(dataDir, live);
+        manifest.writeSnapshot();
+        return manifest;
+    }
+
+    /**
+     * 写入一条修改并刷盘，返回后修改在崩溃后仍然有效
+     * @param edit
+     */
+    public synchronized void apply(VersionEdit edit) {
+        if (edit.isEmpty()) {
+            return;
+        }
+        if (out == null) {
+            throw new IllegalStateException("manifest closed: " + dataDir);
+        }
+        try {
+            out.write(encode(edit));
+            out.getChannel().force(false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        apply(tables, edit);
+        if (++editCount > Math.max(MIN_EDITS_BEFORE_REWRITE, tables.size())) {
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * 当前存活的SsTable
+     * @return
+     */
+    public synchronized Collection<TableFileMeta> getTables() {
+        return Collections.unmodifiableList(new ArrayList<>(tables.values()));
+    }
+
+    private static void apply(Map<Long, TableFileMeta> tables, VersionEdit edit) {
+        for (Long fileId : edit.getRemovedTables()) {
+            tables.remove(fileId);
+        }
+        for (TableFileMeta table : edit.getAddedTables()) {
+            tables.put(table.getFileId(), table);
+        }
+    }
+
+    /**
+     * 将存活的SsTable写为一条记录到临时文件，刷盘后替换MANIFEST并刷盘目录
+     * 新文件替换成功后才切换写入的文件，失败时继续追加到原文件
+     */
+    private void writeSnapshot() {
+        File tmp = new File(dataDir + MANIFEST_TMP);
+        File file = new File(dataDir + MANIFEST);
+        VersionEdit snapshot = new VersionEdit();
+        for (TableFileMeta table : tables.values()) {
+            snapshot.addTable(table);
+        }
+        FileOutputStream newOut = null;
+        try {
+            newOut = new FileOutputStream(tmp);
+            newOut.write(ByteBuffer.allocate(4).putInt(MAGIC).array());
+            newOut.write(encode(snapshot));
+            newOut.getChannel().force(true);
+            //重命名后仍通过同一个流追加
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (newOut != null) {
+                try {
+                    newOut.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw new RuntimeException(e);
+        }
+        FileOutputStream oldOut = out;
+        out = newOut;
+        editCount = 0;
+        try {
+            //重命名刷盘之后才能删除被替换的SsTable
+            FileUtils.syncDir(new File(dataDir));
+            if (oldOut != null) {
+                oldOut.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] encode(VersionEdit edit) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(payload);
+        VarIntUtils.write(data, edit.getAddedTables().size());
+        for (TableFileMeta table : edit.getAddedTables()) {
+            data.writeLong(table.getFileId());
+            VarIntUtils.write(data, table.getLevel());
+            data.writeLong(table.getFileSize());
+            data.writeLong(table.getMaxSequence());
+            VarIntUtils.write(data, table.getSmallestKey().length);
+            data.write(table.getSmallestKey());
+            VarIntUtils.write(data, table.getLargestKey().length);
+            data.write(table.getLargestKey());
+        }
+        VarIntUtils.write(data, edit.getRemovedTables().size());
+        for (Long fileId : edit.getRemovedTables()) {
+            data.writeLong(fileId);
+        }
+        data.flush();
+        byte[] body = payload.toByteArray();
+        Crc32c crc = new Crc32c();
+        crc.update(body, 0, body.length);
+        return ByteBuffer.allocate(4 + body.length + 4)
+                .putInt(body.length).put(body).putInt((int) crc.getValue()).array();
+    }
+
+    /**
+     * 解码一条记录
+     * @param buffer
+     * @return 记录不完整或校验失败时返回null
+     */
+    private static VersionEdit decode(ByteBuffer buffer) {
+        try {
+            int len = buffer.getInt();
+            if (len < 0 || len > buffer.remaining() - 4) {
+                return null;
+            }
+            byte[] body = new byte[len];
+            buffer.get(body);
+            Crc32c crc = new Crc32c();
+            crc.update(body, 0, len);
+            if ((int) crc.getValue() != buffer.getInt()) {
+                return null;
+            }
+            ByteBuffer payload = ByteBuffer.wrap(body);
+            VersionEdit edit = new VersionEdit();
+            int added = VarIntUtils.read(payload);
+            for (int i = 0; i < added; i++) {
+                long fileId = payload.getLong();
+                int level = VarIntUtils.read(payload);
+                long fileSize = payload.getLong();
+                long maxSequence = payload.getLong();
+                byte[] smallestKey = new byte[VarIntUtils.read(payload)];
+                payload.get(smallestKey);
+                byte[] largestKey = new byte[VarIntUtils.read(payload)];
+                payload.get(largestKey);
+                edit.addTable(new TableFileMeta(fileId, level, fileSize, maxSequence, smallestKey, largestKey));
+            }
+            int removed = VarIntUtils.read(payload);
+            for (int i = 0; i < removed; i++) {
+                edit.removeTable(payload.getLong());
+            }
+            return edit;
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    private void closeStream() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeStream();
+    }
+}
@@ -0,0 +1,47 @@
+package model.manifest;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import model.ssTable.SsTable;
+
+/**
+ * MANIFEST中记录的SsTable信息，启动时不读取文件即可确定层级和key范围
+ */
+@Getter
+@AllArgsConstructor
+public class TableFileMeta {
+    /**
+     * 文件编号，文件名为编号.table
+     */
+    private final long fileId;
+
+    /**
+     * 所在层级
+     */
+    private final int level;
+
+    /**
+     * 文件大小
+     */
+    private final long fileSize;
+
+    /**
+     * 最大的序列号
+     */
+    private final long maxSequence;
+
+    /**
+     * 最小key
+     */
+    private final byte[] smallestKey;
+
+    /**
+     * 最大key
+     */
+    private final byte[] largestKey;
+
+    public static TableFileMeta of(SsTable table) {
+        return new TableFileMeta(table.getFileId(), table.getLevel(), table.getFileSize(), table.getMaxSequence(),
+                table.getSmallestKey(), table.getLargestKey());
+    }
+}
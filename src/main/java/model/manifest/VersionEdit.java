@@ -0,0 +1,49 @@
+package model.manifest;
+
+import lombok.Getter;
+import model.ssTable.SsTable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一次持久化或合并对SsTable集合的修改，作为一条MANIFEST记录原子地写入
+ */
+@Getter
+public class VersionEdit {
+    /**
+     * 新增的SsTable
+     */
+    private final List<TableFileMeta> addedTables = new ArrayList<>();
+
+    /**
+     * 删除的SsTable编号
+     */
+    private final List<Long> removedTables = new ArrayList<>();
+
+    public VersionEdit addTable(TableFileMeta table) {
+        addedTables.add(table);
+        return this;
+    }
+
+    /**
+     * 新增SsTable，空表不会加入TableVersion，也不记录
+     * @param table
+     * @return
+     */
+    public VersionEdit addTable(SsTable table) {
+        if (table.getSmallestKey() != null) {
+            addedTables.add(TableFileMeta.of(table));
+        }
+        return this;
+    }
+
+    public VersionEdit removeTable(long fileId) {
+        removedTables.add(fileId);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return addedTables.isEmpty() && removedTables.isEmpty();
+    }
+}
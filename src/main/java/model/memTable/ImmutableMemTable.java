@@ -0,0 +1,35 @@
+package model.memTable;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import model.command.Command;
+
+import java.io.File;
+import java.util.NavigableMap;
+
+/**
+ * 不可变内存表，等待后台线程持久化为SsTable
+ */
+@Getter
+@AllArgsConstructor
+public class ImmutableMemTable {
+    /**
+     * 文件编号，持久化后的SsTable使用同一编号
+     */
+    private final long id;
+
+    /**
+     * 内存表数据，值为各个key的版本链头
+     */
+    private final NavigableMap<byte[], Command> index;
+
+    /**
+     * 对应的日志文件，持久化完成后删除
+     */
+    private final File walFile;
+
+    /**
+     * 估算的内存占用，持久化完成后释放
+     */
+    private final long bytes;
+}
@@ -0,0 +1,170 @@
+package model.memTable;
+
+import model.command.Command;
+import model.command.SetCommand;
+import utils.BytesUtils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存表，基于并发跳表，按key的无符号字节序排列，读操作不加锁
+ * 写入由存储按日志顺序串行提交，切换为不可变内存表后不再修改
+ * 每个key保存最新版本，仍被快照读取的旧版本通过{@link Command#getPrev()}串成版本链
+ */
+public class MemTable {
+    /**
+     * 每条记录除key和value外的估算内存开销：跳表节点、命令对象和数组头
+     */
+    public static final int ENTRY_OVERHEAD = 96;
+
+    private final ConcurrentSkipListMap<byte[], Command> index = new ConcurrentSkipListMap<>(BytesUtils.COMPARATOR);
+
+    /**
+     * key个数，ConcurrentSkipListMap.size()需要遍历，单独计数
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * 估算的内存占用，包括版本链上保留的旧版本
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    public void put(Command command) {
+        put(command, -1);
+    }
+
+    /**
+     * 写入新版本，版本链接到最新快照可见的版本，两者之间的版本任何快照都读取不到，回收
+     * 更早的快照可见的版本只会在该版本之后，一并保留
+     * @param command
+     * @param newestSnapshot 最新快照的序列号，没有快照时为-1
+     */
+    public void put(Command command, long newestSnapshot) {
+        Command old = index.get(command.getKey());
+        Command retained = visible(old, newestSnapshot);
+        command.setPrev(retained);
+        long delta = entrySize(command);
+        for (Command version = old; version != retained; version = version.getPrev()) {
+            delta -= entrySize(version);
+        }
+        if (index.put(command.getKey(), command) == null) {
+            size.incrementAndGet();
+        }
+        bytes.addAndGet(delta);
+    }
+
+    public Command get(byte[] key) {
+        return index.get(key);
+    }
+
+    /**
+     * 查询序列号不大于sequence的最新版本
+     * @param key
+     * @param sequence
+     * @return
+     */
+    public Command get(byte[] key, long sequence) {
+        return visible(index.get(key), sequence);
+    }
+
+    /**
+     * 版本链上序列号不大于sequence的最新版本
+     * @param head 最新版本
+     * @param sequence
+     * @return 没有可见的版本时返回null
+     */
+    public static Command visible(Command head, long sequence) {
+        Command command = head;
+        while (command != null && command.getSeq() > sequence) {
+            command = command.getPrev();
+        }
+        return command;
+    }
+
+    /**
+     * 按key顺序遍历版本链头，每个key只输出序列号不大于sequence的最新版本
+     * @param heads
+     * @param sequence
+     * @return
+     */
+    public static Iterator<Command> visibleIterator(Iterator<Command> heads, long sequence) {
+        return new Iterator<Command>() {
+            private Command nextCommand;
+
+            @Override
+            public boolean hasNext() {
+                while (nextCommand == null && heads.hasNext()) {
+                    nextCommand = visible(heads.next(), sequence);
+                }
+                return nextCommand != null;
+            }
+
+            @Override
+            public Command next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Command command = nextCommand;
+                nextCommand = null;
+                return command;
+            }
+        };
+    }
+
+    /**
+     * 版本链上的全部版本，从新到旧
+     * @param head
+     * @return
+     */
+    public static List<Command> versions(Command head) {
+        List<Command> versions = new ArrayList<>();
+        for (Command command = head; command != null; command = command.getPrev()) {
+            versions.add(command);
+        }
+        return versions;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * 估算的内存占用（字节）
+     * @return
+     */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * 一条记录估算的内存占用
+     * @param command
+     * @return
+     */
+    public static long entrySize(Command command) {
+        long size = command.getKey().length + ENTRY_OVERHEAD;
+        if (command instanceof SetCommand) {
+            size += ((SetCommand) command).getValue().length;
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    /**
+     * 有序的数据视图，遍历时是弱一致的
+     * @return
+     */
+    public NavigableMap<byte[], Command> getIndex() {
+        return index;
+    }
+}
@@ -0,0 +1,225 @@
+package model.ssTable;
+
+import model.command.Command;
+import model.command.RmCommand;
+import model.command.SetCommand;
+import model.command.ValuePointerCommand;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 二进制data block读取，格式见{@link BlockBuilder}
+ * 点查先在重启点上二分，再从重启点顺序解码，只解码少量记录
+ * 旧版本的block中没有序列号，读出的命令序列号为0
+ */
+public class Block {
+    private final byte[] data;
+
+    /**
+     * 重启点数组的起始位置，同时也是记录区的结束位置
+     */
+    private final int restartsOffset;
+
+    private final int numRestarts;
+
+    /**
+     * 记录中是否带有序列号
+     */
+    private final boolean sequenced;
+
+    public Block(byte[] data, boolean sequenced) {
+        this.data = data;
+        this.sequenced = sequenced;
+        this.numRestarts = getInt(data, data.length - 4);
+        this.restartsOffset = data.length - 4 - 4 * numRestarts;
+    }
+
+    /**
+     * block占用的字节数
+     * @return
+     */
+    public int size() {
+        return data.length;
+    }
+
+    /**
+     * 查找key对应的最新命令
+     * @param target
+     * @return 不存在返回null
+     */
+    public Command get(byte[] target) {
+        return get(target, Long.MAX_VALUE);
+    }
+
+    /**
+     * 查找key对应的、序列号不大于sequence的最新命令
+     * @param target
+     * @param sequence
+     * @return 不存在返回null
+     */
+    public Command get(byte[] target, long sequence) {
+        //找到最后一个key小于target的重启点，同一个key的多个版本可能跨越重启点
+        int lo = 0;
+        int hi = numRestarts - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            int pos = restartPoint(mid);
+            //重启点处shared为0
+            pos = skipVarInt(pos);
+            int unshared = readVarInt(pos);
+            pos = skipVarInt(pos);
+            pos = skipVarInt(pos);
+            int keyStart = pos + 1;
+            if (compare(data, keyStart, unshared, target) < 0) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        //target可能恰好是下一个重启点的key，扫描到遇到更大的key为止
+        int pos = restartPoint(lo);
+        int end = restartsOffset;
+        //复用key缓冲区，共享前缀保留在缓冲区中
+        byte[] current = new byte[Math.max(16, target.length)];
+        while (pos < end) {
+            int shared = readVarInt(pos);
+            pos = skipVarInt(pos);
+            int unshared = readVarInt(pos);
+            pos = skipVarInt(pos);
+            int valueLen = readVarInt(pos);
+            pos = skipVarInt(pos);
+            byte type = data[pos++];
+            int keyLen = shared + unshared;
+            if (keyLen > current.length) {
+                current = Arrays.copyOf(current, Math.max(keyLen, current.length * 2));
+            }
+            System.arraycopy(data, pos, current, shared, unshared);
+            pos += unshared;
+            int cmp = compare(current, 0, keyLen, target);
+            if (cmp > 0) {
+                return null;
+            }
+            int valueStart = pos;
+            pos += valueLen;
+            long seq = 0;
+            if (sequenced) {
+                seq = readVarLong(pos);
+                pos = skipVarInt(pos);
+            }
+            if (cmp == 0 && seq <= sequence) {
+                Command command = toCommand(type, target, valueStart, valueLen);
+                command.setSeq(seq);
+                return command;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按key顺序遍历block中的全部记录，同一个key从新到旧
+     * @return
+     */
+    public Iterator<Command> iterator() {
+        return new Iterator<Command>() {
+            private int pos = 0;
+
+            private byte[] current = new byte[16];
+
+            @Override
+            public boolean hasNext() {
+                return pos < restartsOffset;
+            }
+
+            @Override
+            public Command next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int shared = readVarInt(pos);
+                pos = skipVarInt(pos);
+                int unshared = readVarInt(pos);
+                pos = skipVarInt(pos);
+                int valueLen = readVarInt(pos);
+                pos = skipVarInt(pos);
+                byte type = data[pos++];
+                int keyLen = shared + unshared;
+                if (keyLen > current.length) {
+                    current = Arrays.copyOf(current, Math.max(keyLen, current.length * 2));
+                }
+                System.arraycopy(data, pos, current, shared, unshared);
+                pos += unshared;
+                byte[] key = Arrays.copyOf(current, keyLen);
+                Command command = toCommand(type, key, pos, valueLen);
+                pos += valueLen;
+                if (sequenced) {
+                    command.setSeq(readVarLong(pos));
+                    pos = skipVarInt(pos);
+                }
+                return command;
+            }
+        };
+    }
+
+    private Command toCommand(byte type, byte[] key, int valueStart, int valueLen) {
+        if (type == BlockBuilder.TYPE_SET) {
+            return new SetCommand(key, Arrays.copyOfRange(data, valueStart, valueStart + valueLen));
+        }
+        if (type == BlockBuilder.TYPE_VALUE_POINTER) {
+            return ValuePointerCommand.decode(key, Arrays.copyOfRange(data, valueStart, valueStart + valueLen));
+        }
+        return new RmCommand(key);
+    }
+
+    private int restartPoint(int index) {
+        return getInt(data, restartsOffset + 4 * index);
+    }
+
+    private int readVarInt(int pos) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[pos++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private long readVarLong(int pos) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private int skipVarInt(int pos) {
+        while ((data[pos++] & 0x80) != 0) {
+        }
+        return pos;
+    }
+
+    /**
+     * 按无符号字节序比较
+     */
+    private static int compare(byte[] a, int offset, int length, byte[] b) {
+        int limit = Math.min(length, b.length);
+        for (int i = 0; i < limit; i++) {
+            int cmp = (a[offset + i] & 0xFF) - (b[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - b.length;
+    }
+
+    private static int getInt(byte[] bytes, int pos) {
+        return ((bytes[pos] & 0xFF) << 24) | ((bytes[pos + 1] & 0xFF) << 16)
+                | ((bytes[pos + 2] & 0xFF) << 8) | (bytes[pos + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,166 @@
+package model.ssTable;
+
+import model.command.Command;
+import model.command.RmCommand;
+import model.command.SetCommand;
+import model.command.ValuePointerCommand;
+import utils.VarIntUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 二进制data block构建器
+ * 记录：shared(varint) | unshared(varint) | valueLen(varint) | type(1) | key后缀 | value | seq(varlong)
+ * VALUE_POINTER记录的value是编码后的值日志位置
+ * 同一个key的多个版本相邻，按序列号从新到旧排列
+ * 每restartInterval条记录设置一个重启点，重启点处的key不做前缀压缩
+ * 块尾：重启点偏移(int)数组 | 重启点个数(int)
+ */
+public class BlockBuilder {
+    public static final byte TYPE_SET = 1;
+
+    public static final byte TYPE_RM = 2;
+
+    public static final byte TYPE_VALUE_POINTER = 3;
+
+    public static final int DEFAULT_RESTART_INTERVAL = 16;
+
+    private final int restartInterval;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    private final List<Integer> restarts = new ArrayList<>();
+
+    /**
+     * 上一个key，用于计算共享前缀
+     */
+    private byte[] lastKey = new byte[0];
+
+    /**
+     * 距离上一个重启点的记录数
+     */
+    private int counter;
+
+    /**
+     * 记录总数
+     */
+    private int count;
+
+    /**
+     * 块中第一个key，写入稀疏索引
+     */
+    private byte[] firstKey;
+
+    public BlockBuilder(int restartInterval) {
+        this.restartInterval = Math.max(1, restartInterval);
+    }
+
+    /**
+     * 追加一条记录，key必须递增，key相同时序列号必须递减
+     * @param command
+     */
+    public void add(Command command) {
+        byte[] key = command.getKey();
+        byte[] value = null;
+        byte type;
+        if (command instanceof ValuePointerCommand) {
+            type = TYPE_VALUE_POINTER;
+            value = ((SetCommand) command).getValue();
+        } else if (command instanceof SetCommand) {
+            type = TYPE_SET;
+            value = ((SetCommand) command).getValue();
+        } else if (command instanceof RmCommand) {
+            type = TYPE_RM;
+        } else {
+            throw new IllegalArgumentException("unknown command: " + command);
+        }
+        int shared = 0;
+        if (counter < restartInterval) {
+            int limit = Math.min(lastKey.length, key.length);
+            while (shared < limit && lastKey[shared] == key[shared]) {
+                shared++;
+            }
+        } else {
+            counter = 0;
+        }
+        if (counter == 0) {
+            restarts.add(buffer.size());
+            shared = 0;
+        }
+        int valueLen = value == null ? 0 : value.length;
+        try {
+            VarIntUtils.write(buffer, shared);
+            VarIntUtils.write(buffer, key.length - shared);
+            VarIntUtils.write(buffer, valueLen);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        buffer.write(type);
+        buffer.write(key, shared, key.length - shared);
+        if (value != null) {
+            buffer.write(value, 0, value.length);
+        }
+        try {
+            VarIntUtils.writeLong(buffer, command.getSeq());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (count == 0) {
+            firstKey = command.getKey();
+        }
+        lastKey = key;
+        counter++;
+        count++;
+    }
+
+    /**
+     * 写入重启点，返回完整的块
+     * @return
+     */
+    public byte[] finish() {
+        for (int restart : restarts) {
+            writeInt(restart);
+        }
+        writeInt(restarts.size());
+        return buffer.toByteArray();
+    }
+
+    public void reset() {
+        buffer.reset();
+        restarts.clear();
+        lastKey = new byte[0];
+        counter = 0;
+        count = 0;
+        firstKey = null;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public byte[] getFirstKey() {
+        return firstKey;
+    }
+
+    /**
+     * 最后追加的key
+     * @return
+     */
+    public byte[] getLastKey() {
+        return lastKey;
+    }
+
+    private void writeInt(int value) {
+        buffer.write(value >>> 24);
+        buffer.write(value >>> 16);
+        buffer.write(value >>> 8);
+        buffer.write(value);
+    }
+}
@@ -0,0 +1,221 @@
+package model.ssTable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 解压后data block的共享LRU缓存，按(表编号, block偏移)索引
+ * 分片加锁以降低并发读的竞争，容量按字节计算
+ */
+public class BlockCache {
+    /**
+     * 分片个数，必须为2的幂
+     */
+    private static final int SHARD_COUNT = 16;
+
+    /**
+     * 每个缓存项除数据外的估算开销
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final Shard[] shards;
+
+    private final long capacity;
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * @param capacity 缓存容量（字节）
+     */
+    public BlockCache(long capacity) {
+        this.capacity = capacity;
+        this.shards = new Shard[SHARD_COUNT];
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new Shard(Math.max(1, capacity / SHARD_COUNT));
+        }
+    }
+
+    /**
+     * 查询缓存
+     * @param tableId
+     * @param offset
+     * @return 未命中返回null
+     */
+    public Block get(long tableId, long offset) {
+        CacheKey key = new CacheKey(tableId, offset);
+        Block block = shardFor(key).get(key);
+        if (block == null) {
+            missCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return block;
+    }
+
+    /**
+     * 放入缓存，超出容量时淘汰最久未使用的block
+     * @param tableId
+     * @param offset
+     * @param block
+     */
+    public void put(long tableId, long offset, Block block) {
+        CacheKey key = new CacheKey(tableId, offset);
+        shardFor(key).put(key, block);
+    }
+
+    /**
+     * SsTable被删除时清除其全部缓存
+     * @param tableId
+     */
+    public void eraseTable(long tableId) {
+        for (Shard shard : shards) {
+            shard.eraseTable(tableId);
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 当前占用字节数
+     * @return
+     */
+    public long getUsage() {
+        long usage = 0;
+        for (Shard shard : shards) {
+            usage += shard.getUsage();
+        }
+        return usage;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    private Shard shardFor(CacheKey key) {
+        return shards[key.hashCode() & (SHARD_COUNT - 1)];
+    }
+
+    private static long charge(Block block) {
+        return block.size() + ENTRY_OVERHEAD;
+    }
+
+    private class Shard {
+        private final long capacity;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * 按访问顺序排列，队首为最久未使用
+         */
+        private final LinkedHashMap<CacheKey, Block> map = new LinkedHashMap<>(16, 0.75f, true);
+
+        private long usage;
+
+        private Shard(long capacity) {
+            this.capacity = capacity;
+        }
+
+        private Block get(CacheKey key) {
+            lock.lock();
+            try {
+                return map.get(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void put(CacheKey key, Block block) {
+            lock.lock();
+            try {
+                Block old = map.put(key, block);
+                if (old != null) {
+                    usage -= charge(old);
+                }
+                usage += charge(block);
+                Iterator<Map.Entry<CacheKey, Block>> iterator = map.entrySet().iterator();
+                while (usage > capacity && iterator.hasNext()) {
+                    Map.Entry<CacheKey, Block> eldest = iterator.next();
+                    //刚放入的block比整个分片还大时也不保留
+                    usage -= charge(eldest.getValue());
+                    iterator.remove();
+                    evictionCount.increment();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void eraseTable(long tableId) {
+            lock.lock();
+            try {
+                Iterator<Map.Entry<CacheKey, Block>> iterator = map.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<CacheKey, Block> entry = iterator.next();
+                    if (entry.getKey().tableId == tableId) {
+                        usage -= charge(entry.getValue());
+                        iterator.remove();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private long getUsage() {
+            lock.lock();
+            try {
+                return usage;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class CacheKey {
+        private final long tableId;
+
+        private final long offset;
+
+        private CacheKey(long tableId, long offset) {
+            this.tableId = tableId;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey that = (CacheKey) o;
+            return tableId == that.tableId && offset == that.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = tableId * 0x9E3779B97F4A7C15L + offset;
+            h ^= h >>> 32;
+            h *= 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 29));
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package model.ssTable;
+
+import org.xerial.snappy.Snappy;
+import utils.VarIntUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * data block压缩算法，编号记录在每个data block末尾，读取时按编号解压，与打开时的配置无关
+ * 可以通过{@link #register(BlockCodec)}注册自定义算法，编号0到2已被内置算法占用
+ */
+public abstract class BlockCodec {
+    public static final byte NONE_ID = 0;
+
+    public static final byte SNAPPY_ID = 1;
+
+    public static final byte DEFLATE_ID = 2;
+
+    /**
+     * 不压缩
+     */
+    public static final BlockCodec NONE = new NoneCodec();
+
+    public static final BlockCodec SNAPPY = new SnappyCodec();
+
+    /**
+     * 按编号解压时使用的算法，同一编号的不同压缩级别使用相同的解压方式
+     */
+    private static final BlockCodec[] REGISTRY = new BlockCodec[256];
+
+    static {
+        register(NONE);
+        register(SNAPPY);
+        register(deflate(Deflater.DEFAULT_COMPRESSION));
+    }
+
+    /**
+     * JDK Deflate压缩
+     * @param level 0到9，越大压缩率越高、越慢，-1为默认级别
+     * @return
+     */
+    public static BlockCodec deflate(int level) {
+        return new DeflateCodec(level);
+    }
+
+    /**
+     * 注册解压使用的算法，同一编号重复注册时覆盖
+     * @param codec
+     */
+    public static synchronized void register(BlockCodec codec) {
+        REGISTRY[codec.getId() & 0xFF] = codec;
+    }
+
+    /**
+     * 按data block中记录的编号取得算法
+     * @param id
+     * @return
+     */
+    public static BlockCodec forId(byte id) {
+        BlockCodec codec = REGISTRY[id & 0xFF];
+        if (codec == null) {
+            throw new IllegalArgumentException("unknown block codec: " + id);
+        }
+        return codec;
+    }
+
+    /**
+     * 记录在data block中的编号
+     * @return
+     */
+    public abstract byte getId();
+
+    public abstract byte[] compress(byte[] raw) throws IOException;
+
+    /**
+     * 解压data中从offset开始的length个字节
+     * @param data
+     * @param offset
+     * @param length
+     * @return
+     * @throws IOException
+     */
+    public abstract byte[] decompress(byte[] data, int offset, int length) throws IOException;
+
+    private static class NoneCodec extends BlockCodec {
+        @Override
+        public byte getId() {
+            return NONE_ID;
+        }
+
+        @Override
+        public byte[] compress(byte[] raw) {
+            return raw;
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int offset, int length) {
+            if (offset == 0 && length == data.length) {
+                return data;
+            }
+            byte[] raw = new byte[length];
+            System.arraycopy(data, offset, raw, 0, length);
+            return raw;
+        }
+
+        @Override
+        public String toString() {
+            return "none";
+        }
+    }
+
+    private static class SnappyCodec extends BlockCodec {
+        @Override
+        public byte getId() {
+            return SNAPPY_ID;
+        }
+
+        @Override
+        public byte[] compress(byte[] raw) throws IOException {
+            return Snappy.compress(raw);
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int offset, int length) throws IOException {
+            byte[] raw = new byte[Snappy.uncompressedLength(data, offset, length)];
+            Snappy.uncompress(data, offset, length, raw, 0);
+            return raw;
+        }
+
+        @Override
+        public String toString() {
+            return "snappy";
+        }
+    }
+
+    /**
+     * 格式：rawLen(varint) | zlib数据，解压时不需要知道压缩级别
+     */
+    private static class DeflateCodec extends BlockCodec {
+        /**
+         * Inflater持有本地内存，每个线程复用一个
+         */
+        private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+        private final int level;
+
+        private DeflateCodec(int level) {
+            if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("deflate level: " + level);
+            }
+            this.level = level;
+        }
+
+        @Override
+        public byte getId() {
+            return DEFLATE_ID;
+        }
+
+        @Override
+        public byte[] compress(byte[] raw) {
+            Deflater deflater = new Deflater(level);
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+                VarIntUtils.write(out, raw.length);
+                byte[] buffer = new byte[Math.max(64, Math.min(raw.length, 64 * 1024))];
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    out.write(buffer, 0, n);
+                }
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+            byte[] raw = new byte[VarIntUtils.read(buffer)];
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            inflater.setInput(data, buffer.position(), offset + length - buffer.position());
+            try {
+                int n = 0;
+                while (n < raw.length) {
+                    int inflated = inflater.inflate(raw, n, raw.length - n);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("truncated deflate block");
+                    }
+                    n += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            }
+            return raw;
+        }
+
+        @Override
+        public String toString() {
+            return "deflate(" + level + ")";
+        }
+    }
+}
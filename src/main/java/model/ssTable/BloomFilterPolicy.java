@@ -0,0 +1,159 @@
+package model.ssTable;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 布隆过滤器策略，整个存储共享一个实例
+ * 过滤器格式：位数组 | 哈希函数个数(1字节)
+ */
+public class BloomFilterPolicy {
+    /**
+     * 每个key占用的位数
+     */
+    private final int bitsPerKey;
+
+    /**
+     * 哈希函数个数
+     */
+    private final int hashCount;
+
+    /**
+     * 过滤器判定key不存在，跳过读文件的次数
+     */
+    private final LongAdder usefulCount = new LongAdder();
+
+    /**
+     * 过滤器判定key可能存在，但实际不存在的次数
+     */
+    private final LongAdder falsePositiveCount = new LongAdder();
+
+    /**
+     * @param bitsPerKey 每个key占用的位数，不大于0时不生成过滤器
+     */
+    public BloomFilterPolicy(int bitsPerKey) {
+        this.bitsPerKey = Math.max(0, bitsPerKey);
+        //k = ln2 * bitsPerKey 时误判率最低
+        this.hashCount = Math.max(1, Math.min(30, (int) Math.round(this.bitsPerKey * 0.69)));
+    }
+
+    public boolean isEnabled() {
+        return bitsPerKey > 0;
+    }
+
+    /**
+     * 为一组key生成过滤器
+     * @param keys
+     * @return
+     */
+    public byte[] createFilter(Collection<byte[]> keys) {
+        int bits = Math.max(64, keys.size() * bitsPerKey);
+        int bytes = (bits + 7) / 8;
+        bits = bytes * 8;
+        byte[] filter = new byte[bytes + 1];
+        filter[bytes] = (byte) hashCount;
+        for (byte[] key : keys) {
+            int h = hash(key);
+            int delta = (h >>> 17) | (h << 15);
+            for (int i = 0; i < hashCount; i++) {
+                int bitPos = (int) ((h & 0xFFFFFFFFL) % bits);
+                filter[bitPos / 8] |= (1 << (bitPos % 8));
+                h += delta;
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * key是否可能在过滤器中
+     * @param key
+     * @param filter
+     * @return false表示一定不存在
+     */
+    public boolean keyMayMatch(byte[] key, byte[] filter) {
+        int len = filter.length;
+        if (len < 2) {
+            return true;
+        }
+        int bits = (len - 1) * 8;
+        int k = filter[len - 1];
+        if (k > 30) {
+            //保留给以后的新编码
+            return true;
+        }
+        int h = hash(key);
+        int delta = (h >>> 17) | (h << 15);
+        for (int i = 0; i < k; i++) {
+            int bitPos = (int) ((h & 0xFFFFFFFFL) % bits);
+            if ((filter[bitPos / 8] & (1 << (bitPos % 8))) == 0) {
+                return false;
+            }
+            h += delta;
+        }
+        return true;
+    }
+
+    public void recordUseful() {
+        usefulCount.increment();
+    }
+
+    public void recordFalsePositive() {
+        falsePositiveCount.increment();
+    }
+
+    public long getUsefulCount() {
+        return usefulCount.sum();
+    }
+
+    public long getFalsePositiveCount() {
+        return falsePositiveCount.sum();
+    }
+
+    public int getBitsPerKey() {
+        return bitsPerKey;
+    }
+
+    /**
+     * 对key的字节做murmur3 32位哈希，字符串key即其UTF-8编码
+     */
+    private static int hash(byte[] data) {
+        int h = 0xbc9f1d34;
+        int len = data.length;
+        int i = 0;
+        while (i + 4 <= len) {
+            int k = (data[i] & 0xFF) | ((data[i + 1] & 0xFF) << 8)
+                    | ((data[i + 2] & 0xFF) << 16) | ((data[i + 3] & 0xFF) << 24);
+            h ^= mixK(k);
+            h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+            i += 4;
+        }
+        int k = 0;
+        switch (len - i) {
+            case 3:
+                k ^= (data[i + 2] & 0xFF) << 16;
+                // fall through
+            case 2:
+                k ^= (data[i + 1] & 0xFF) << 8;
+                // fall through
+            case 1:
+                k ^= data[i] & 0xFF;
+                h ^= mixK(k);
+                break;
+            default:
+                break;
+        }
+        h ^= len;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int mixK(int k) {
+        k *= 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15);
+        return k * 0x1b873593;
+    }
+}
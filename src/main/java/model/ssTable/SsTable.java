@@ -3,30 +3,47 @@ package model.ssTable;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.alibaba.fastjson.TypeReference;
+import com.alibaba.fastjson.parser.Feature;
 import model.Position;
 import model.command.Command;
-import model.command.RmCommand;
-import model.command.SetCommand;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xerial.snappy.Snappy;
+import utils.BytesUtils;
 import utils.ConvertUtils;
 import utils.LoggerUtil;
+import utils.RateLimiter;
+import utils.VarIntUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 排序字符串表
  */
 public class SsTable implements Closeable {
     public static final String RW = "rw";
+    public static final String R = "r";
 
     private final Logger LOGGER = LoggerFactory.getLogger(SsTable.class);
 
@@ -36,39 +53,158 @@ public class SsTable implements Closeable {
     private TableMetaInfo tableMetaInfo;
 
     /**
-     * 稀疏索引
+     * 稀疏索引，data block的第一个key到block位置，延迟打开的表在第一次访问时加载
      */
-    private TreeMap<String, Position> sparseIndex;
+    private volatile TreeMap<byte[], Position> sparseIndex;
 
     /**
      * 文件句柄
      */
     private final RandomAccessFile tableFile;
 
+    /**
+     * 文件通道，读取时使用按位置读，不移动文件指针，多线程并发读无需加锁
+     */
+    private final FileChannel fileChannel;
+
+    /**
+     * 是否使用内存映射读取
+     */
+    private final boolean mmap;
+
+    /**
+     * 内存映射的只读文件，SsTable写入完成后不再修改
+     */
+    private MappedByteBuffer mappedFile;
+
     /**
      * 文件路径
      */
     private final String filePath;
 
     /**
-     * data block是否压缩
+     * data block是否压缩；新版本的表按每个block记录的算法解压，只有旧版本的表读取时依赖该配置
      */
     private boolean enablePartDataCompressed;
 
+    /**
+     * 写入data block使用的压缩算法，由层级决定
+     */
+    private BlockCodec blockCodec = BlockCodec.NONE;
+
+    /**
+     * 压缩后节省的空间不足该比例时存储原始数据
+     */
+    private final double minCompressionSavings;
+
+    /**
+     * 各层的压缩算法
+     */
+    private final SsTableOptions options;
+
+    /**
+     * 写入文件时的IO优先级，持久化为HIGH，合并为LOW
+     */
+    private RateLimiter.Priority writePriority = RateLimiter.Priority.HIGH;
+
+    /**
+     * 表编号生成器，进程内唯一，用于block缓存
+     */
+    private static final AtomicLong TABLE_ID = new AtomicLong();
+
+    /**
+     * 表编号
+     */
+    private final long tableId;
+
+    /**
+     * 布隆过滤器策略，为null时不生成也不使用过滤器
+     */
+    private final BloomFilterPolicy filterPolicy;
+
+    /**
+     * data block缓存，为null时不缓存
+     */
+    private final BlockCache blockCache;
+
+    /**
+     * 读取统计，为null时不统计
+     */
+    private final TableReadStats readStats;
+
+    /**
+     * 布隆过滤器
+     */
+    private byte[] filter;
+
+    /**
+     * 文件编号，由文件名得到，越大越新；文件名不是编号时为-1
+     */
+    private final long fileId;
+
+    /**
+     * 引用计数，创建者持有一个引用，加入TableVersion后由创建者释放
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    /**
+     * 已被合并替换，引用全部释放后删除文件
+     */
+    private volatile boolean obsolete;
+
+    /**
+     * 文件大小，写入完成后不再变化
+     */
+    private long fileSize;
+
+    /**
+     * 最小key
+     */
+    private byte[] smallestKey;
+
+    /**
+     * 最大key
+     */
+    private byte[] largestKey;
+
     /**
      * @param filePath  文件路径
      * @param partSize  data block的大小
      * @param enablePartDataCompressed 是否压缩
      */
     public SsTable(String filePath, long partSize, boolean enablePartDataCompressed){
+        this(filePath, partSize, enablePartDataCompressed, new SsTableOptions());
+    }
+
+    /**
+     * @param filePath  文件路径
+     * @param partSize  data block的大小
+     * @param enablePartDataCompressed 是否压缩
+     * @param options 共享组件
+     */
+    public SsTable(String filePath, long partSize, boolean enablePartDataCompressed, SsTableOptions options){
+        this(filePath, partSize, enablePartDataCompressed, options, RW);
+    }
+
+    private SsTable(String filePath, long partSize, boolean enablePartDataCompressed, SsTableOptions options,
+                    String mode){
         this.tableMetaInfo = new TableMetaInfo();
         this.tableMetaInfo.setPartSize(partSize);
         this.filePath = filePath;
-        sparseIndex = new TreeMap<String, Position>();
+        sparseIndex = new TreeMap<>(BytesUtils.COMPARATOR);
         this.enablePartDataCompressed = enablePartDataCompressed;
+        this.tableId = TABLE_ID.incrementAndGet();
+        this.fileId = parseFileId(filePath);
+        this.filterPolicy = options.getFilterPolicy();
+        this.blockCache = options.getBlockCache();
+        this.readStats = options.getReadStats();
+        this.mmap = options.isMmap();
+        this.options = options;
+        this.minCompressionSavings = options.getMinCompressionSavings();
         try {
-            tableFile = new RandomAccessFile(filePath, RW);
+            tableFile = new RandomAccessFile(filePath, mode);
             tableFile.seek(0);
+            fileChannel = tableFile.getChannel();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -83,9 +219,74 @@ public class SsTable implements Closeable {
      * @return
      */
     public static SsTable createFromIndex(String filePath, long partSize,
-                                   TreeMap<String, Command> index, boolean enablePartDataCompressed){
-        SsTable ssTable = new SsTable(filePath, partSize, enablePartDataCompressed);
-        ssTable.initFromIndex(index);
+                                   SortedMap<byte[], Command> index, boolean enablePartDataCompressed){
+        return createFromIndex(filePath, partSize, index, enablePartDataCompressed, new SsTableOptions());
+    }
+
+    /**
+     * 从内存中构建SsTable，使用共享的布隆过滤器策略和block缓存
+     * @param filePath
+     * @param partSize
+     * @param index
+     * @param enablePartDataCompressed
+     * @param options
+     * @return
+     */
+    public static SsTable createFromIndex(String filePath, long partSize, SortedMap<byte[], Command> index,
+                                          boolean enablePartDataCompressed, SsTableOptions options){
+        return createFromIndex(filePath, partSize, index, enablePartDataCompressed, options, 0);
+    }
+
+    /**
+     * 从内存中构建指定层级的SsTable，用于合并输出
+     * @param filePath
+     * @param partSize
+     * @param index
+     * @param enablePartDataCompressed
+     * @param options
+     * @param level
+     * @return
+     */
+    public static SsTable createFromIndex(String filePath, long partSize, SortedMap<byte[], Command> index,
+                                          boolean enablePartDataCompressed, SsTableOptions options, int level){
+        return createFromCommands(filePath, partSize, new ArrayList<>(index.values()),
+                enablePartDataCompressed, options, level);
+    }
+
+    /**
+     * 由有序的命令构建指定层级的SsTable，同一个key可以有多个版本
+     * @param filePath
+     * @param partSize
+     * @param commands 按key递增，key相同时按序列号递减
+     * @param enablePartDataCompressed
+     * @param options
+     * @param level
+     * @return
+     */
+    public static SsTable createFromCommands(String filePath, long partSize, List<Command> commands,
+                                             boolean enablePartDataCompressed, SsTableOptions options, int level){
+        return createFromCommands(filePath, partSize, commands, enablePartDataCompressed, options, level,
+                RateLimiter.Priority.HIGH);
+    }
+
+    /**
+     * 由有序的命令构建指定层级的SsTable，写入文件时按优先级经过options中的限速
+     * @param filePath
+     * @param partSize
+     * @param commands 按key递增，key相同时按序列号递减
+     * @param enablePartDataCompressed
+     * @param options
+     * @param level
+     * @param priority 持久化为HIGH，合并为LOW
+     * @return
+     */
+    public static SsTable createFromCommands(String filePath, long partSize, List<Command> commands,
+                                             boolean enablePartDataCompressed, SsTableOptions options, int level,
+                                             RateLimiter.Priority priority){
+        SsTable ssTable = new SsTable(filePath, partSize, enablePartDataCompressed, options);
+        ssTable.writePriority = priority;
+        ssTable.tableMetaInfo.setLevel(level);
+        ssTable.initFromCommands(commands);
         return ssTable;
     }
 
@@ -96,139 +297,650 @@ public class SsTable implements Closeable {
      * @return
      */
     public static SsTable createFromFile(String filePath, boolean enablePartDataCompressed){
-        SsTable ssTable = new SsTable(filePath, 0, enablePartDataCompressed);
+        return createFromFile(filePath, enablePartDataCompressed, new SsTableOptions());
+    }
+
+    /**
+     * 从文件中构建SsTable，使用共享的布隆过滤器策略和block缓存
+     * @param filePath
+     * @param enablePartDataCompressed
+     * @param options
+     * @return
+     */
+    public static SsTable createFromFile(String filePath, boolean enablePartDataCompressed,
+                                         SsTableOptions options){
+        SsTable ssTable = new SsTable(filePath, 0, enablePartDataCompressed, options, R);
         ssTable.restoreFromFile();
         return ssTable;
     }
 
+    /**
+     * 打开已存在的SsTable，层级和key范围来自MANIFEST
+     * 只读取索引信息和布隆过滤器，稀疏索引在第一次访问时加载，不再为确定最大key读取最后一个data block
+     * @param filePath
+     * @param enablePartDataCompressed
+     * @param options
+     * @param level
+     * @param smallestKey
+     * @param largestKey
+     * @param lazyIndex 是否延迟加载稀疏索引
+     * @return
+     */
+    public static SsTable openFromFile(String filePath, boolean enablePartDataCompressed, SsTableOptions options,
+                                       int level, byte[] smallestKey, byte[] largestKey, boolean lazyIndex){
+        SsTable ssTable = new SsTable(filePath, 0, enablePartDataCompressed, options, R);
+        try {
+            ssTable.sparseIndex = null;
+            ssTable.restoreMetaInfo();
+            ssTable.tableMetaInfo.setLevel(level);
+            ssTable.smallestKey = smallestKey;
+            ssTable.largestKey = largestKey;
+            if(!lazyIndex){
+                ssTable.sparseIndex();
+            }
+            return ssTable;
+        } catch (RuntimeException e) {
+            try {
+                ssTable.close();
+            } catch (IOException closeError) {
+                e.addSuppressed(closeError);
+            }
+            throw e;
+        }
+    }
+
     /**
      * 从内存转化为SsTable
      * @param index
      */
-    public void initFromIndex(TreeMap<String, Command> index){
+    public void initFromIndex(SortedMap<byte[], Command> index){
+        initFromCommands(new ArrayList<>(index.values()));
+    }
+
+    /**
+     * 将有序的命令转化为SsTable，同一个key的多个版本不会跨越data block
+     * @param commands 按key递增，key相同时按序列号递减
+     */
+    public void initFromCommands(List<Command> commands){
         try {
-            JSONObject partData = new JSONObject(true);
+            BlockBuilder partData = new BlockBuilder(BlockBuilder.DEFAULT_RESTART_INTERVAL);
+            tableMetaInfo.setVersion(TableMetaInfo.CURRENT_VERSION);
+            blockCodec = enablePartDataCompressed
+                    ? options.codecForLevel((int) tableMetaInfo.getLevel()) : BlockCodec.NONE;
             tableMetaInfo.setDataStart(tableFile.getFilePointer());
-            for (Command command : index.values()){
-                if(command instanceof SetCommand){
-                    SetCommand set = (SetCommand) command;
-                    partData.put(set.getKey(), set);
-                }
-                if(command instanceof RmCommand){
-                    RmCommand rm = (RmCommand) command;
-                    partData.put(rm.getKey(), rm);
-                }
+            List<byte[]> keys = new ArrayList<>();
+            long maxSequence = 0;
+            for (Command command : commands){
+                boolean newKey = keys.isEmpty() || !Arrays.equals(keys.get(keys.size() - 1), command.getKey());
                 // 开始写入数据段
-                if(partData.size() >= tableMetaInfo.getPartSize()){
+                if(newKey && partData.count() >= tableMetaInfo.getPartSize()){
                     writeDataPart(partData);
                 }
+                partData.add(command);
+                if(newKey){
+                    keys.add(command.getKey());
+                }
+                maxSequence = Math.max(maxSequence, command.getSeq());
             }
             //将剩余的数据也写入文件
-            if(partData.size() > 0){
+            if(!partData.isEmpty()){
                 writeDataPart(partData);
             }
 
             tableMetaInfo.setDataLen(tableFile.getFilePointer()-tableMetaInfo.getDataStart());
-            byte[] sparseIndexByte = JSONObject.toJSONString(sparseIndex).getBytes(StandardCharsets.UTF_8);
+            byte[] sparseIndexByte = encodeSparseIndex();
             tableMetaInfo.setIndexStart(tableFile.getFilePointer());
             tableMetaInfo.setIndexLen(sparseIndexByte.length);
+            throttleWrite(sparseIndexByte.length);
             tableFile.write(sparseIndexByte);
-            LoggerUtil.debug(LOGGER, "[SsTable][initFromIndex][sparseIndex]: {}", sparseIndex);
+            LoggerUtil.debug(LOGGER, "[SsTable][initFromCommands][sparseIndex]: {} blocks", sparseIndex.size());
 
+            //布隆过滤器
+            tableMetaInfo.setFilterStart(tableFile.getFilePointer());
+            if(filterPolicy != null && filterPolicy.isEnabled()){
+                filter = filterPolicy.createFilter(keys);
+                throttleWrite(filter.length);
+                tableFile.write(filter);
+                tableMetaInfo.setFilterLen(filter.length);
+            }
+
+            tableMetaInfo.setMaxSequence(maxSequence);
             tableMetaInfo.writeToFile(tableFile);
-            LoggerUtil.info(LOGGER, "[SsTable][initFromIndex]: {},{}", filePath, tableMetaInfo);
+            //刷盘后才能记录到MANIFEST
+            fileChannel.force(true);
+            LoggerUtil.info(LOGGER, "[SsTable][initFromCommands]: {},{}", filePath, tableMetaInfo);
+            if(!keys.isEmpty()){
+                smallestKey = keys.get(0);
+                largestKey = keys.get(keys.size() - 1);
+            }
+            mapFile();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     /**
-     * 把数据分区写入文件
+     * 后台写入前按优先级申请IO配额，未配置限速时直接返回
+     * @param bytes
+     */
+    private void throttleWrite(long bytes){
+        RateLimiter rateLimiter = options.getRateLimiter();
+        if(rateLimiter != null){
+            rateLimiter.request(bytes, writePriority);
+        }
+    }
+
+    /**
+     * 把数据分区写入文件：压缩后的数据 | 压缩算法编号(1)
+     * 压缩节省的空间不足minCompressionSavings时存储原始数据，编号为NONE
      * @param partData
      */
-    public void writeDataPart(JSONObject partData) throws IOException {
-        LoggerUtil.debug(LOGGER,"write beginning...");
-        byte[] partDataByte = partData.toJSONString().getBytes(StandardCharsets.UTF_8);
+    public void writeDataPart(BlockBuilder partData) throws IOException {
+        byte[] partDataByte = partData.finish();
 
         //partData进行压缩
-        if(enablePartDataCompressed){
-            LoggerUtil.debug(LOGGER, "writeDataPart, partDataByte size:["+partDataByte.length+"]");
-            partDataByte = Snappy.compress(partDataByte);
-            LoggerUtil.debug(LOGGER, "writeDataPart, partDataByte compressed size:["+partDataByte.length+"]");
+        BlockCodec codec = blockCodec;
+        if(codec.getId() != BlockCodec.NONE_ID){
+            byte[] compressed = codec.compress(partDataByte);
+            if(compressed.length <= partDataByte.length * (1 - minCompressionSavings)){
+                partDataByte = compressed;
+            }else{
+                codec = BlockCodec.NONE;
+            }
         }
+        LoggerUtil.debug(LOGGER, "[SsTable][writeDataPart]: {} bytes, {}", partDataByte.length, codec);
 
         //partData写入文件
         long start = tableFile.getFilePointer();
-        LoggerUtil.debug(LOGGER, "writeDataPart, before write start:["+start+"]");
+        throttleWrite(partDataByte.length + 1);
         tableFile.write(partDataByte);
-        LoggerUtil.debug(LOGGER, "writeDataPart, after write start:["+tableFile.getFilePointer()+"]");
+        tableFile.write(codec.getId());
 
         //将每个partData的第一个key写入稀疏索引
-        Optional<String> firstKey = partData.keySet().stream().findFirst();
-        byte[] finalPartDataByte = partDataByte;
-        firstKey.ifPresent(k-> sparseIndex.put(k, new Position(start, finalPartDataByte.length)));
+        sparseIndex.put(partData.getFirstKey(), new Position(start, partDataByte.length + 1));
 
-        partData.clear();
+        partData.reset();
     }
 
     public void restoreFromFile(){
         try {
-            tableMetaInfo = TableMetaInfo.readFromFile(tableFile);
-            LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][tableMetaInfo]: {}", tableMetaInfo);
-
-            byte[] sparseIndexByte = new byte[(int)tableMetaInfo.getIndexLen()];
-            tableFile.seek(tableMetaInfo.getIndexStart());
-            tableFile.read(sparseIndexByte);
-            String sparseIndexStr = new String(sparseIndexByte, StandardCharsets.UTF_8);
-            LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][sparseIndexStr]: {}", sparseIndexStr);
-            sparseIndex = JSONObject.parseObject(sparseIndexStr,
-                    new TypeReference<TreeMap<String, Position>>(){});
-            LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][sparseIndex]: {}", sparseIndex);
+            restoreMetaInfo();
+            sparseIndex = null;
+            TreeMap<byte[], Position> index = sparseIndex();
+            //最大key在最后一个data block的末尾
+            if(!index.isEmpty()){
+                smallestKey = index.firstKey();
+                Iterator<Command> lastBlock = blockIterator(index.lastEntry().getValue());
+                while (lastBlock.hasNext()){
+                    largestKey = lastBlock.next().getKey();
+                }
+            }
 
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public Command query(String key){
+    /**
+     * 读取索引信息和布隆过滤器，并按配置映射文件
+     */
+    private void restoreMetaInfo(){
         try {
-            List<Position> positionList = new LinkedList<>();
-            for(String k:sparseIndex.keySet()){
-                if(k.compareTo(key) <= 0){
-                    positionList.add(sparseIndex.get(k));
-                }else {
-                    break;
+            tableMetaInfo = TableMetaInfo.readFromFile(tableFile);
+            LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][tableMetaInfo]: {}", tableMetaInfo);
+            if(filterPolicy != null && tableMetaInfo.getFilterLen() > 0){
+                filter = new byte[(int) tableMetaInfo.getFilterLen()];
+                readFully(tableMetaInfo.getFilterStart(), filter);
+            }
+            mapFile();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 稀疏索引，尚未加载时读取并解码，并发访问时只加载一次
+     * @return
+     */
+    private TreeMap<byte[], Position> sparseIndex(){
+        TreeMap<byte[], Position> index = sparseIndex;
+        if(index != null){
+            return index;
+        }
+        synchronized (this){
+            if(sparseIndex == null){
+                try {
+                    byte[] sparseIndexByte = new byte[(int) tableMetaInfo.getIndexLen()];
+                    readFully(tableMetaInfo.getIndexStart(), sparseIndexByte);
+                    sparseIndex = decodeSparseIndex(sparseIndexByte);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
                 }
+                LoggerUtil.debug(LOGGER, "[SsTable][sparseIndex]: {} blocks", sparseIndex.size());
             }
-            //拿到数据的稀疏索引
-            if(positionList.size() == 0){
+            return sparseIndex;
+        }
+    }
+
+    /**
+     * 稀疏索引编码：keyLen(varint) | key | start(long) | length(varint)
+     * @return
+     */
+    private byte[] encodeSparseIndex() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        for (Map.Entry<byte[], Position> entry : sparseIndex.entrySet()){
+            VarIntUtils.write(out, entry.getKey().length);
+            out.write(entry.getKey());
+            out.writeLong(entry.getValue().getStart());
+            VarIntUtils.write(out, (int) entry.getValue().getLength());
+        }
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * 解码稀疏索引，旧版本为JSON格式，key按UTF-8转为字节
+     * @param bytes
+     * @return
+     */
+    private TreeMap<byte[], Position> decodeSparseIndex(byte[] bytes){
+        TreeMap<byte[], Position> sparseIndex = new TreeMap<>(BytesUtils.COMPARATOR);
+        if(tableMetaInfo.getVersion() < TableMetaInfo.VERSION_BINARY_INDEX){
+            TreeMap<String, Position> legacy = JSONObject.parseObject(new String(bytes, StandardCharsets.UTF_8),
+                    new TypeReference<TreeMap<String, Position>>(){});
+            for (Map.Entry<String, Position> entry : legacy.entrySet()){
+                sparseIndex.put(BytesUtils.toBytes(entry.getKey()), entry.getValue());
+            }
+            return sparseIndex;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()){
+            byte[] key = new byte[VarIntUtils.read(buffer)];
+            buffer.get(key);
+            long start = buffer.getLong();
+            sparseIndex.put(key, new Position(start, VarIntUtils.read(buffer)));
+        }
+        return sparseIndex;
+    }
+
+    public Command query(byte[] key){
+        return query(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * 查询key的序列号不大于sequence的最新版本
+     * @param key
+     * @param sequence
+     * @return
+     */
+    public Command query(byte[] key, long sequence){
+        try {
+            //布隆过滤器判定不存在时不读文件
+            if(filter != null && !filterPolicy.keyMayMatch(key, filter)){
+                filterPolicy.recordUseful();
                 return null;
             }
-            LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][positionList]: {}", positionList);
-            Position position = positionList.get(positionList.size()-1);
-            //找到key所在的data block中的数据
-            tableFile.seek(position.getStart());
-            byte[] data = new byte[(int) position.getLength()];
-            tableFile.read(data);
-            //解压缩
-            if(enablePartDataCompressed){
-                data = Snappy.uncompress(data);
-            }
-            JSONObject dataBlock = JSONObject.parseObject(new String(data, StandardCharsets.UTF_8));
-            LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][dataBlock]: {}", dataBlock);
-            if(dataBlock.containsKey(key)){
-                JSONObject value = dataBlock.getJSONObject(key);
-                return ConvertUtils.toCommand(value);
+            //key在block中是否有任意版本，只有比快照新的版本时不算误判，在已读取的block中判断
+            Command command;
+            boolean present;
+            if(tableMetaInfo.getVersion() < TableMetaInfo.VERSION_BINARY){
+                command = readFromBlock(key, sequence);
+                present = command != null;
+            } else {
+                Map.Entry<byte[], Position> entry = sparseIndex().floorEntry(key);
+                Block block = entry == null ? null : readBlock(entry.getValue());
+                command = block == null ? null : block.get(key, sequence);
+                present = command != null || (block != null && sequence != Long.MAX_VALUE && block.get(key) != null);
             }
-            return null;
+            if(!present && filter != null){
+                filterPolicy.recordFalsePositive();
+            }
+            return command;
         } catch (Throwable e) {
             e.printStackTrace();
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * 批量查询，keys按字节序递增，落在同一个data block中的key只读取和解码一次该block
+     * @param keys
+     * @return 与keys一一对应，不存在的为null
+     */
+    public Command[] multiQuery(List<byte[]> keys){
+        return multiQuery(keys, Long.MAX_VALUE);
+    }
+
+    /**
+     * 批量查询序列号不大于sequence的最新版本
+     * @param keys     按字节序递增
+     * @param sequence
+     * @return 与keys一一对应，不存在的为null
+     */
+    public Command[] multiQuery(List<byte[]> keys, long sequence){
+        Command[] results = new Command[keys.size()];
+        try {
+            Position lastPosition = null;
+            Block block = null;
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] key = keys.get(i);
+                if(filter != null && !filterPolicy.keyMayMatch(key, filter)){
+                    filterPolicy.recordUseful();
+                    continue;
+                }
+                //key在block中是否有任意版本，只有比快照新的版本时不算误判
+                boolean present;
+                if(tableMetaInfo.getVersion() < TableMetaInfo.VERSION_BINARY){
+                    results[i] = readFromBlock(key, sequence);
+                    present = results[i] != null;
+                } else {
+                    Map.Entry<byte[], Position> entry = sparseIndex().floorEntry(key);
+                    present = false;
+                    if(entry != null){
+                        //与上一个key在同一个block中时复用
+                        if(entry.getValue() != lastPosition){
+                            lastPosition = entry.getValue();
+                            block = readBlock(lastPosition);
+                        }
+                        results[i] = block.get(key, sequence);
+                        present = results[i] != null || (sequence != Long.MAX_VALUE && block.get(key) != null);
+                    }
+                }
+                if(!present && filter != null){
+                    filterPolicy.recordFalsePositive();
+                }
+            }
+            return results;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 从key所在的data block中查找
+     * @param key
+     * @param sequence
+     * @return
+     */
+    private Command readFromBlock(byte[] key, long sequence) throws IOException {
+        //拿到数据的稀疏索引：第一个key不大于查询key的data block
+        Map.Entry<byte[], Position> entry = sparseIndex().floorEntry(key);
+        if(entry == null){
+            return null;
+        }
+        Position position = entry.getValue();
+        LoggerUtil.debug(LOGGER, "[SsTable][query][position]: {}", position);
+        if(tableMetaInfo.getVersion() >= TableMetaInfo.VERSION_BINARY){
+            return readBlock(position).get(key, sequence);
+        }
+        byte[] data = readBlockData(position);
+        //旧版本JSON格式
+        JSONObject dataBlock = JSONObject.parseObject(new String(data, StandardCharsets.UTF_8));
+        LoggerUtil.debug(LOGGER, "[SsTable][query][dataBlock]: {}", dataBlock);
+        String jsonKey = BytesUtils.toString(key);
+        if(dataBlock.containsKey(jsonKey)){
+            JSONObject value = dataBlock.getJSONObject(jsonKey);
+            return ConvertUtils.toCommand(value);
+        }
+        return null;
+    }
+
+    /**
+     * 按key顺序逐个block遍历全部记录，不经过block缓存，用于合并
+     * @return
+     */
+    public Iterator<Command> iterator(){
+        return iterator(null);
+    }
+
+    /**
+     * 从startKey开始按key顺序遍历，每次只读取并解码一个data block，不经过block缓存
+     * 同一个key的多个版本按序列号从新到旧
+     * @param startKey 为null时从头开始
+     * @return
+     */
+    public Iterator<Command> iterator(byte[] startKey){
+        TreeMap<byte[], Position> index = sparseIndex();
+        byte[] fromKey = startKey == null ? null : index.floorKey(startKey);
+        Iterator<Position> positions = new ArrayList<>(fromKey == null
+                ? index.values() : index.tailMap(fromKey, true).values()).iterator();
+        return new Iterator<Command>() {
+            private Iterator<Command> current = Collections.emptyIterator();
+
+            private Command nextCommand;
+
+            @Override
+            public boolean hasNext() {
+                while (nextCommand == null){
+                    while (!current.hasNext() && positions.hasNext()){
+                        try {
+                            current = blockIterator(positions.next());
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    if(!current.hasNext()){
+                        return false;
+                    }
+                    Command command = current.next();
+                    //第一个block中小于startKey的记录
+                    if(startKey == null || BytesUtils.compare(command.getKey(), startKey) >= 0){
+                        nextCommand = command;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Command next() {
+                if(!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                Command command = nextCommand;
+                nextCommand = null;
+                return command;
+            }
+        };
+    }
+
+    /**
+     * 读取一个data block并按key顺序遍历
+     * @param position
+     * @return
+     */
+    private Iterator<Command> blockIterator(Position position) throws IOException {
+        byte[] data = readBlockData(position);
+        if(tableMetaInfo.getVersion() >= TableMetaInfo.VERSION_BINARY){
+            return new Block(data, isSequenced()).iterator();
+        }
+        //旧版本JSON格式，按写入顺序即key顺序解析
+        JSONObject dataBlock = JSON.parseObject(new String(data, StandardCharsets.UTF_8), Feature.OrderedField);
+        List<Command> commands = new ArrayList<>(dataBlock.size());
+        for (String key : dataBlock.keySet()){
+            commands.add(ConvertUtils.toCommand(dataBlock.getJSONObject(key)));
+        }
+        return commands.iterator();
+    }
+
+    /**
+     * 读取二进制data block，优先从缓存中获取
+     * @param position
+     * @return
+     */
+    private Block readBlock(Position position) throws IOException {
+        if(blockCache != null){
+            Block block = blockCache.get(tableId, position.getStart());
+            if(block != null){
+                return block;
+            }
+        }
+        Block block = new Block(readBlockData(position), isSequenced());
+        if(blockCache != null){
+            blockCache.put(tableId, position.getStart(), block);
+        }
+        return block;
+    }
+
+    /**
+     * 读取并解压data block
+     * @param position
+     * @return
+     */
+    private byte[] readBlockData(Position position) throws IOException {
+        //找到key所在的data block中的数据
+        byte[] data = new byte[(int) position.getLength()];
+        readFully(position.getStart(), data);
+        int bytesRead = data.length;
+        //解压缩，新版本按block末尾记录的算法，旧版本按打开时的配置
+        if(tableMetaInfo.getVersion() >= TableMetaInfo.VERSION_BLOCK_CODEC){
+            data = BlockCodec.forId(data[data.length - 1]).decompress(data, 0, data.length - 1);
+        }else if(enablePartDataCompressed){
+            data = Snappy.uncompress(data);
+        }
+        if(readStats != null){
+            readStats.recordBlockRead(bytesRead, data.length);
+        }
+        return data;
+    }
+
+    /**
+     * 从指定位置读满bytes，不修改文件指针，可并发调用
+     * @param position
+     * @param bytes
+     */
+    private void readFully(long position, byte[] bytes) throws IOException {
+        MappedByteBuffer mapped = mappedFile;
+        if(mapped != null){
+            ByteBuffer view = mapped.duplicate();
+            view.position((int) position);
+            view.get(bytes);
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()){
+            int n = fileChannel.read(buffer, position + buffer.position());
+            if(n < 0){
+                throw new EOFException(filePath);
+            }
+        }
+    }
+
+    /**
+     * 开启内存映射时将整个文件映射为只读，超过2GB的文件继续使用按位置读
+     */
+    private void mapFile() throws IOException {
+        long size = fileChannel.size();
+        fileSize = size;
+        if(mmap && size > 0 && size <= Integer.MAX_VALUE){
+            mappedFile = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    private boolean isSequenced(){
+        return tableMetaInfo.getVersion() >= TableMetaInfo.VERSION_SEQUENCE;
+    }
+
+    private static long parseFileId(String filePath){
+        String name = new File(filePath).getName();
+        int dotIndex = name.indexOf('.');
+        try {
+            return Long.parseLong(dotIndex < 0 ? name : name.substring(0, dotIndex));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public long getFileId() {
+        return fileId;
+    }
+
+    public int getLevel() {
+        return (int) tableMetaInfo.getLevel();
+    }
+
+    /**
+     * 表中最大的序列号，旧版本的表为0
+     * @return
+     */
+    public long getMaxSequence() {
+        return tableMetaInfo.getMaxSequence();
+    }
+
+    public byte[] getSmallestKey() {
+        return smallestKey;
+    }
+
+    public byte[] getLargestKey() {
+        return largestKey;
+    }
+
+    /**
+     * 文件大小
+     * @return
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * key是否在该表的key范围内
+     * @param key
+     * @return
+     */
+    public boolean containsInRange(byte[] key) {
+        return smallestKey != null && BytesUtils.compare(smallestKey, key) <= 0
+                && BytesUtils.compare(largestKey, key) >= 0;
+    }
+
+    /**
+     * 增加引用，每个包含该表的TableVersion持有一个引用，保证读取期间文件不被关闭
+     */
+    public void retain(){
+        refs.incrementAndGet();
+    }
+
+    /**
+     * 释放引用，最后一个引用释放时关闭文件，已被替换的表同时删除文件
+     */
+    public void release(){
+        if(refs.decrementAndGet() != 0){
+            return;
+        }
+        try {
+            close();
+        } catch (IOException e) {
+            LoggerUtil.error(LOGGER, "[SsTable][release]: {}", e);
+        }
+        if(obsolete){
+            File file = new File(filePath);
+            if(file.exists() && !file.delete()){
+                LoggerUtil.error(LOGGER, "[SsTable][release]: 删除文件失败 {}", filePath);
+            }
+        }
+    }
+
+    /**
+     * 标记为已被替换，引用全部释放后删除文件
+     */
+    public void markObsolete(){
+        obsolete = true;
+    }
+
+    /**
+     * 关闭文件并清除缓存
+     * @throws IOException
+     */
     @Override
     public void close() throws IOException {
+        mappedFile = null;
         tableFile.close();
+        if(blockCache != null){
+            blockCache.eraseTable(tableId);
+        }
     }
 }
@@ -0,0 +1,61 @@
+package model.ssTable;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+import utils.RateLimiter;
+
+import java.util.List;
+
+/**
+ * SsTable共享的组件，整个存储使用同一个实例
+ */
+@Data
+@Accessors(chain = true)
+public class SsTableOptions {
+    /**
+     * 布隆过滤器策略，为null时不生成也不使用过滤器
+     */
+    private BloomFilterPolicy filterPolicy;
+
+    /**
+     * 解压后data block的缓存，为null时不缓存
+     */
+    private BlockCache blockCache;
+
+    /**
+     * 是否使用内存映射读取SsTable文件
+     */
+    private boolean mmap;
+
+    /**
+     * 读取统计，为null时不统计
+     */
+    private TableReadStats readStats;
+
+    /**
+     * 各层data block的压缩算法，下标为层级，超出的层级使用最后一个；为null时使用Snappy
+     */
+    private List<BlockCodec> levelCodecs;
+
+    /**
+     * 压缩后节省的空间不足原始大小的该比例时不压缩，直接存储原始数据
+     */
+    private double minCompressionSavings = 0.125;
+
+    /**
+     * 写SsTable的IO限速，持久化优先于合并，为null时不限速
+     */
+    private RateLimiter rateLimiter;
+
+    /**
+     * 指定层级的压缩算法
+     * @param level
+     * @return
+     */
+    public BlockCodec codecForLevel(int level) {
+        if (levelCodecs == null || levelCodecs.isEmpty()) {
+            return BlockCodec.SNAPPY;
+        }
+        return levelCodecs.get(Math.min(level, levelCodecs.size() - 1));
+    }
+}
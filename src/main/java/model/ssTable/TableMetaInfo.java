@@ -10,6 +10,46 @@ import java.io.RandomAccessFile;
  */
 @Data
 public class TableMetaInfo {
+    /**
+     * data block为JSON格式的旧版本
+     */
+    public static final long VERSION_JSON = 0;
+
+    /**
+     * data block为前缀压缩的二进制格式，见{@link BlockBuilder}
+     */
+    public static final long VERSION_BINARY = 1;
+
+    /**
+     * 增加布隆过滤器段，索引信息中多出filterStart和filterLen
+     */
+    public static final long VERSION_BLOOM_FILTER = 2;
+
+    /**
+     * 增加SsTable所在的层级
+     */
+    public static final long VERSION_LEVEL = 3;
+
+    /**
+     * 稀疏索引改为二进制格式，key为任意字节
+     */
+    public static final long VERSION_BINARY_INDEX = 4;
+
+    /**
+     * data block中每条记录带有序列号，同一个key可以有多个版本，索引信息中多出maxSequence
+     */
+    public static final long VERSION_SEQUENCE = 5;
+
+    /**
+     * 每个data block末尾一个字节记录压缩算法，见{@link BlockCodec}，不再依赖打开时的压缩配置
+     */
+    public static final long VERSION_BLOCK_CODEC = 6;
+
+    /**
+     * 新生成的SsTable使用的版本
+     */
+    public static final long CURRENT_VERSION = VERSION_BLOCK_CODEC;
+
     /**
      * 版本号
      */
@@ -40,11 +80,41 @@ public class TableMetaInfo {
      */
     private long partSize;
 
+    /**
+     * 布隆过滤器起始位置
+     */
+    private long filterStart;
+
+    /**
+     * 布隆过滤器长度，为0表示没有过滤器
+     */
+    private long filterLen;
+
+    /**
+     * SsTable所在的层级，0层由内存表直接生成
+     */
+    private long level;
+
+    /**
+     * 最大的序列号，旧版本为0
+     */
+    private long maxSequence;
+
     /**
      * 将索引信息写入文件
      */
     public void writeToFile(RandomAccessFile file){
         try {
+            if(version >= VERSION_SEQUENCE){
+                file.writeLong(maxSequence);
+            }
+            if(version >= VERSION_LEVEL){
+                file.writeLong(level);
+            }
+            if(version >= VERSION_BLOOM_FILTER){
+                file.writeLong(filterLen);
+                file.writeLong(filterStart);
+            }
             file.writeLong(partSize);
             file.writeLong(indexLen);
             file.writeLong(indexStart);
@@ -82,6 +152,24 @@ public class TableMetaInfo {
             file.seek(len-8*6);
             tableMetaInfo.setPartSize(file.readLong());
 
+            if(tableMetaInfo.getVersion() >= VERSION_BLOOM_FILTER){
+                file.seek(len-8*7);
+                tableMetaInfo.setFilterStart(file.readLong());
+
+                file.seek(len-8*8);
+                tableMetaInfo.setFilterLen(file.readLong());
+            }
+
+            if(tableMetaInfo.getVersion() >= VERSION_LEVEL){
+                file.seek(len-8*9);
+                tableMetaInfo.setLevel(file.readLong());
+            }
+
+            if(tableMetaInfo.getVersion() >= VERSION_SEQUENCE){
+                file.seek(len-8*10);
+                tableMetaInfo.setMaxSequence(file.readLong());
+            }
+
             return tableMetaInfo;
 
         } catch (IOException e) {
@@ -0,0 +1,98 @@
+package model.ssTable;
+
+import utils.Histogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SsTable读取统计，整个存储共享一个实例
+ */
+public class TableReadStats {
+    /**
+     * 从文件读取的data block个数，缓存命中的不计
+     */
+    private final LongAdder blocksRead = new LongAdder();
+
+    /**
+     * 从文件读取的字节数（压缩后）
+     */
+    private final LongAdder blockBytesRead = new LongAdder();
+
+    /**
+     * 解压后的字节数
+     */
+    private final LongAdder blockBytesDecompressed = new LongAdder();
+
+    /**
+     * 每次点查访问的SsTable个数
+     */
+    private final Histogram tablesProbed = new Histogram();
+
+    /**
+     * 各层命中次数
+     */
+    private final LongAdder[] levelHits;
+
+    /**
+     * 所有SsTable中都不存在的点查次数
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param levels 层数
+     */
+    public TableReadStats(int levels) {
+        levelHits = new LongAdder[levels];
+        for (int i = 0; i < levels; i++) {
+            levelHits[i] = new LongAdder();
+        }
+    }
+
+    public void recordBlockRead(int bytesRead, int bytesDecompressed) {
+        blocksRead.increment();
+        blockBytesRead.add(bytesRead);
+        blockBytesDecompressed.add(bytesDecompressed);
+    }
+
+    /**
+     * 记录一次点查
+     * @param probes 访问的SsTable个数
+     * @param level  命中的层，未命中为-1
+     */
+    public void recordLookup(int probes, int level) {
+        tablesProbed.record(probes);
+        if (level < 0) {
+            misses.increment();
+        } else {
+            levelHits[Math.min(level, levelHits.length - 1)].increment();
+        }
+    }
+
+    public long getBlocksRead() {
+        return blocksRead.sum();
+    }
+
+    public long getBlockBytesRead() {
+        return blockBytesRead.sum();
+    }
+
+    public long getBlockBytesDecompressed() {
+        return blockBytesDecompressed.sum();
+    }
+
+    public Histogram getTablesProbed() {
+        return tablesProbed;
+    }
+
+    public long[] getLevelHits() {
+        long[] hits = new long[levelHits.length];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = levelHits[i].sum();
+        }
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
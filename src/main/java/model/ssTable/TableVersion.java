@@ -0,0 +1,503 @@
+package model.ssTable;
+
+import model.command.Command;
+
+import utils.BytesUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 某一时刻各层SsTable的集合，不可变，每次持久化或合并生成新的实例
+ * 0层的SsTable之间key范围可能重叠，按文件编号从新到旧排列
+ * 其余各层按最小key排列，正常情况下互不重叠
+ */
+public class TableVersion {
+    /**
+     * 0层按文件编号从新到旧
+     */
+    private static final Comparator<SsTable> NEWEST_FIRST =
+            Comparator.comparingLong(SsTable::getFileId).reversed();
+
+    /**
+     * 其余各层按最小key，最小key相同时新的在前
+     */
+    private static final Comparator<SsTable> BY_SMALLEST_KEY =
+            Comparator.comparing(SsTable::getSmallestKey, BytesUtils.COMPARATOR).thenComparing(NEWEST_FIRST);
+
+    private final List<List<SsTable>> levels;
+
+    /**
+     * 各层是否存在key范围重叠的SsTable，合并中途崩溃后可能出现
+     */
+    private final boolean[] overlapping;
+
+    /**
+     * 引用计数，存储持有当前版本的引用，读操作和遍历期间各持有一个引用
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    private TableVersion(List<List<SsTable>> levels) {
+        this.levels = levels;
+        //每个版本持有其中SsTable的引用，最后一个包含它的版本释放后才关闭文件
+        for (List<SsTable> tables : levels) {
+            for (SsTable table : tables) {
+                table.retain();
+            }
+        }
+        this.overlapping = new boolean[levels.size()];
+        for (int level = 1; level < levels.size(); level++) {
+            List<SsTable> tables = levels.get(level);
+            for (int i = 1; i < tables.size(); i++) {
+                if (BytesUtils.compare(tables.get(i - 1).getLargestKey(), tables.get(i).getSmallestKey()) >= 0) {
+                    overlapping[level] = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 由一组SsTable按各自记录的层级构建
+     * @param tables
+     * @param maxLevels 层数，超出的层级归入最后一层
+     * @return
+     */
+    public static TableVersion of(Collection<SsTable> tables, int maxLevels) {
+        List<List<SsTable>> levels = new ArrayList<>(maxLevels);
+        for (int i = 0; i < maxLevels; i++) {
+            levels.add(new ArrayList<>());
+        }
+        for (SsTable table : tables) {
+            if (table.getSmallestKey() == null) {
+                continue;
+            }
+            levels.get(Math.min(table.getLevel(), maxLevels - 1)).add(table);
+        }
+        return new TableVersion(sortLevels(levels));
+    }
+
+    /**
+     * 增加一个新持久化的0层SsTable
+     * @param table
+     * @return
+     */
+    public TableVersion addTable(SsTable table) {
+        return apply(Collections.emptyList(), Collections.singletonList(table));
+    }
+
+    /**
+     * 删除合并的输入，加入合并的输出
+     * @param removed
+     * @param added
+     * @return
+     */
+    public TableVersion apply(Collection<SsTable> removed, Collection<SsTable> added) {
+        Set<SsTable> removedSet = new HashSet<>(removed);
+        List<List<SsTable>> newLevels = new ArrayList<>(levels.size());
+        for (List<SsTable> tables : levels) {
+            List<SsTable> copy = new ArrayList<>(tables.size() + added.size());
+            for (SsTable table : tables) {
+                if (!removedSet.contains(table)) {
+                    copy.add(table);
+                }
+            }
+            newLevels.add(copy);
+        }
+        for (SsTable table : added) {
+            if (table.getSmallestKey() != null) {
+                newLevels.get(Math.min(table.getLevel(), levels.size() - 1)).add(table);
+            }
+        }
+        return new TableVersion(sortLevels(newLevels));
+    }
+
+    private static List<List<SsTable>> sortLevels(List<List<SsTable>> levels) {
+        List<List<SsTable>> sorted = new ArrayList<>(levels.size());
+        for (int level = 0; level < levels.size(); level++) {
+            List<SsTable> tables = new ArrayList<>(levels.get(level));
+            tables.sort(level == 0 ? NEWEST_FIRST : BY_SMALLEST_KEY);
+            sorted.add(Collections.unmodifiableList(tables));
+        }
+        return Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * 从新到旧逐层查询
+     * @param key
+     * @return
+     */
+    public Command query(byte[] key) {
+        return query(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * 从新到旧逐层查询序列号不大于sequence的最新版本
+     * 同一个key在上层的版本总是比下层的新，找到第一个可见的版本即可返回
+     * @param key
+     * @param sequence
+     * @return
+     */
+    public Command query(byte[] key, long sequence) {
+        return query(key, sequence, null);
+    }
+
+    /**
+     * 从新到旧逐层查询序列号不大于sequence的最新版本，并记录访问的SsTable个数和命中的层
+     * @param key
+     * @param sequence
+     * @param stats    为null时不统计
+     * @return
+     */
+    public Command query(byte[] key, long sequence, TableReadStats stats) {
+        int probes = 0;
+        for (int level = 0; level < levels.size(); level++) {
+            for (SsTable table : level == 0 ? levels.get(0) : candidates(level, key)) {
+                probes++;
+                Command command = table.query(key, sequence);
+                if (command != null) {
+                    if (stats != null) {
+                        stats.recordLookup(probes, level);
+                    }
+                    return command;
+                }
+            }
+        }
+        if (stats != null) {
+            stats.recordLookup(probes, -1);
+        }
+        return null;
+    }
+
+    /**
+     * 批量查询，从新到旧逐个SsTable处理，每个SsTable只查询落在其key范围内且尚未找到的key
+     * 1层及以下互不重叠的层中，各SsTable负责的key互不相交，可以并行查询
+     * @param keys     按字节序递增且不重复
+     * @param executor 为null时在调用线程中顺序查询
+     * @return 与keys一一对应，不存在的为null
+     */
+    public Command[] multiQuery(List<byte[]> keys, ExecutorService executor) {
+        return multiQuery(keys, Long.MAX_VALUE, executor);
+    }
+
+    /**
+     * 批量查询序列号不大于sequence的最新版本
+     * @param keys     按字节序递增且不重复
+     * @param sequence
+     * @param executor 为null时在调用线程中顺序查询
+     * @return 与keys一一对应，不存在的为null
+     */
+    public Command[] multiQuery(List<byte[]> keys, long sequence, ExecutorService executor) {
+        Command[] results = new Command[keys.size()];
+        //尚未找到的key的下标，保持递增
+        List<Integer> remaining = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            remaining.add(i);
+        }
+        for (int level = 0; level < levels.size() && !remaining.isEmpty(); level++) {
+            List<SsTable> tables = levels.get(level);
+            if (level == 0 || overlapping[level]) {
+                List<SsTable> ordered = new ArrayList<>(tables);
+                ordered.sort(NEWEST_FIRST);
+                for (SsTable table : ordered) {
+                    queryTable(table, keys, inRange(table, keys, remaining), sequence, results);
+                    remaining = unresolved(remaining, results);
+                }
+                continue;
+            }
+            List<Future<?>> futures = new ArrayList<>();
+            for (SsTable table : tables) {
+                List<Integer> indexes = inRange(table, keys, remaining);
+                if (indexes.isEmpty()) {
+                    continue;
+                }
+                if (executor == null) {
+                    queryTable(table, keys, indexes, sequence, results);
+                } else {
+                    futures.add(executor.submit(() -> queryTable(table, keys, indexes, sequence, results)));
+                }
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            remaining = unresolved(remaining, results);
+        }
+        return results;
+    }
+
+    private static void queryTable(SsTable table, List<byte[]> keys, List<Integer> indexes, long sequence,
+                                   Command[] results) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        List<byte[]> tableKeys = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            tableKeys.add(keys.get(index));
+        }
+        Command[] found = table.multiQuery(tableKeys, sequence);
+        for (int i = 0; i < found.length; i++) {
+            if (found[i] != null) {
+                results[indexes.get(i)] = found[i];
+            }
+        }
+    }
+
+    /**
+     * remaining中落在table的key范围内的部分，remaining递增，二分查找起点
+     */
+    private static List<Integer> inRange(SsTable table, List<byte[]> keys, List<Integer> remaining) {
+        if (table.getSmallestKey() == null) {
+            return Collections.emptyList();
+        }
+        int lo = 0;
+        int hi = remaining.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (BytesUtils.compare(keys.get(remaining.get(mid)), table.getSmallestKey()) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = lo; i < remaining.size(); i++) {
+            int index = remaining.get(i);
+            if (BytesUtils.compare(keys.get(index), table.getLargestKey()) > 0) {
+                break;
+            }
+            indexes.add(index);
+        }
+        return indexes;
+    }
+
+    private static List<Integer> unresolved(List<Integer> remaining, Command[] results) {
+        List<Integer> unresolved = new ArrayList<>(remaining.size());
+        for (int index : remaining) {
+            if (results[index] == null) {
+                unresolved.add(index);
+            }
+        }
+        return unresolved;
+    }
+
+    /**
+     * 尝试增加引用，版本已被释放时返回false，调用方应重新获取最新版本
+     * @return
+     */
+    public boolean tryRetain() {
+        int current;
+        do {
+            current = refs.get();
+            if (current <= 0) {
+                return false;
+            }
+        } while (!refs.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * 释放引用，最后一个引用释放时释放其中所有SsTable
+     * 从最深的层开始释放，合并的输入中下一层的文件先删除，避免崩溃后被丢弃的删除标记覆盖的旧数据重新出现
+     */
+    public void release() {
+        if (refs.decrementAndGet() != 0) {
+            return;
+        }
+        for (int level = levels.size() - 1; level >= 0; level--) {
+            for (SsTable table : levels.get(level)) {
+                table.release();
+            }
+        }
+    }
+
+    /**
+     * 范围遍历的数据源，按从新到旧排列，供多路归并使用
+     * 0层和存在重叠的层每个SsTable一个数据源，其余各层按key顺序依次打开各个SsTable
+     * @param startKey 为null时从头开始
+     * @param endKey   为null时直到末尾，不包含
+     * @return
+     */
+    public List<Iterator<Command>> iterators(byte[] startKey, byte[] endKey) {
+        List<Iterator<Command>> iterators = new ArrayList<>();
+        for (int level = 0; level < levels.size(); level++) {
+            List<SsTable> tables = new ArrayList<>();
+            for (SsTable table : levels.get(level)) {
+                boolean afterStart = startKey == null || BytesUtils.compare(table.getLargestKey(), startKey) >= 0;
+                boolean beforeEnd = endKey == null || BytesUtils.compare(table.getSmallestKey(), endKey) < 0;
+                if (afterStart && beforeEnd) {
+                    tables.add(table);
+                }
+            }
+            if (level == 0 || overlapping[level]) {
+                tables.sort(NEWEST_FIRST);
+                for (SsTable table : tables) {
+                    iterators.add(table.iterator(startKey));
+                }
+            } else if (!tables.isEmpty()) {
+                iterators.add(concat(tables, startKey));
+            }
+        }
+        return iterators;
+    }
+
+    /**
+     * 依次遍历一层中互不重叠的SsTable，用到时才读取下一个
+     */
+    private static Iterator<Command> concat(List<SsTable> tables, byte[] startKey) {
+        Iterator<SsTable> tableIterator = tables.iterator();
+        return new Iterator<Command>() {
+            private Iterator<Command> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && tableIterator.hasNext()) {
+                    current = tableIterator.next().iterator(startKey);
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Command next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * 某一层中key范围包含key的SsTable，新的在前
+     * @param level
+     * @param key
+     * @return
+     */
+    public List<SsTable> candidates(int level, byte[] key) {
+        List<SsTable> tables = levels.get(level);
+        if (level == 0 || overlapping[level]) {
+            List<SsTable> result = new ArrayList<>();
+            for (SsTable table : tables) {
+                if (table.containsInRange(key)) {
+                    result.add(table);
+                }
+            }
+            if (level != 0) {
+                result.sort(NEWEST_FIRST);
+            }
+            return result;
+        }
+        //互不重叠时二分查找第一个最大key不小于key的SsTable
+        int lo = 0;
+        int hi = tables.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (BytesUtils.compare(tables.get(mid).getLargestKey(), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo < tables.size() && BytesUtils.compare(tables.get(lo).getSmallestKey(), key) <= 0) {
+            return Collections.singletonList(tables.get(lo));
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * 某一层中与[smallest, largest]重叠的SsTable
+     * @param level
+     * @param smallest
+     * @param largest
+     * @return
+     */
+    public List<SsTable> overlapping(int level, byte[] smallest, byte[] largest) {
+        List<SsTable> result = new ArrayList<>();
+        for (SsTable table : levels.get(level)) {
+            if (BytesUtils.compare(table.getLargestKey(), smallest) >= 0
+                    && BytesUtils.compare(table.getSmallestKey(), largest) <= 0) {
+                result.add(table);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 比level更深的层中是否可能存在key
+     * @param level
+     * @param key
+     * @return
+     */
+    public boolean existsBelow(int level, byte[] key) {
+        for (int i = level + 1; i < levels.size(); i++) {
+            if (!candidates(i, key).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<SsTable> getLevel(int level) {
+        return levels.get(level);
+    }
+
+    public int levelCount() {
+        return levels.size();
+    }
+
+    /**
+     * 某一层的总字节数
+     * @param level
+     * @return
+     */
+    public long levelBytes(int level) {
+        long bytes = 0;
+        for (SsTable table : levels.get(level)) {
+            bytes += table.getFileSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * 全部SsTable中最大的序列号
+     * @return
+     */
+    public long maxSequence() {
+        long max = 0;
+        for (List<SsTable> tables : levels) {
+            for (SsTable table : tables) {
+                max = Math.max(max, table.getMaxSequence());
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 全部SsTable，从新到旧
+     * @return
+     */
+    public List<SsTable> allTables() {
+        List<SsTable> all = new ArrayList<>();
+        for (List<SsTable> tables : levels) {
+            all.addAll(tables);
+        }
+        return all;
+    }
+}
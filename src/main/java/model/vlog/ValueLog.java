@@ -0,0 +1,462 @@
+package model.vlog;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.Crc32c;
+import utils.FileUtils;
+import utils.LoggerUtil;
+import utils.VarIntUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * 值日志（WiscKey）：较大的值只追加写入一次，日志、内存表和SsTable中只保存{@link ValuePointer}，合并时不再重写值
+ * 文件：{id}.vlog，文件头MAGIC(4)，之后是连续的记录
+ * 记录：crc32c(4) | keyLen(varint) | valueLen(varint) | key | value，校验和覆盖crc之后的全部字节
+ * 记录中保存key，回收时据此判断值是否仍被引用
+ * 只向最新的文件追加，达到大小上限后切换；重新打开时旧文件都不再追加。文件只由回收删除
+ */
+public class ValueLog implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ValueLog.class);
+
+    public static final String SUFFIX = ".vlog";
+
+    public static final int MAGIC = 0x4B56564C;
+
+    public static final int HEADER_SIZE = 4;
+
+    /**
+     * 记录头的最大长度：crc | keyLen | valueLen
+     */
+    private static final int MAX_RECORD_HEADER = 4 + 5 + 5;
+
+    private final String dataDir;
+
+    /**
+     * 单个文件的大小上限
+     */
+    private final long maxFileSize;
+
+    /**
+     * 新文件的编号，与SsTable共用编号
+     */
+    private final LongSupplier fileIds;
+
+    private final ConcurrentSkipListMap<Long, LogFile> files = new ConcurrentSkipListMap<>();
+
+    /**
+     * 正在追加的文件，第一次追加时创建
+     */
+    private LogFile active;
+
+    /**
+     * 追加次数，与已刷盘的次数不同时有尚未刷盘的追加
+     */
+    private long appended;
+
+    /**
+     * 已刷盘的追加次数，刷盘成功后才更新，失败时由下一次调用重试
+     */
+    private long synced;
+
+    /**
+     * 刷盘期间持有，并发的调用等待正在进行的刷盘完成，不会在值落盘之前返回
+     */
+    private final Object syncLock = new Object();
+
+    private final LongAdder bytesWritten = new LongAdder();
+
+    private final LongAdder syncCount = new LongAdder();
+
+    /**
+     * 打开目录中已有的值日志文件
+     * @param dataDir
+     * @param maxFileSize
+     * @param fileIds 新文件编号生成器
+     */
+    public ValueLog(String dataDir, long maxFileSize, LongSupplier fileIds) {
+        this.dataDir = dataDir;
+        this.maxFileSize = Math.max(HEADER_SIZE + 1, maxFileSize);
+        this.fileIds = fileIds;
+        File[] existing = new File(dataDir).listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (existing == null) {
+            return;
+        }
+        try {
+            for (File file : existing) {
+                long id = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+                files.put(id, new LogFile(id, file, FileChannel.open(file.toPath(), StandardOpenOption.READ)));
+            }
+        } catch (IOException e) {
+            close();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 目录中最大的值日志文件编号，没有时为0
+     * @return
+     */
+    public long maxFileId() {
+        return files.isEmpty() ? 0 : files.lastKey();
+    }
+
+    /**
+     * 追加一个值，写入操作系统缓存后返回，由{@link #sync()}刷盘
+     * @param key
+     * @param value
+     * @return 值的位置
+     */
+    public synchronized ValuePointer append(byte[] key, byte[] value) {
+        try {
+            if (active == null || active.size >= maxFileSize) {
+                rotate();
+            }
+            int size = 4 + VarIntUtils.size(key.length) + VarIntUtils.size(value.length) + key.length + value.length;
+            ByteBuffer record = ByteBuffer.allocate(size);
+            record.position(4);
+            VarIntUtils.write(record, key.length);
+            VarIntUtils.write(record, value.length);
+            record.put(key).put(value);
+            Crc32c crc = new Crc32c();
+            crc.update(record.array(), 4, size - 4);
+            record.putInt(0, (int) crc.getValue());
+            record.flip();
+            long offset = active.size;
+            writeFully(active.channel, record, offset);
+            active.size = offset + size;
+            appended++;
+            bytesWritten.add(size);
+            return new ValuePointer(active.id, offset, size);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 切换到新文件，旧文件先刷盘，之后只有当前文件可能有未刷盘的数据
+     */
+    private void rotate() throws IOException {
+        if (active != null && appended != synced) {
+            active.channel.force(false);
+            syncCount.increment();
+            synced = appended;
+        }
+        long id = fileIds.getAsLong();
+        File file = new File(dataDir + id + SUFFIX);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC);
+        header.flip();
+        writeFully(channel, header, 0);
+        LogFile logFile = new LogFile(id, file, channel);
+        logFile.size = HEADER_SIZE;
+        files.put(id, logFile);
+        active = logFile;
+    }
+
+    /**
+     * 将已追加的值刷盘，在引用这些值的日志记录刷盘之前调用
+     * 刷盘期间不阻塞追加，之后追加的值由下一次调用刷盘
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        synchronized (syncLock) {
+            LogFile file;
+            long target;
+            synchronized (this) {
+                if (appended == synced) {
+                    return;
+                }
+                target = appended;
+                file = active;
+            }
+            file.channel.force(false);
+            synchronized (this) {
+                //期间切换文件时旧文件已刷盘，synced可能已更大
+                synced = Math.max(synced, target);
+            }
+            syncCount.increment();
+        }
+    }
+
+    /**
+     * 读取值
+     * @param pointer
+     * @return 文件已被回收删除时返回null，调用方应重新查找key的最新位置
+     * @throws RuntimeException 读取失败或记录损坏
+     */
+    public byte[] read(ValuePointer pointer) {
+        LogFile file = files.get(pointer.getFileId());
+        if (file == null || !file.tryRetain()) {
+            return null;
+        }
+        try {
+            ByteBuffer record = ByteBuffer.allocate(pointer.getSize());
+            readFully(file.channel, record, pointer.getOffset());
+            byte[] data = record.array();
+            Crc32c crc = new Crc32c();
+            crc.update(data, 4, data.length - 4);
+            record.flip();
+            if (record.getInt() != (int) crc.getValue()) {
+                throw new IOException("value log record corrupted: " + pointer);
+            }
+            int keyLen = VarIntUtils.read(record);
+            byte[] value = new byte[VarIntUtils.read(record)];
+            record.position(record.position() + keyLen);
+            record.get(value);
+            return value;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            file.release();
+        }
+    }
+
+    /**
+     * 按顺序遍历文件中的记录，只读取key，用于回收时判断哪些值仍被引用
+     * 不完整的尾部记录（追加时崩溃）被忽略
+     * @param fileId
+     * @param visitor 参数为key和记录的位置
+     * @return 文件中记录的总字节数，文件已删除时返回-1
+     */
+    public long scanKeys(long fileId, BiConsumer<byte[], ValuePointer> visitor) {
+        LogFile file = files.get(fileId);
+        if (file == null || !file.tryRetain()) {
+            return -1;
+        }
+        try {
+            long end = file.channel.size();
+            long pos = HEADER_SIZE;
+            long total = 0;
+            ByteBuffer header = ByteBuffer.allocate(MAX_RECORD_HEADER);
+            while (pos + 6 <= end) {
+                header.clear();
+                if (end - pos < header.capacity()) {
+                    header.limit((int) (end - pos));
+                }
+                readFully(file.channel, header, pos);
+                header.flip();
+                header.getInt();
+                int keyLen;
+                int valueLen;
+                try {
+                    keyLen = VarIntUtils.read(header);
+                    valueLen = VarIntUtils.read(header);
+                } catch (BufferUnderflowException | IllegalArgumentException e) {
+                    break;
+                }
+                long size = (long) header.position() + keyLen + valueLen;
+                if (keyLen < 0 || valueLen < 0 || pos + size > end) {
+                    break;
+                }
+                ByteBuffer key = ByteBuffer.allocate(keyLen);
+                readFully(file.channel, key, pos + header.position());
+                visitor.accept(key.array(), new ValuePointer(fileId, pos, (int) size));
+                pos += size;
+                total += size;
+            }
+            return total;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            file.release();
+        }
+    }
+
+    /**
+     * 将全部文件放入检查点目录：不再追加的文件创建硬链接，正在追加的文件复制到当前的追加位置
+     * 之后追加的值不在检查点中，调用前检查点引用的值都已追加
+     * @param targetDir
+     * @throws IOException
+     */
+    public void checkpoint(File targetDir) throws IOException {
+        List<LogFile> retained = new ArrayList<>();
+        long activeSize;
+        LogFile current;
+        synchronized (this) {
+            for (LogFile file : files.values()) {
+                if (file.tryRetain()) {
+                    retained.add(file);
+                }
+            }
+            current = active;
+            activeSize = active == null ? 0 : active.size;
+        }
+        try {
+            for (LogFile file : retained) {
+                File target = new File(targetDir, file.file.getName());
+                if (file == current) {
+                    FileUtils.copy(file.file, target, activeSize);
+                } else {
+                    FileUtils.linkOrCopy(file.file, target);
+                }
+            }
+        } finally {
+            for (LogFile file : retained) {
+                file.release();
+            }
+        }
+    }
+
+    /**
+     * 已不再追加的文件编号，从旧到新
+     * @return
+     */
+    public synchronized List<Long> sealedFiles() {
+        List<Long> ids = new ArrayList<>(files.keySet());
+        if (active != null) {
+            ids.remove(active.id);
+        }
+        return ids;
+    }
+
+    /**
+     * 文件的字节数，文件不存在时为0
+     * @param fileId
+     * @return
+     */
+    public long fileSize(long fileId) {
+        LogFile file = files.get(fileId);
+        return file == null ? 0 : file.file.length();
+    }
+
+    /**
+     * 全部文件的字节数
+     * @return
+     */
+    public long totalSize() {
+        long size = 0;
+        for (LogFile file : files.values()) {
+            size += file.file.length();
+        }
+        return size;
+    }
+
+    public int fileCount() {
+        return files.size();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long getSyncCount() {
+        return syncCount.sum();
+    }
+
+    /**
+     * 删除文件，正在进行的读取结束后才真正删除
+     * @param fileId
+     */
+    public synchronized void delete(long fileId) {
+        if (active != null && active.id == fileId) {
+            throw new IllegalArgumentException("cannot delete active value log: " + fileId);
+        }
+        LogFile file = files.remove(fileId);
+        if (file != null) {
+            file.obsolete = true;
+            file.release();
+        }
+    }
+
+    /**
+     * 关闭全部文件，未刷盘的追加先刷盘
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            if (active != null && appended != synced) {
+                active.channel.force(false);
+                synced = appended;
+            }
+        } catch (IOException e) {
+            LoggerUtil.error(LOGGER, "[ValueLog][close]: {}", e);
+        }
+        for (LogFile file : files.values()) {
+            file.release();
+        }
+        files.clear();
+        active = null;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("unexpected end of value log");
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * 一个值日志文件，ValueLog持有一个引用，读取期间各持有一个引用，全部释放后关闭，已回收的同时删除
+     */
+    private static class LogFile {
+        private final long id;
+
+        private final File file;
+
+        private final FileChannel channel;
+
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        private volatile boolean obsolete;
+
+        /**
+         * 追加位置，只用于当前文件，在ValueLog的锁内访问
+         */
+        private long size;
+
+        private LogFile(long id, File file, FileChannel channel) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+        }
+
+        private boolean tryRetain() {
+            int current;
+            do {
+                current = refs.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!refs.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        private void release() {
+            if (refs.decrementAndGet() != 0) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LoggerUtil.error(LOGGER, "[ValueLog][release]: {}", e);
+            }
+            if (obsolete && file.exists() && !file.delete()) {
+                LoggerUtil.error(LOGGER, "[ValueLog][release]: 删除文件失败 {}", file.getName());
+            }
+        }
+    }
+}
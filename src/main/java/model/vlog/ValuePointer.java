@@ -0,0 +1,63 @@
+package model.vlog;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import utils.VarIntUtils;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * 值在值日志中的位置，代替value存放在日志、内存表和SsTable中
+ * 编码：fileId(varlong) | offset(varlong) | size(varint)
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+@AllArgsConstructor
+public class ValuePointer {
+    /**
+     * 值日志文件编号
+     */
+    private final long fileId;
+
+    /**
+     * 记录在文件中的起始位置
+     */
+    private final long offset;
+
+    /**
+     * 整条记录的字节数
+     */
+    private final int size;
+
+    public byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(VarIntUtils.sizeLong(fileId) + VarIntUtils.sizeLong(offset)
+                + VarIntUtils.size(size));
+        VarIntUtils.writeLong(buffer, fileId);
+        VarIntUtils.writeLong(buffer, offset);
+        VarIntUtils.write(buffer, size);
+        return buffer.array();
+    }
+
+    /**
+     * @param bytes
+     * @return
+     * @throws IllegalArgumentException 格式错误
+     */
+    public static ValuePointer decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            ValuePointer pointer = new ValuePointer(VarIntUtils.readLong(buffer), VarIntUtils.readLong(buffer),
+                    VarIntUtils.read(buffer));
+            if (buffer.hasRemaining()) {
+                throw new IllegalArgumentException("invalid value pointer");
+            }
+            return pointer;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("invalid value pointer", e);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package model.wal;
+
+import model.command.Command;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.Crc32c;
+import utils.LoggerUtil;
+import utils.VarIntUtils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * 二进制日志读取器，带缓冲顺序读取，遇到不完整或校验失败的记录时停止
+ * 旧版本日志中的命令序列号为0
+ */
+public class BinaryWalReader implements WalReader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BinaryWalReader.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+
+    private final long fileLength;
+
+    private final DataInputStream in;
+
+    private final Crc32c crc = new Crc32c();
+
+    private long validLength;
+
+    private boolean finished;
+
+    /**
+     * 记录中是否带有序列号
+     */
+    private boolean sequenced = true;
+
+    /**
+     * 已校验的批量记录中尚未返回的命令
+     */
+    private final Deque<Command> pending = new ArrayDeque<>();
+
+    public BinaryWalReader(File file) throws IOException {
+        this.file = file;
+        this.fileLength = file.length();
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        if (fileLength < WalRecord.HEADER_SIZE) {
+            finished = true;
+            return;
+        }
+        int magic = in.readInt();
+        if (magic != WalRecord.MAGIC && magic != WalRecord.MAGIC_V1) {
+            in.close();
+            throw new IOException("not a binary wal: " + file.getName());
+        }
+        sequenced = magic == WalRecord.MAGIC;
+        validLength = WalRecord.HEADER_SIZE;
+    }
+
+    @Override
+    public Command next() throws IOException {
+        if (!pending.isEmpty()) {
+            return pending.poll();
+        }
+        if (finished) {
+            return null;
+        }
+        try {
+            crc.reset();
+            int type = in.read();
+            if (type < 0) {
+                finished = true;
+                return null;
+            }
+            crc.update(type);
+            if (type == WalRecord.TYPE_BATCH) {
+                return nextBatch();
+            }
+            int keyLen = readLength();
+            int valueLen = WalRecord.hasValue(type) ? readLength() : 0;
+            byte[] key = readBytes(keyLen);
+            byte[] value = WalRecord.hasValue(type) ? readBytes(valueLen) : null;
+            long seq = readSeq();
+            int expected = in.readInt();
+            long size = 1 + VarIntUtils.size(keyLen) + keyLen + seqSize() + 4
+                    + (WalRecord.hasValue(type) ? VarIntUtils.size(valueLen) + valueLen : 0);
+            Command command = WalRecord.toCommand(type, key, value);
+            if ((int) crc.getValue() != expected || command == null) {
+                return stop("checksum mismatch");
+            }
+            validLength += size;
+            command.setSeq(seq);
+            return command;
+        } catch (EOFException e) {
+            return stop("truncated record");
+        }
+    }
+
+    /**
+     * 读取整条批量记录，校验通过后才返回其中的命令，不完整的批量记录整体丢弃
+     */
+    private Command nextBatch() throws IOException {
+        int count = readLength();
+        int bodyLen = readLength();
+        byte[] body = readBytes(bodyLen);
+        long seq = readSeq();
+        int expected = in.readInt();
+        if ((int) crc.getValue() != expected) {
+            return stop("checksum mismatch");
+        }
+        List<Command> commands = WalRecord.decodeBatch(body, count);
+        if (commands == null) {
+            return stop("corrupted batch");
+        }
+        validLength += 1 + VarIntUtils.size(count) + VarIntUtils.size(bodyLen) + bodyLen + seqSize() + 4;
+        for (Command command : commands) {
+            command.setSeq(sequenced ? seq++ : 0);
+        }
+        pending.addAll(commands);
+        return pending.isEmpty() ? next() : pending.poll();
+    }
+
+    private int readLength() throws IOException {
+        int len = VarIntUtils.read(in);
+        //长度超出文件剩余部分说明是损坏的尾部
+        if (len < 0 || len > fileLength - validLength) {
+            throw new EOFException();
+        }
+        int value = len;
+        while ((value & ~0x7F) != 0) {
+            crc.update((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        crc.update(value);
+        return len;
+    }
+
+    /**
+     * 读取序列号，旧版本日志没有序列号返回0
+     */
+    private long readSeq() throws IOException {
+        if (!sequenced) {
+            return 0;
+        }
+        return ByteBuffer.wrap(readBytes(WalRecord.SEQ_SIZE)).getLong();
+    }
+
+    private int seqSize() {
+        return sequenced ? WalRecord.SEQ_SIZE : 0;
+    }
+
+    private byte[] readBytes(int len) throws IOException {
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        crc.update(bytes, 0, len);
+        return bytes;
+    }
+
+    private Command stop(String reason) {
+        LoggerUtil.info(LOGGER, "[BinaryWalReader][next]: {} at {} of {}, {}",
+                reason, validLength, fileLength, file.getName());
+        finished = true;
+        return null;
+    }
+
+    @Override
+    public long validLength() {
+        return validLength;
+    }
+
+    @Override
+    public boolean isLegacy() {
+        return !sequenced;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
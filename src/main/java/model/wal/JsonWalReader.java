@@ -0,0 +1,81 @@
+package model.wal;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONObject;
+import model.command.Command;
+import utils.ConvertUtils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 旧版日志读取器：长度(int) + 命令JSON，仅用于迁移
+ */
+public class JsonWalReader implements WalReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long fileLength;
+
+    private final DataInputStream in;
+
+    private long validLength;
+
+    private boolean finished;
+
+    public JsonWalReader(File file) throws IOException {
+        this.fileLength = file.length();
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+    }
+
+    @Override
+    public Command next() throws IOException {
+        while (!finished) {
+            try {
+                int valueLen = in.readInt();
+                if (valueLen < 0 || valueLen > fileLength - validLength - 4) {
+                    finished = true;
+                    return null;
+                }
+                byte[] bytes = new byte[valueLen];
+                in.readFully(bytes);
+                JSONObject value;
+                try {
+                    value = JSON.parseObject(new String(bytes, StandardCharsets.UTF_8));
+                } catch (JSONException e) {
+                    //写入一半的尾部记录，与二进制日志一样截断
+                    finished = true;
+                    return null;
+                }
+                validLength += 4 + valueLen;
+                Command command = ConvertUtils.toCommand(value);
+                if (command != null) {
+                    return command;
+                }
+            } catch (EOFException e) {
+                finished = true;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public long validLength() {
+        return validLength;
+    }
+
+    @Override
+    public boolean isLegacy() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
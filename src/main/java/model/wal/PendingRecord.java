@@ -0,0 +1,33 @@
+package model.wal;
+
+import utils.Crc32c;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 已编码、尚未确定序列号的日志记录
+ * 校验和在锁外先计算到seq之前，写入时只需补上seq部分，锁内的开销与记录大小无关
+ */
+public class PendingRecord {
+    private final ByteBuffer buffer;
+
+    private final Crc32c crc = new Crc32c();
+
+    PendingRecord(ByteBuffer buffer) {
+        this.buffer = buffer;
+        crc.update(buffer.array(), 0, buffer.position());
+    }
+
+    /**
+     * 写入序列号和校验和，只能调用一次
+     * @param seq
+     * @return 完整的记录
+     */
+    public byte[] seal(long seq) {
+        int seqStart = buffer.position();
+        buffer.putLong(seq);
+        crc.update(buffer.array(), seqStart, WalRecord.SEQ_SIZE);
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+}
@@ -0,0 +1,50 @@
+package model.wal;
+
+import model.command.Command;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * 日志顺序读取器
+ */
+public interface WalReader extends Closeable {
+    /**
+     * 读取下一条命令
+     * @return 读到文件末尾或不完整的记录时返回null
+     */
+    Command next() throws IOException;
+
+    /**
+     * 已读取的完整记录（含文件头）的长度，之后的内容为损坏或不完整的尾部
+     * @return
+     */
+    long validLength();
+
+    /**
+     * 是否为旧版格式（JSON或不带序列号的二进制日志），需要重写为当前格式
+     * @return
+     */
+    boolean isLegacy();
+
+    /**
+     * 按文件头识别格式并打开日志
+     * @param file
+     * @return
+     */
+    static WalReader open(File file) throws IOException {
+        long length = file.length();
+        if (length >= WalRecord.HEADER_SIZE) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                int magic = in.readInt();
+                if (magic != WalRecord.MAGIC && magic != WalRecord.MAGIC_V1) {
+                    return new JsonWalReader(file);
+                }
+            }
+        }
+        return new BinaryWalReader(file);
+    }
+}
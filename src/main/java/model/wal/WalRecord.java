@@ -0,0 +1,198 @@
+package model.wal;
+
+import model.command.Command;
+import model.command.RmCommand;
+import model.command.SetCommand;
+import model.command.ValuePointerCommand;
+import utils.VarIntUtils;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 二进制日志记录
+ * 文件头：MAGIC(4)
+ * 记录：type(1) | keyLen(varint) | valueLen(varint，仅SET和VALUE_POINTER) | key | value | seq(8) | crc32c(4)
+ * VALUE_POINTER记录的value是编码后的值日志位置，值本身在值日志中
+ * 批量记录：TYPE_BATCH(1) | count(varint) | bodyLen(varint) | body | seq(8) | crc32c(4)
+ * body为count条不带序列号和校验和的记录，第i条的序列号为seq+i
+ * 校验和覆盖记录中除自身以外的全部字节，批量记录整体校验，恢复时要么全部重放要么全部丢弃
+ * 旧版本（MAGIC_V1）的记录没有seq字段
+ */
+public class WalRecord {
+    /**
+     * 二进制日志文件头，旧版JSON日志以记录长度开头，不会与之冲突
+     */
+    public static final int MAGIC = 0x4B565702;
+
+    /**
+     * 不带序列号的旧版二进制日志文件头
+     */
+    public static final int MAGIC_V1 = 0x4B565701;
+
+    public static final int HEADER_SIZE = 4;
+
+    public static final int SEQ_SIZE = 8;
+
+    public static final byte TYPE_SET = 1;
+
+    public static final byte TYPE_RM = 2;
+
+    public static final byte TYPE_BATCH = 3;
+
+    public static final byte TYPE_VALUE_POINTER = 4;
+
+    /**
+     * 编码一条命令，使用命令自身的序列号
+     * @param command
+     * @return
+     */
+    public static byte[] encode(Command command) {
+        return prepare(command).seal(command.getSeq());
+    }
+
+    /**
+     * 将一组命令编码为一条批量记录，使用第一条命令的序列号
+     * @param commands
+     * @return
+     */
+    public static byte[] encodeBatch(List<Command> commands) {
+        return prepareBatch(commands).seal(commands.isEmpty() ? 0 : commands.get(0).getSeq());
+    }
+
+    /**
+     * 编码一条命令，序列号在写入时确定
+     * @param command
+     * @return
+     */
+    public static PendingRecord prepare(Command command) {
+        ByteBuffer buffer = ByteBuffer.allocate(entrySize(command) + SEQ_SIZE + 4);
+        writeEntry(buffer, command);
+        return new PendingRecord(buffer);
+    }
+
+    /**
+     * 将一组命令编码为一条批量记录，序列号在写入时确定
+     * @param commands
+     * @return
+     */
+    public static PendingRecord prepareBatch(List<Command> commands) {
+        int bodyLen = 0;
+        for (Command command : commands) {
+            bodyLen += entrySize(command);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(1 + VarIntUtils.size(commands.size())
+                + VarIntUtils.size(bodyLen) + bodyLen + SEQ_SIZE + 4);
+        buffer.put(TYPE_BATCH);
+        VarIntUtils.write(buffer, commands.size());
+        VarIntUtils.write(buffer, bodyLen);
+        for (Command command : commands) {
+            writeEntry(buffer, command);
+        }
+        return new PendingRecord(buffer);
+    }
+
+    /**
+     * 解码批量记录的body
+     * @param body
+     * @param count
+     * @return 格式错误返回null
+     */
+    public static List<Command> decodeBatch(byte[] body, int count) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        List<Command> commands = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                int type = buffer.get();
+                byte[] key = new byte[VarIntUtils.read(buffer)];
+                byte[] value = hasValue(type) ? new byte[VarIntUtils.read(buffer)] : null;
+                buffer.get(key);
+                if (value != null) {
+                    buffer.get(value);
+                }
+                Command command = toCommand(type, key, value);
+                if (command == null) {
+                    return null;
+                }
+                commands.add(command);
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            return null;
+        }
+        return buffer.hasRemaining() ? null : commands;
+    }
+
+    /**
+     * 不带校验和的记录长度
+     */
+    private static int entrySize(Command command) {
+        int keyLen = command.getKey().length;
+        int size = 1 + VarIntUtils.size(keyLen) + keyLen;
+        if (command instanceof SetCommand) {
+            int valueLen = ((SetCommand) command).getValue().length;
+            size += VarIntUtils.size(valueLen) + valueLen;
+        }
+        return size;
+    }
+
+    private static void writeEntry(ByteBuffer buffer, Command command) {
+        byte[] key = command.getKey();
+        byte[] value = null;
+        byte type;
+        if (command instanceof ValuePointerCommand) {
+            type = TYPE_VALUE_POINTER;
+            value = ((SetCommand) command).getValue();
+        } else if (command instanceof SetCommand) {
+            type = TYPE_SET;
+            value = ((SetCommand) command).getValue();
+        } else if (command instanceof RmCommand) {
+            type = TYPE_RM;
+        } else {
+            throw new IllegalArgumentException("unknown command: " + command);
+        }
+        buffer.put(type);
+        VarIntUtils.write(buffer, key.length);
+        if (value != null) {
+            VarIntUtils.write(buffer, value.length);
+        }
+        buffer.put(key);
+        if (value != null) {
+            buffer.put(value);
+        }
+    }
+
+    /**
+     * 该类型的记录是否带有value
+     * @param type
+     * @return
+     */
+    public static boolean hasValue(int type) {
+        return type == TYPE_SET || type == TYPE_VALUE_POINTER;
+    }
+
+    /**
+     * 由记录内容构建命令
+     * @param type
+     * @param key
+     * @param value
+     * @return 未知类型返回null
+     */
+    public static Command toCommand(int type, byte[] key, byte[] value) {
+        if (type == TYPE_SET) {
+            return new SetCommand(key, value);
+        }
+        if (type == TYPE_RM) {
+            return new RmCommand(key);
+        }
+        if (type == TYPE_VALUE_POINTER) {
+            try {
+                return ValuePointerCommand.decode(key, value);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,22 @@
+package model.wal;
+
+/**
+ * 日志持久化模式
+ */
+public enum WalSyncMode {
+    /**
+     * 只写入操作系统缓存，不主动刷盘
+     */
+    NONE,
+
+    /**
+     * 写入操作系统缓存，后台每隔固定时间刷盘一次
+     */
+    INTERVAL,
+
+    /**
+     * 每批写入后刷盘，调用方等待刷盘完成
+     */
+    BATCH,
+    ;
+}
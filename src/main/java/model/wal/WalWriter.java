@@ -0,0 +1,409 @@
+package model.wal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+import utils.NamedThreadFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 日志写入器，将并发写入合并为一次写入（group commit）
+ * 由单独的线程按提交顺序写入，调用方只等待所在批次达到指定的持久化级别
+ */
+public class WalWriter implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WalWriter.class);
+
+    private static final int INIT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 日志文件
+     */
+    private final File file;
+
+    /**
+     * 持久化模式
+     */
+    private final WalSyncMode syncMode;
+
+    /**
+     * INTERVAL模式下的刷盘间隔
+     */
+    private final long syncIntervalMs;
+
+    /**
+     * 每次刷盘前调用，日志记录引用的外部数据（值日志）先于日志落盘
+     */
+    private final SyncHook beforeSync;
+
+    /**
+     * 待写入的请求
+     */
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * 写入线程
+     */
+    private final Thread writerThread;
+
+    /**
+     * 文件通道，只由写入线程访问
+     */
+    private FileChannel channel;
+
+    /**
+     * 批量写入缓冲区，只由写入线程访问
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(INIT_BUFFER_SIZE);
+
+    /**
+     * 是否有未刷盘的数据
+     */
+    private boolean dirty;
+
+    /**
+     * 上次刷盘时间
+     */
+    private long lastSyncTime;
+
+    /**
+     * 写入异常，出现后拒绝后续写入；写入线程退出时设置，之后提交的请求直接失败
+     */
+    private volatile Throwable error;
+
+    /**
+     * 在锁内设置，与提交请求互斥，关闭请求之后不再有请求进入队列
+     */
+    private volatile boolean closed;
+
+    /**
+     * 写入文件的字节数
+     */
+    private final LongAdder bytesWritten = new LongAdder();
+
+    /**
+     * 刷盘次数
+     */
+    private final LongAdder syncCount = new LongAdder();
+
+    /**
+     * @param file           日志文件，已有内容时追加写入
+     * @param syncMode       持久化模式
+     * @param syncIntervalMs INTERVAL模式下的刷盘间隔
+     */
+    public WalWriter(File file, WalSyncMode syncMode, long syncIntervalMs) {
+        this(file, syncMode, syncIntervalMs, null);
+    }
+
+    /**
+     * @param file           日志文件，已有内容时追加写入
+     * @param syncMode       持久化模式
+     * @param syncIntervalMs INTERVAL模式下的刷盘间隔
+     * @param beforeSync     每次刷盘前在写入线程中调用，可以为null
+     */
+    public WalWriter(File file, WalSyncMode syncMode, long syncIntervalMs, SyncHook beforeSync) {
+        this.file = file;
+        this.beforeSync = beforeSync;
+        this.syncMode = syncMode;
+        this.syncIntervalMs = Math.max(1, syncIntervalMs);
+        try {
+            channel = openChannel();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        lastSyncTime = System.currentTimeMillis();
+        writerThread = new NamedThreadFactory("kv-wal").newThread(this::run);
+        writerThread.start();
+    }
+
+    /**
+     * 追加一条日志记录
+     * @param record 完整的日志记录
+     * @return 记录达到持久化级别后完成
+     */
+    public CompletableFuture<Void> append(byte[] record) {
+        return submit(new Request(RequestType.APPEND, record, null));
+    }
+
+    /**
+     * 将当前日志文件重命名为target，并在原路径上开始新的日志文件
+     * 之前提交的记录全部写入并刷盘后才切换，方法返回时切换已完成
+     * @param target
+     */
+    public void switchFile(File target) {
+        await(submit(new Request(RequestType.SWITCH, null, target)));
+    }
+
+    /**
+     * 将之前提交的记录全部写入并刷盘，与持久化模式无关，方法返回时已完成
+     */
+    public void sync() {
+        await(submit(new Request(RequestType.SYNC, null, null)));
+    }
+
+    /**
+     * 等待日志达到持久化级别
+     * @param future
+     */
+    public static void await(CompletableFuture<Void> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * 检查和入队在锁内完成：写入线程退出时在锁内设置error，之前入队的请求由写入线程失败，之后的请求在这里拒绝
+     * @param request
+     * @return
+     */
+    private synchronized CompletableFuture<Void> submit(Request request) {
+        if (closed) {
+            throw new IllegalStateException("wal writer closed");
+        }
+        if (error != null) {
+            throw new RuntimeException("wal写入失败", error);
+        }
+        queue.add(request);
+        return request.future;
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>();
+        Throwable exit = null;
+        try {
+            while (true) {
+                Request first;
+                if (syncMode == WalSyncMode.INTERVAL) {
+                    long wait = lastSyncTime + syncIntervalMs - System.currentTimeMillis();
+                    first = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (first == null) {
+                        syncChannel();
+                        continue;
+                    }
+                } else {
+                    first = queue.take();
+                }
+                batch.add(first);
+                queue.drainTo(batch);
+                if (!process(batch)) {
+                    return;
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LoggerUtil.error(LOGGER, "[WalWriter][run]: {}", "wal writer interrupted");
+            exit = e;
+        } catch (Throwable e) {
+            LoggerUtil.error(LOGGER, "[WalWriter][run]: {}", e);
+            exit = e;
+        } finally {
+            stop(batch, exit == null ? new IllegalStateException("wal writer closed") : exit);
+        }
+    }
+
+    /**
+     * 写入线程退出：拒绝之后的提交，未完成的请求全部失败；已完成的请求不受影响
+     * @param batch
+     * @param cause
+     */
+    private void stop(List<Request> batch, Throwable cause) {
+        synchronized (this) {
+            if (error == null) {
+                error = cause;
+            }
+        }
+        for (Request request : batch) {
+            request.future.completeExceptionally(cause);
+        }
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * 处理一批请求
+     * @param batch
+     * @return 是否继续运行
+     */
+    private boolean process(List<Request> batch) throws IOException {
+        int pendingFrom = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Request request = batch.get(i);
+            if (request.type == RequestType.APPEND) {
+                put(request.record);
+                continue;
+            }
+            //切换和关闭前，之前的记录必须全部落盘
+            flushBuffer();
+            if (syncMode != WalSyncMode.NONE || request.type == RequestType.SYNC) {
+                syncChannel();
+            }
+            complete(batch, pendingFrom, i);
+            pendingFrom = i + 1;
+            if (request.type == RequestType.SYNC) {
+                request.future.complete(null);
+            } else if (request.type == RequestType.SWITCH) {
+                channel.close();
+                if (!file.renameTo(request.target)) {
+                    throw new IOException("重命名失败：" + file.getName());
+                }
+                channel = openChannel();
+                request.future.complete(null);
+            } else {
+                //关闭之后的请求没有写入，由退出时统一失败
+                channel.close();
+                request.future.complete(null);
+                return false;
+            }
+        }
+        flushBuffer();
+        if (syncMode == WalSyncMode.BATCH
+                || (syncMode == WalSyncMode.INTERVAL && System.currentTimeMillis() - lastSyncTime >= syncIntervalMs)) {
+            syncChannel();
+        }
+        complete(batch, pendingFrom, batch.size());
+        return true;
+    }
+
+    private void complete(List<Request> batch, int from, int to) {
+        for (int i = from; i < to; i++) {
+            batch.get(i).future.complete(null);
+        }
+    }
+
+    private void put(byte[] record) {
+        if (buffer.remaining() < record.length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + record.length));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        buffer.put(record);
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        if (buffer.hasRemaining()) {
+            dirty = true;
+        }
+        bytesWritten.add(buffer.remaining());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void syncChannel() throws IOException {
+        if (dirty) {
+            if (beforeSync != null) {
+                beforeSync.run();
+            }
+            channel.force(false);
+            dirty = false;
+            syncCount.increment();
+        }
+        lastSyncTime = System.currentTimeMillis();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long getSyncCount() {
+        return syncCount.sum();
+    }
+
+    private FileChannel openChannel() throws IOException {
+        FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (fileChannel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(WalRecord.HEADER_SIZE).putInt(WalRecord.MAGIC);
+            header.flip();
+            while (header.hasRemaining()) {
+                fileChannel.write(header);
+            }
+        }
+        fileChannel.position(fileChannel.size());
+        return fileChannel;
+    }
+
+    /**
+     * 写入剩余的记录并关闭文件
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        Request request = null;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (error == null) {
+                request = new Request(RequestType.CLOSE, null, null);
+                queue.add(request);
+            }
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        //写入线程异常退出时没有关闭文件
+        if (request == null || request.future.isCompletedExceptionally()) {
+            channel.close();
+        }
+        if (request != null) {
+            await(request.future);
+        }
+    }
+
+    /**
+     * 刷盘前的回调
+     */
+    public interface SyncHook {
+        void run() throws IOException;
+    }
+
+    private enum RequestType {
+        APPEND,
+        SYNC,
+        SWITCH,
+        CLOSE,
+    }
+
+    private static class Request {
+        private final RequestType type;
+
+        private final byte[] record;
+
+        private final File target;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Request(RequestType type, byte[] record, File target) {
+            this.type = type;
+            this.record = record;
+            this.target = target;
+        }
+    }
+}
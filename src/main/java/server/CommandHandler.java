@@ -0,0 +1,268 @@
+package server;
+
+import service.AsyncKvStore;
+import service.WriteBatch;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * 把RESP命令转换为AsyncKvStore上的异步操作，返回的future总是正常完成，出错时结果为错误响应
+ * 支持GET、SET、DEL、MGET、SCAN，以及客户端常用的PING、ECHO、COMMAND、QUIT
+ */
+public class CommandHandler {
+    /**
+     * SCAN未指定COUNT时每次返回的最多key个数
+     */
+    private static final int DEFAULT_SCAN_COUNT = 10;
+
+    private static final int MAX_SCAN_COUNT = 100000;
+
+    private final AsyncKvStore store;
+
+    public CommandHandler(AsyncKvStore store) {
+        this.store = store;
+    }
+
+    /**
+     * 执行一条命令
+     * @param args 命令名和参数，非空
+     * @return 编码好的响应
+     */
+    public CompletableFuture<ByteBuffer[]> handle(List<byte[]> args) {
+        String name = new String(args.get(0), StandardCharsets.UTF_8).toUpperCase(Locale.ROOT);
+        CompletableFuture<ByteBuffer[]> reply;
+        try {
+            reply = dispatch(name, args);
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(RespReply.error("ERR " + e.getMessage()));
+        }
+        return reply.exceptionally(e -> RespReply.error("ERR " + rootCause(e).getMessage()));
+    }
+
+    /**
+     * 是否是QUIT命令，响应写出后关闭连接
+     * @param args
+     * @return
+     */
+    public static boolean isQuit(List<byte[]> args) {
+        return "QUIT".equalsIgnoreCase(new String(args.get(0), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 是否是写命令，同一连接上的写命令要等之前的命令全部完成后才执行
+     * @param args
+     * @return
+     */
+    public static boolean isWrite(List<byte[]> args) {
+        String name = new String(args.get(0), StandardCharsets.UTF_8);
+        return "SET".equalsIgnoreCase(name) || "DEL".equalsIgnoreCase(name);
+    }
+
+    private CompletableFuture<ByteBuffer[]> dispatch(String name, List<byte[]> args) {
+        switch (name) {
+            case "GET":
+                if (args.size() != 2) {
+                    return wrongArity(name);
+                }
+                return store.getAsync(args.get(1)).thenApply(RespReply::bulk);
+            case "SET":
+                if (args.size() < 3) {
+                    return wrongArity(name);
+                }
+                if (args.size() > 3) {
+                    return completed(RespReply.error("ERR syntax error"));
+                }
+                return store.setAsync(args.get(1), args.get(2)).thenApply(v -> RespReply.ok());
+            case "DEL":
+                if (args.size() < 2) {
+                    return wrongArity(name);
+                }
+                return del(args.subList(1, args.size()));
+            case "MGET":
+                if (args.size() < 2) {
+                    return wrongArity(name);
+                }
+                return store.multiGetAsync(new ArrayList<>(args.subList(1, args.size()))).thenApply(values -> {
+                    List<ByteBuffer[]> elements = new ArrayList<>(values.size());
+                    for (byte[] value : values) {
+                        elements.add(RespReply.bulk(value));
+                    }
+                    return RespReply.array(elements);
+                });
+            case "SCAN":
+                if (args.size() < 2) {
+                    return wrongArity(name);
+                }
+                return scan(args);
+            case "PING":
+                if (args.size() > 2) {
+                    return wrongArity(name);
+                }
+                return completed(args.size() == 2 ? RespReply.bulk(args.get(1)) : RespReply.simple("PONG"));
+            case "ECHO":
+                if (args.size() != 2) {
+                    return wrongArity(name);
+                }
+                return completed(RespReply.bulk(args.get(1)));
+            case "COMMAND":
+                return completed(RespReply.emptyArray());
+            case "QUIT":
+                return completed(RespReply.ok());
+            default:
+                return completed(RespReply.error("ERR unknown command '" + name.toLowerCase(Locale.ROOT) + "'"));
+        }
+    }
+
+    /**
+     * 先查询各key是否存在，再合并为一次删除，返回删除前存在的key个数
+     * 查询与删除之间的并发写入可能使计数不准确，删除本身不受影响
+     */
+    private CompletableFuture<ByteBuffer[]> del(List<byte[]> keys) {
+        List<byte[]> copy = new ArrayList<>(keys);
+        return store.multiGetAsync(copy).thenCompose(values -> {
+            long existing = 0;
+            WriteBatch batch = new WriteBatch();
+            for (int i = 0; i < copy.size(); i++) {
+                if (values.get(i) != null) {
+                    existing++;
+                }
+                batch.rm(copy.get(i));
+            }
+            long count = existing;
+            return store.writeAsync(batch).thenApply(v -> RespReply.integer(count));
+        });
+    }
+
+    /**
+     * SCAN cursor [MATCH pattern] [COUNT count]
+     * 游标为下一个key的十六进制编码，"0"表示从头开始，返回"0"表示已遍历完；
+     * MATCH在取出COUNT个key之后过滤，一次返回的key可能少于COUNT
+     */
+    private CompletableFuture<ByteBuffer[]> scan(List<byte[]> args) {
+        byte[] start;
+        String cursor = new String(args.get(1), StandardCharsets.UTF_8);
+        if ("0".equals(cursor)) {
+            start = null;
+        } else {
+            start = fromHex(cursor);
+            if (start == null) {
+                return completed(RespReply.error("ERR invalid cursor"));
+            }
+        }
+        byte[] pattern = null;
+        int count = DEFAULT_SCAN_COUNT;
+        for (int i = 2; i < args.size(); i += 2) {
+            String option = new String(args.get(i), StandardCharsets.UTF_8).toUpperCase(Locale.ROOT);
+            if (i + 1 >= args.size()) {
+                return completed(RespReply.error("ERR syntax error"));
+            }
+            if ("MATCH".equals(option)) {
+                pattern = args.get(i + 1);
+            } else if ("COUNT".equals(option)) {
+                try {
+                    count = Integer.parseInt(new String(args.get(i + 1), StandardCharsets.UTF_8));
+                } catch (NumberFormatException e) {
+                    return completed(RespReply.error("ERR value is not an integer or out of range"));
+                }
+                if (count < 1) {
+                    return completed(RespReply.error("ERR syntax error"));
+                }
+                count = Math.min(count, MAX_SCAN_COUNT);
+            } else {
+                return completed(RespReply.error("ERR syntax error"));
+            }
+        }
+        int limit = count;
+        byte[] match = pattern;
+        //多取一个作为下一次的游标
+        return store.scanAsync(start, null, limit + 1).thenApply(entries -> {
+            String next = "0";
+            if (entries.size() > limit) {
+                next = toHex(entries.remove(limit).getKey());
+            }
+            List<ByteBuffer[]> keys = new ArrayList<>(entries.size());
+            for (Map.Entry<byte[], byte[]> entry : entries) {
+                if (match == null || globMatch(match, 0, entry.getKey(), 0)) {
+                    keys.add(RespReply.bulk(entry.getKey()));
+                }
+            }
+            List<ByteBuffer[]> reply = new ArrayList<>(2);
+            reply.add(RespReply.bulk(next.getBytes(StandardCharsets.UTF_8)));
+            reply.add(RespReply.array(keys));
+            return RespReply.array(reply);
+        });
+    }
+
+    /**
+     * 简单的glob匹配，支持*和?
+     */
+    static boolean globMatch(byte[] pattern, int p, byte[] key, int k) {
+        while (p < pattern.length) {
+            byte c = pattern[p];
+            if (c == '*') {
+                for (int i = k; i <= key.length; i++) {
+                    if (globMatch(pattern, p + 1, key, i)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (k >= key.length || (c != '?' && c != key[k])) {
+                return false;
+            }
+            p++;
+            k++;
+        }
+        return k == key.length;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return 不是合法的十六进制时返回null
+     */
+    private static byte[] fromHex(String hex) {
+        if (hex.isEmpty() || hex.length() % 2 != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+
+    private static CompletableFuture<ByteBuffer[]> wrongArity(String name) {
+        return completed(RespReply.error("ERR wrong number of arguments for '"
+                + name.toLowerCase(Locale.ROOT) + "' command"));
+    }
+
+    private static CompletableFuture<ByteBuffer[]> completed(ByteBuffer[] reply) {
+        return CompletableFuture.completedFuture(reply);
+    }
+
+    private static Throwable rootCause(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+}
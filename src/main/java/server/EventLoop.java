@@ -0,0 +1,150 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 单线程的Selector循环，注册在其上的通道只在该线程中读写
+ * 其他线程通过{@link #execute(Runnable)}把任务交给该线程执行，例如存储操作完成后写出响应
+ */
+class EventLoop implements Runnable, Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventLoop.class);
+
+    private final Selector selector;
+
+    private final Thread thread;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean closed;
+
+    /**
+     * 通道就绪时的回调，作为SelectionKey的attachment
+     */
+    interface Handler {
+        void onReady(SelectionKey key);
+
+        /**
+         * 事件循环关闭时调用
+         */
+        void close();
+    }
+
+    EventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * 当前线程是否是该事件循环的线程
+     * @return
+     */
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 在事件循环线程中执行任务
+     * @param task
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * 注册通道，只能在事件循环线程中调用
+     * @param channel
+     * @param ops
+     * @param handler
+     * @return
+     * @throws IOException
+     */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+        return channel.register(selector, ops, handler);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (key.isValid()) {
+                        dispatch(key);
+                    }
+                }
+                runTasks();
+            }
+        } catch (Throwable e) {
+            LoggerUtil.error(LOGGER, "[EventLoop][run]: {}", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                ((Handler) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LoggerUtil.error(LOGGER, "[EventLoop][run]: {}", e);
+            }
+        }
+    }
+
+    /**
+     * 调用通道的回调，回调抛出异常时只关闭该通道，不影响循环上的其他通道
+     * @param key
+     */
+    private void dispatch(SelectionKey key) {
+        Handler handler = (Handler) key.attachment();
+        try {
+            handler.onReady(key);
+        } catch (RuntimeException e) {
+            LoggerUtil.error(LOGGER, "[EventLoop][dispatch]: {}", e);
+            key.cancel();
+            handler.close();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LoggerUtil.error(LOGGER, "[EventLoop][runTasks]: {}", e);
+            }
+        }
+    }
+
+    /**
+     * 停止循环并关闭其上的全部通道
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package server;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import utils.Histogram;
+import utils.HistogramSnapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RESP压测工具：每个连接一个线程，按流水线深度批量发送GET/SET，等待全部响应后发送下一批
+ * 记录每条命令从发送到收到响应的延迟
+ * 用法：LoadGenerator [host] [port] [connections] [pipeline] [seconds] [valueSize] [readRatio]
+ */
+public class LoadGenerator {
+    /**
+     * key取值范围
+     */
+    private static final int KEY_SPACE = 100000;
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "127.0.0.1";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int pipeline = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        int valueSize = args.length > 5 ? Integer.parseInt(args[5]) : 100;
+        double readRatio = args.length > 6 ? Double.parseDouble(args[6]) : 0.5;
+        Result result = run(host, port, connections, pipeline, TimeUnit.SECONDS.toMillis(seconds), valueSize, readRatio);
+        HistogramSnapshot latency = result.getLatencyMicros();
+        System.out.printf("connections=%d pipeline=%d valueSize=%d readRatio=%.2f%n",
+                connections, pipeline, valueSize, readRatio);
+        System.out.printf("ops=%d errors=%d throughput=%.0f ops/s%n",
+                result.getOps(), result.getErrors(), result.getOps() * 1000.0 / result.getElapsedMillis());
+        System.out.printf("latency(us) mean=%.1f p50=%d p99=%d p999=%d max=%d%n", latency.getMean(),
+                latency.getP50(), latency.getP99(), latency.getP999(), latency.getMax());
+    }
+
+    /**
+     * 压测指定时长
+     * @param host
+     * @param port
+     * @param connections 连接数
+     * @param pipeline    每个连接一次发送的命令数
+     * @param durationMillis
+     * @param valueSize   SET的value字节数
+     * @param readRatio   GET所占比例
+     * @return
+     * @throws Exception 连接失败
+     */
+    public static Result run(String host, int port, int connections, int pipeline, long durationMillis,
+                             int valueSize, double readRatio) throws Exception {
+        Histogram histogram = new Histogram();
+        AtomicLong ops = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        List<SocketChannel> channels = new ArrayList<>(connections);
+        try {
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channels.add(channel);
+            }
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+            List<Thread> threads = new ArrayList<>(connections);
+            List<Throwable> failures = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = channels.get(i);
+                Thread thread = new Thread(() -> {
+                    try {
+                        runConnection(channel, pipeline, deadline, valueSize, readRatio, histogram, ops, errors);
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }, "kv-load-" + (i + 1));
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            if (!failures.isEmpty()) {
+                throw new IOException("load generator failed", failures.get(0));
+            }
+            return new Result(ops.get(), errors.get(),
+                    Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)), histogram.snapshot());
+        } finally {
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    private static void runConnection(SocketChannel channel, int pipeline, long deadline, int valueSize,
+                                      double readRatio, Histogram histogram, AtomicLong ops, AtomicLong errors)
+            throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        byte[] value = new byte[valueSize];
+        Arrays.fill(value, (byte) 'v');
+        ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(pipeline * (valueSize + 64));
+        while (System.nanoTime() < deadline) {
+            out.reset();
+            for (int i = 0; i < pipeline; i++) {
+                byte[] key = ("key:" + random.nextInt(KEY_SPACE)).getBytes(StandardCharsets.UTF_8);
+                if (random.nextDouble() < readRatio) {
+                    writeCommand(out, "GET".getBytes(StandardCharsets.UTF_8), key);
+                } else {
+                    writeCommand(out, "SET".getBytes(StandardCharsets.UTF_8), key, value);
+                }
+            }
+            ByteBuffer request = ByteBuffer.wrap(out.toByteArray());
+            long sent = System.nanoTime();
+            while (request.hasRemaining()) {
+                channel.write(request);
+            }
+            int received = 0;
+            while (received < pipeline) {
+                in.flip();
+                int mark;
+                while (received < pipeline) {
+                    mark = in.position();
+                    Boolean ok = skipReply(in);
+                    if (ok == null) {
+                        in.position(mark);
+                        break;
+                    }
+                    if (!ok) {
+                        errors.incrementAndGet();
+                    }
+                    received++;
+                    histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sent));
+                }
+                in.compact();
+                if (received < pipeline) {
+                    if (!in.hasRemaining()) {
+                        ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+                        in.flip();
+                        larger.put(in);
+                        in = larger;
+                    }
+                    if (channel.read(in) < 0) {
+                        throw new IOException("connection closed by server");
+                    }
+                }
+            }
+            ops.addAndGet(pipeline);
+        }
+    }
+
+    private static void writeCommand(ByteArrayOutputStream out, byte[]... args) {
+        writeAscii(out, "*" + args.length + "\r\n");
+        for (byte[] arg : args) {
+            writeAscii(out, "$" + arg.length + "\r\n");
+            out.write(arg, 0, arg.length);
+            writeAscii(out, "\r\n");
+        }
+    }
+
+    private static void writeAscii(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 跳过一条完整的响应
+     * @return 数据不完整时返回null，错误响应返回false
+     */
+    private static Boolean skipReply(ByteBuffer in) {
+        if (!in.hasRemaining()) {
+            return null;
+        }
+        byte type = in.get();
+        String line = readLine(in);
+        if (line == null) {
+            return null;
+        }
+        switch (type) {
+            case '+':
+            case ':':
+                return true;
+            case '-':
+                return false;
+            case '$':
+                int len = Integer.parseInt(line);
+                if (len < 0) {
+                    return true;
+                }
+                if (in.remaining() < len + 2) {
+                    return null;
+                }
+                in.position(in.position() + len + 2);
+                return true;
+            case '*':
+                int count = Integer.parseInt(line);
+                boolean ok = true;
+                for (int i = 0; i < count; i++) {
+                    Boolean element = skipReply(in);
+                    if (element == null) {
+                        return null;
+                    }
+                    ok &= element;
+                }
+                return ok;
+            default:
+                throw new IllegalStateException("unexpected reply type: " + (char) type);
+        }
+    }
+
+    private static String readLine(ByteBuffer in) {
+        for (int i = in.position(); i + 1 < in.limit(); i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n') {
+                byte[] line = new byte[i - in.position()];
+                in.get(line);
+                in.position(i + 2);
+                return new String(line, StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 压测结果
+     */
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class Result {
+        private final long ops;
+
+        private final long errors;
+
+        private final long elapsedMillis;
+
+        private final HistogramSnapshot latencyMicros;
+    }
+}
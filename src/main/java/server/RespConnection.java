@@ -0,0 +1,293 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一个客户端连接，所有状态只在所属事件循环线程中访问
+ * 流水线：一次读入的多条命令依次提交给存储，读命令之间不互相等待；响应按命令顺序写出，
+ * 队首完成后才写出后面已完成的响应。未完成的命令过多或待写出的数据过多时暂停读取
+ * 执行顺序与命令顺序一致：读命令在之前的写命令完成后执行，写命令在之前的全部命令完成后执行
+ */
+class RespConnection implements EventLoop.Handler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RespConnection.class);
+
+    /**
+     * 一个连接上最多同时执行的命令个数
+     */
+    static final int MAX_PIPELINE = 1024;
+
+    /**
+     * 待写出的数据超过该值时暂停读取，等待客户端读走响应
+     */
+    private static final int MAX_OUTGOING_BYTES = 4 * 1024 * 1024;
+
+    private static final int INITIAL_READ_BUFFER = 16 * 1024;
+
+    private static final int MAX_READ_BUFFER = RespParser.MAX_BULK_LENGTH + RespParser.MAX_LINE_LENGTH;
+
+    /**
+     * 一次gathering write最多的ByteBuffer个数
+     */
+    private static final int MAX_WRITE_BUFFERS = 256;
+
+    private final EventLoop loop;
+
+    private final SocketChannel channel;
+
+    private final CommandHandler handler;
+
+    private SelectionKey key;
+
+    /**
+     * 写模式，保存尚未解析的数据
+     */
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+
+    /**
+     * 按命令顺序排列的响应
+     */
+    private final ArrayDeque<CompletableFuture<ByteBuffer[]>> pending = new ArrayDeque<>();
+
+    /**
+     * 最后一条写命令，之后的读命令等它完成后执行
+     */
+    private CompletableFuture<?> lastWrite = CompletableFuture.completedFuture(null);
+
+    /**
+     * 之前的全部命令，之后的写命令等它完成后执行
+     */
+    private CompletableFuture<?> allSubmitted = CompletableFuture.completedFuture(null);
+
+    /**
+     * 按顺序待写出的响应数据
+     */
+    private final ArrayDeque<ByteBuffer> outgoing = new ArrayDeque<>();
+
+    private long outgoingBytes;
+
+    /**
+     * 是否已有待执行的process任务，多个命令同时完成时只唤醒一次事件循环
+     */
+    private final AtomicBoolean processScheduled = new AtomicBoolean();
+
+    /**
+     * 收到QUIT或协议错误后不再解析新命令，响应写完后关闭
+     */
+    private boolean closeAfterWrite;
+
+    private boolean closed;
+
+    RespConnection(EventLoop loop, SocketChannel channel, CommandHandler handler) {
+        this.loop = loop;
+        this.channel = channel;
+        this.handler = handler;
+    }
+
+    /**
+     * 在事件循环线程中注册读事件
+     */
+    void register() {
+        try {
+            key = loop.register(channel, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            LoggerUtil.error(LOGGER, "[RespConnection][register]: {}", e);
+            close();
+        }
+    }
+
+    @Override
+    public void onReady(SelectionKey key) {
+        try {
+            if (key.isReadable() && !read()) {
+                close();
+                return;
+            }
+            process();
+        } catch (IOException e) {
+            LoggerUtil.debug(LOGGER, "[RespConnection][onReady]: {}", e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * @return 对端已关闭时返回false
+     */
+    private boolean read() throws IOException {
+        if (!readBuffer.hasRemaining()) {
+            if (readBuffer.capacity() >= MAX_READ_BUFFER) {
+                throw new IOException("request too large");
+            }
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, MAX_READ_BUFFER));
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+        return channel.read(readBuffer) >= 0;
+    }
+
+    /**
+     * 解析已读入的命令，收集已完成的响应并尽量写出，然后按状态调整关注的事件
+     */
+    private void process() throws IOException {
+        if (closed) {
+            return;
+        }
+        boolean full;
+        do {
+            full = parse();
+            collect();
+        } while (full && pending.size() < MAX_PIPELINE);
+        flush();
+        if (closeAfterWrite && pending.isEmpty() && outgoing.isEmpty()) {
+            close();
+            return;
+        }
+        int ops = 0;
+        if (!closeAfterWrite && pending.size() < MAX_PIPELINE && outgoingBytes < MAX_OUTGOING_BYTES) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (!outgoing.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * 从读缓冲区中解析命令并提交执行
+     * @return 是否因未完成的命令过多而停止解析
+     */
+    private boolean parse() {
+        readBuffer.flip();
+        try {
+            while (!closeAfterWrite && readBuffer.hasRemaining()) {
+                if (pending.size() >= MAX_PIPELINE) {
+                    return true;
+                }
+                List<byte[]> args = RespParser.parse(readBuffer);
+                if (args == null) {
+                    break;
+                }
+                if (args.isEmpty()) {
+                    continue;
+                }
+                CompletableFuture<ByteBuffer[]> reply = submit(args);
+                if (CommandHandler.isQuit(args)) {
+                    closeAfterWrite = true;
+                }
+                pending.add(reply);
+                if (!reply.isDone()) {
+                    reply.whenComplete((r, e) -> scheduleProcess());
+                }
+            }
+        } catch (RespParser.RespException e) {
+            pending.add(CompletableFuture.completedFuture(
+                    RespReply.error("ERR Protocol error: " + e.getMessage())));
+            closeAfterWrite = true;
+        } finally {
+            readBuffer.compact();
+        }
+        return false;
+    }
+
+    /**
+     * 按顺序约束提交命令，前面的命令已完成时直接执行
+     * @param args
+     * @return
+     */
+    private CompletableFuture<ByteBuffer[]> submit(List<byte[]> args) {
+        boolean write = CommandHandler.isWrite(args);
+        CompletableFuture<?> after = write ? allSubmitted : lastWrite;
+        CompletableFuture<ByteBuffer[]> reply = after.isDone()
+                ? handler.handle(args) : after.handle((r, e) -> null).thenCompose(v -> handler.handle(args));
+        if (write) {
+            lastWrite = reply;
+            allSubmitted = reply;
+        } else {
+            allSubmitted = allSubmitted.isDone() ? reply : CompletableFuture.allOf(allSubmitted, reply);
+        }
+        return reply;
+    }
+
+    /**
+     * 响应在存储线程中完成，交给事件循环写出
+     */
+    private void scheduleProcess() {
+        if (processScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                processScheduled.set(false);
+                try {
+                    process();
+                } catch (IOException e) {
+                    LoggerUtil.debug(LOGGER, "[RespConnection][process]: {}", e.getMessage());
+                    close();
+                }
+            });
+        }
+    }
+
+    /**
+     * 按顺序取出队首已完成的响应
+     */
+    private void collect() {
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            for (ByteBuffer buffer : pending.poll().join()) {
+                outgoing.add(buffer);
+                outgoingBytes += buffer.remaining();
+            }
+        }
+    }
+
+    /**
+     * gathering write，多个响应和每个响应的各部分一次写出，存储返回的值不经过复制
+     */
+    private void flush() throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[Math.min(outgoing.size(), MAX_WRITE_BUFFERS)];
+        while (!outgoing.isEmpty()) {
+            int n = 0;
+            for (ByteBuffer buffer : outgoing) {
+                if (n == buffers.length) {
+                    break;
+                }
+                buffers[n++] = buffer;
+            }
+            outgoingBytes -= channel.write(buffers, 0, n);
+            while (!outgoing.isEmpty() && !outgoing.peek().hasRemaining()) {
+                outgoing.poll();
+            }
+            if (buffers[n - 1].hasRemaining()) {
+                //socket发送缓冲区已满，等待OP_WRITE
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LoggerUtil.debug(LOGGER, "[RespConnection][close]: {}", e.getMessage());
+        }
+        pending.clear();
+        outgoing.clear();
+        outgoingBytes = 0;
+    }
+}
@@ -0,0 +1,157 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * RESP请求解析，支持多条批量字符串组成的数组（*n\r\n$len\r\narg\r\n...）和以空格分隔的内联命令
+ * 从缓冲区中逐条解析，数据不完整时不移动position，等待读入更多数据后重新解析
+ */
+public class RespParser {
+    /**
+     * 单个参数的最大长度
+     */
+    public static final int MAX_BULK_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * 单条命令的最多参数个数
+     */
+    public static final int MAX_ARGS = 1024 * 1024;
+
+    /**
+     * 内联命令和长度行的最大长度
+     */
+    public static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /**
+     * 解析一条命令
+     * @param buffer 读模式
+     * @return 命令参数；数据不完整时返回null；空的内联命令返回空列表
+     * @throws RespException 协议错误，连接需要关闭
+     */
+    public static List<byte[]> parse(ByteBuffer buffer) {
+        int start = buffer.position();
+        List<byte[]> args = buffer.get(start) == '*' ? parseArray(buffer) : parseInline(buffer);
+        if (args == null) {
+            buffer.position(start);
+        }
+        return args;
+    }
+
+    private static List<byte[]> parseArray(ByteBuffer buffer) {
+        buffer.get();
+        long count = readNumber(buffer);
+        if (count == Long.MIN_VALUE) {
+            return null;
+        }
+        if (count > MAX_ARGS) {
+            throw new RespException("invalid multibulk length");
+        }
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        List<byte[]> args = new ArrayList<>((int) count);
+        for (int i = 0; i < count; i++) {
+            if (!buffer.hasRemaining()) {
+                return null;
+            }
+            if (buffer.get() != '$') {
+                throw new RespException("expected '$'");
+            }
+            long len = readNumber(buffer);
+            if (len == Long.MIN_VALUE) {
+                return null;
+            }
+            if (len < 0 || len > MAX_BULK_LENGTH) {
+                throw new RespException("invalid bulk length");
+            }
+            if (buffer.remaining() < len + 2) {
+                return null;
+            }
+            byte[] arg = new byte[(int) len];
+            buffer.get(arg);
+            if (buffer.get() != '\r' || buffer.get() != '\n') {
+                throw new RespException("expected CRLF after bulk");
+            }
+            args.add(arg);
+        }
+        return args;
+    }
+
+    private static List<byte[]> parseInline(ByteBuffer buffer) {
+        int end = findLineEnd(buffer);
+        if (end < 0) {
+            return null;
+        }
+        int lineEnd = end > buffer.position() && buffer.get(end - 1) == '\r' ? end - 1 : end;
+        byte[] line = new byte[lineEnd - buffer.position()];
+        buffer.get(line);
+        buffer.position(end + 1);
+        List<byte[]> args = new ArrayList<>();
+        for (String arg : new String(line, StandardCharsets.UTF_8).trim().split("\\s+")) {
+            if (!arg.isEmpty()) {
+                args.add(arg.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return args;
+    }
+
+    /**
+     * 读取以CRLF结尾的十进制整数
+     * @return 数据不完整时返回Long.MIN_VALUE
+     */
+    private static long readNumber(ByteBuffer buffer) {
+        int end = findLineEnd(buffer);
+        if (end < 0) {
+            return Long.MIN_VALUE;
+        }
+        if (end == buffer.position() || buffer.get(end - 1) != '\r') {
+            throw new RespException("expected CRLF");
+        }
+        long value = 0;
+        boolean negative = false;
+        for (int i = buffer.position(); i < end - 1; i++) {
+            byte b = buffer.get(i);
+            if (i == buffer.position() && b == '-') {
+                negative = true;
+            } else if (b >= '0' && b <= '9' && value < Integer.MAX_VALUE) {
+                value = value * 10 + (b - '0');
+            } else {
+                throw new RespException("invalid number");
+            }
+        }
+        buffer.position(end + 1);
+        return negative ? -value : value;
+    }
+
+    /**
+     * 从position开始查找'\n'
+     * @return 位置，没有找到时返回-1
+     */
+    private static int findLineEnd(ByteBuffer buffer) {
+        int limit = Math.min(buffer.limit(), buffer.position() + MAX_LINE_LENGTH);
+        for (int i = buffer.position(); i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        if (limit - buffer.position() >= MAX_LINE_LENGTH) {
+            throw new RespException("line too long");
+        }
+        return -1;
+    }
+
+    /**
+     * 协议错误
+     */
+    public static class RespException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public RespException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RESP响应编码，一条响应由若干ByteBuffer组成，批量字符串直接包装存储返回的字节数组，写出时不再复制
+ */
+public class RespReply {
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private static final byte[] OK = "+OK\r\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] NULL_BULK = "$-1\r\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] EMPTY_ARRAY = "*0\r\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 写出时会移动position，常量响应每次包装新的ByteBuffer
+     * @return
+     */
+    public static ByteBuffer[] ok() {
+        return new ByteBuffer[]{ByteBuffer.wrap(OK)};
+    }
+
+    public static ByteBuffer[] nullBulk() {
+        return new ByteBuffer[]{ByteBuffer.wrap(NULL_BULK)};
+    }
+
+    public static ByteBuffer[] emptyArray() {
+        return new ByteBuffer[]{ByteBuffer.wrap(EMPTY_ARRAY)};
+    }
+
+    public static ByteBuffer[] simple(String value) {
+        return of("+" + value + "\r\n");
+    }
+
+    public static ByteBuffer[] error(String message) {
+        return of("-" + message.replace('\r', ' ').replace('\n', ' ') + "\r\n");
+    }
+
+    public static ByteBuffer[] integer(long value) {
+        return of(":" + value + "\r\n");
+    }
+
+    /**
+     * 批量字符串：长度行 | 值 | CRLF，值不复制
+     * @param value 为null时返回空值
+     * @return
+     */
+    public static ByteBuffer[] bulk(byte[] value) {
+        if (value == null) {
+            return nullBulk();
+        }
+        return new ByteBuffer[]{ascii("$" + value.length + "\r\n"), ByteBuffer.wrap(value), ByteBuffer.wrap(CRLF)};
+    }
+
+    /**
+     * 数组：长度行后依次是各元素
+     * @param elements
+     * @return
+     */
+    public static ByteBuffer[] array(List<ByteBuffer[]> elements) {
+        List<ByteBuffer> buffers = new ArrayList<>(elements.size() * 3 + 1);
+        buffers.add(ascii("*" + elements.size() + "\r\n"));
+        for (ByteBuffer[] element : elements) {
+            for (ByteBuffer buffer : element) {
+                buffers.add(buffer);
+            }
+        }
+        return buffers.toArray(new ByteBuffer[0]);
+    }
+
+    private static ByteBuffer[] of(String value) {
+        return new ByteBuffer[]{ascii(value)};
+    }
+
+    private static ByteBuffer ascii(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,169 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import service.AsyncKvStore;
+import service.KvStore;
+import service.KvStoreConfig;
+import service.KvStoreImpl;
+import service.ShardedKvStore;
+import utils.LoggerUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 兼容RESP协议的网络服务，可以用redis-cli等Redis客户端或{@link LoadGenerator}访问
+ * 多个事件循环线程以非阻塞方式处理连接，第一个事件循环同时负责接受连接，新连接轮流分配给各事件循环；
+ * 命令通过AsyncKvStore执行，事件循环线程不阻塞在存储上，同时到达的写入合并为一次日志写入
+ */
+public class RespServer implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RespServer.class);
+
+    private final AsyncKvStore store;
+
+    private final CommandHandler handler;
+
+    private final int port;
+
+    private final EventLoop[] loops;
+
+    private ServerSocketChannel serverChannel;
+
+    private int nextLoop;
+
+    /**
+     * @param store     服务关闭时一并关闭
+     * @param port      为0时使用随机端口，通过{@link #getPort()}取得
+     * @param ioThreads 事件循环线程数，不大于0时使用CPU核数
+     */
+    public RespServer(KvStore store, int port, int ioThreads) {
+        this.store = new AsyncKvStore(store);
+        this.handler = new CommandHandler(this.store);
+        this.port = port;
+        this.loops = new EventLoop[ioThreads > 0 ? ioThreads : Runtime.getRuntime().availableProcessors()];
+    }
+
+    /**
+     * 绑定端口并启动事件循环
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop("kv-server-io-" + (i + 1));
+            loops[i].start();
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        CountDownLatch registered = new CountDownLatch(1);
+        loops[0].execute(() -> {
+            try {
+                loops[0].register(serverChannel, SelectionKey.OP_ACCEPT, new Acceptor());
+            } catch (IOException e) {
+                LoggerUtil.error(LOGGER, "[RespServer][start]: {}", e);
+            } finally {
+                registered.countDown();
+            }
+        });
+        try {
+            registered.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LoggerUtil.info(LOGGER, "[RespServer][start]: listening on {}", serverChannel.getLocalAddress());
+    }
+
+    /**
+     * 实际监听的端口
+     * @return
+     */
+    public int getPort() {
+        try {
+            return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 关闭监听和全部连接，再关闭存储
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.close();
+            }
+        }
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        store.close();
+    }
+
+    /**
+     * 接受连接，轮流分配给各事件循环
+     */
+    private class Acceptor implements EventLoop.Handler {
+        @Override
+        public void onReady(SelectionKey key) {
+            try {
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    EventLoop loop = loops[nextLoop++ % loops.length];
+                    RespConnection connection = new RespConnection(loop, channel, handler);
+                    loop.execute(connection::register);
+                }
+            } catch (IOException e) {
+                LoggerUtil.error(LOGGER, "[RespServer][accept]: {}", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                LoggerUtil.error(LOGGER, "[RespServer][close]: {}", e);
+            }
+        }
+    }
+
+    /**
+     * 启动服务：RespServer dataDir [port] [shards]
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: RespServer dataDir [port] [shards]");
+            return;
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+        int shards = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        KvStoreConfig config = new KvStoreConfig();
+        KvStore store = shards > 1 ? new ShardedKvStore(args[0], shards, config) : new KvStoreImpl(args[0], config);
+        RespServer server = new RespServer(store, port, 0);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                LoggerUtil.error(LOGGER, "[RespServer][shutdown]: {}", e);
+            }
+        }));
+        server.start();
+        //事件循环是守护线程，主线程等待进程退出
+        Thread.currentThread().join();
+    }
+}
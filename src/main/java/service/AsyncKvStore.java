@@ -0,0 +1,371 @@
+package service;
+
+import model.command.Command;
+import model.command.RmCommand;
+import model.command.SetCommand;
+import model.iterator.BytesIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.BytesUtils;
+import utils.LoggerUtil;
+import utils.NamedThreadFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 异步KV存储，方法立即返回CompletableFuture，调用线程不会阻塞在磁盘读写上，适合事件循环
+ * 默认模式：写入进入队列，由一个写线程把排队的写入合并为一个WriteBatch，一条日志记录、一次刷盘完成一组写入；
+ * 合并写入失败时逐个重试，每个future按自己的结果完成；读取提交到I/O线程池
+ * 虚拟线程模式（需要JDK 21及以上）：每个读写操作在一个虚拟线程中阻塞执行，并发写入由日志的组提交合并
+ * future完成后的读取能看到该写入；关闭时完成已排队的写入，并关闭底层存储
+ */
+public class AsyncKvStore implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncKvStore.class);
+
+    /**
+     * 一次合并的最多写入个数
+     */
+    private static final int MAX_BATCH_WRITES = 1024;
+
+    /**
+     * 排队的写入个数上限，超出时写入直接失败
+     */
+    private static final int MAX_PENDING_WRITES = 64 * 1024;
+
+    private final KvStore store;
+
+    /**
+     * 执行读取（虚拟线程模式下也执行写入）的线程池
+     */
+    private final ExecutorService executor;
+
+    /**
+     * executor是否由本实例创建，关闭时一并关闭
+     */
+    private final boolean ownsExecutor;
+
+    /**
+     * 等待写线程合并的写入，虚拟线程模式下为null
+     */
+    private final BlockingQueue<PendingWrite> writes;
+
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    /**
+     * 写线程是否已退出，之后的写入直接失败
+     */
+    private volatile boolean writerStopped;
+
+    /**
+     * 使用CPU核数两倍的I/O线程执行读取
+     * @param store
+     */
+    public AsyncKvStore(KvStore store) {
+        this(store, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2,
+                new NamedThreadFactory("kv-async-read")), true, true);
+    }
+
+    /**
+     * 使用调用方提供的线程池执行读取，关闭时不关闭该线程池
+     * @param store
+     * @param readExecutor
+     */
+    public AsyncKvStore(KvStore store, ExecutorService readExecutor) {
+        this(store, readExecutor, false, true);
+    }
+
+    /**
+     * @param store
+     * @param executor
+     * @param ownsExecutor   关闭时是否关闭executor
+     * @param coalesceWrites 是否由写线程合并写入，为false时写入也在executor中执行
+     */
+    private AsyncKvStore(KvStore store, ExecutorService executor, boolean ownsExecutor, boolean coalesceWrites) {
+        this.store = store;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        if (coalesceWrites) {
+            this.writes = new LinkedBlockingQueue<>(MAX_PENDING_WRITES);
+            this.writer = new NamedThreadFactory("kv-async-write").newThread(this::writeLoop);
+            this.writer.start();
+        } else {
+            this.writes = null;
+            this.writer = null;
+        }
+    }
+
+    /**
+     * 虚拟线程模式：每个读写操作在新的虚拟线程中执行
+     * @param store
+     * @return
+     * @throws UnsupportedOperationException 运行时不支持虚拟线程
+     */
+    public static AsyncKvStore withVirtualThreads(KvStore store) {
+        return new AsyncKvStore(store, newVirtualThreadExecutor(), true, false);
+    }
+
+    /**
+     * 当前运行时是否支持虚拟线程
+     * @return
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 编译目标为Java 8，通过反射调用JDK 21的Executors.newVirtualThreadPerTaskExecutor
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("虚拟线程需要JDK 21及以上，当前为" + System.getProperty("java.version"));
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("创建虚拟线程执行器失败", e);
+        }
+    }
+
+    public CompletableFuture<byte[]> getAsync(byte[] key) {
+        return supply(() -> store.get(key));
+    }
+
+    public CompletableFuture<String> getAsync(String key) {
+        return getAsync(BytesUtils.toBytes(key)).thenApply(BytesUtils::toString);
+    }
+
+    /**
+     * 批量查询
+     * @param keys
+     * @return 与keys一一对应，不存在的为null
+     */
+    public CompletableFuture<List<byte[]>> multiGetAsync(List<byte[]> keys) {
+        return supply(() -> store.multiGet(keys));
+    }
+
+    /**
+     * 从startKey开始按key顺序最多取limit个键值对
+     * @param startKey 为null时从头开始
+     * @param endKey   不包含，为null时到末尾
+     * @param limit
+     * @return
+     */
+    public CompletableFuture<List<Map.Entry<byte[], byte[]>>> scanAsync(byte[] startKey, byte[] endKey, int limit) {
+        return supply(() -> {
+            List<Map.Entry<byte[], byte[]>> entries = new ArrayList<>(Math.min(limit, 1024));
+            try (BytesIterator iterator = store.scan(startKey, endKey)) {
+                while (entries.size() < limit && iterator.hasNext()) {
+                    entries.add(iterator.next());
+                }
+            }
+            return entries;
+        });
+    }
+
+    public CompletableFuture<Void> setAsync(byte[] key, byte[] value) {
+        return writeAsync(Collections.singletonList(new SetCommand(key, value)));
+    }
+
+    public CompletableFuture<Void> setAsync(String key, String value) {
+        return setAsync(BytesUtils.toBytes(key), BytesUtils.toBytes(value));
+    }
+
+    public CompletableFuture<Void> rmAsync(byte[] key) {
+        return writeAsync(Collections.singletonList(new RmCommand(key)));
+    }
+
+    public CompletableFuture<Void> rmAsync(String key) {
+        return rmAsync(BytesUtils.toBytes(key));
+    }
+
+    /**
+     * 批量写入，与同时排队的其他写入合并提交，整体原子
+     * @param batch
+     * @return
+     */
+    public CompletableFuture<Void> writeAsync(WriteBatch batch) {
+        return writeAsync(new ArrayList<>(batch.getCommands()));
+    }
+
+    private CompletableFuture<Void> writeAsync(List<Command> commands) {
+        if (closed) {
+            return failed(new IllegalStateException("async store closed"));
+        }
+        if (writerStopped) {
+            return failed(new IllegalStateException("async writer stopped"));
+        }
+        if (writes == null) {
+            return supply(() -> {
+                store.write(toBatch(commands));
+                return null;
+            });
+        }
+        PendingWrite write = new PendingWrite(commands);
+        if (!writes.offer(write)) {
+            return failed(new RejectedExecutionException("写入队列已满"));
+        }
+        //写线程在检查之后退出时，队列中的写入不会再被处理；已被写线程取走的由写线程完成
+        if (writerStopped && writes.remove(write)) {
+            return failed(new IllegalStateException("async writer stopped"));
+        }
+        return write.future;
+    }
+
+    private <T> CompletableFuture<T> supply(Supplier<T> operation) {
+        if (closed) {
+            return failed(new IllegalStateException("async store closed"));
+        }
+        try {
+            return CompletableFuture.supplyAsync(operation, executor);
+        } catch (RejectedExecutionException e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * 写线程：取出排队的写入，合并为一个WriteBatch写入，完成后通知各自的future
+     * 被中断时退出，队列中剩余的写入和之后提交的写入都失败
+     */
+    private void writeLoop() {
+        List<PendingWrite> group = new ArrayList<>(MAX_BATCH_WRITES);
+        try {
+            while (!closed || !writes.isEmpty()) {
+                try {
+                    PendingWrite first = writes.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    group.add(first);
+                    writes.drainTo(group, MAX_BATCH_WRITES - 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                writeGroup(group);
+                group.clear();
+            }
+        } finally {
+            writerStopped = true;
+            rejectQueued(closed ? "async store closed" : "async writer stopped");
+        }
+    }
+
+    /**
+     * 合并写入一组，失败时逐个重试：各写入互不相关，一个写入出错不影响其他写入；
+     * 多分片存储的批量写入按分片分别提交，失败时部分分片可能已写入，重试幂等
+     * @param group
+     */
+    private void writeGroup(List<PendingWrite> group) {
+        try {
+            WriteBatch batch = new WriteBatch();
+            for (PendingWrite write : group) {
+                appendTo(batch, write.commands);
+            }
+            store.write(batch);
+            for (PendingWrite write : group) {
+                write.future.complete(null);
+            }
+            return;
+        } catch (Throwable e) {
+            if (group.size() == 1) {
+                LoggerUtil.error(LOGGER, "[AsyncKvStore][writeGroup]: {}", e);
+                group.get(0).future.completeExceptionally(e);
+                return;
+            }
+        }
+        for (PendingWrite write : group) {
+            try {
+                store.write(toBatch(write.commands));
+                write.future.complete(null);
+            } catch (Throwable e) {
+                LoggerUtil.error(LOGGER, "[AsyncKvStore][writeGroup]: {}", e);
+                write.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void rejectQueued(String message) {
+        List<PendingWrite> rejected = new ArrayList<>();
+        writes.drainTo(rejected);
+        for (PendingWrite write : rejected) {
+            write.future.completeExceptionally(new IllegalStateException(message));
+        }
+    }
+
+    private static WriteBatch toBatch(List<Command> commands) {
+        WriteBatch batch = new WriteBatch();
+        appendTo(batch, commands);
+        return batch;
+    }
+
+    private static void appendTo(WriteBatch batch, List<Command> commands) {
+        for (Command command : commands) {
+            if (command instanceof SetCommand) {
+                batch.put(command.getKey(), ((SetCommand) command).getValue());
+            } else {
+                batch.rm(command.getKey());
+            }
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    /**
+     * 不再接受新的操作，等待已排队的写入和已提交的读取完成后关闭底层存储
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (writer != null) {
+                writer.join();
+                //关闭前最后一刻进入队列的写入
+                rejectQueued("async store closed");
+            }
+            if (ownsExecutor) {
+                executor.shutdown();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        store.close();
+    }
+
+    private static class PendingWrite {
+        private final List<Command> commands;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingWrite(List<Command> commands) {
+            this.commands = commands;
+        }
+    }
+}
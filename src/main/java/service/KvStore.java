@@ -1,28 +1,199 @@
 package service;
 
+import model.iterator.BytesIterator;
+import model.iterator.KvIterator;
+import model.iterator.StringKvIterator;
+import service.metrics.StoreStats;
+import utils.BytesUtils;
+
 import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * KV存储接口
+ * key和value均为字节数组，key按无符号字节序排列；字符串接口按UTF-8编码后调用字节接口
  */
 public interface KvStore extends Closeable {
+    /**
+     * 添加数据，写入后调用方不能再修改数组
+     * @param key
+     * @param value
+     */
+    void put(byte[] key, byte[] value);
+
+    /**
+     * 查询数据，返回的数组不能修改
+     * @param key
+     * @return 不存在返回null
+     */
+    byte[] get(byte[] key);
+
+    /**
+     * 删除数据
+     * @param key
+     */
+    void rm(byte[] key);
+
+    /**
+     * 创建读快照，之后的写入对快照不可见，用完需要释放
+     * @return
+     */
+    Snapshot getSnapshot();
+
+    /**
+     * 查询快照创建时的数据
+     * @param key
+     * @param snapshot
+     * @return 不存在返回null
+     */
+    byte[] get(byte[] key, Snapshot snapshot);
+
+    /**
+     * 批量查询，同一个data block中的key只读取一次
+     * @param keys
+     * @return 与keys一一对应，不存在的为null
+     */
+    List<byte[]> multiGet(List<byte[]> keys);
+
+    /**
+     * 原子地写入一批操作：写入一条日志记录，崩溃恢复时要么全部生效要么全部不生效
+     * @param batch
+     */
+    void write(WriteBatch batch);
+
+    /**
+     * 按key顺序遍历[startKey, endKey)范围内的数据，用完需要关闭
+     * @param startKey 为null时从头开始
+     * @param endKey   为null时直到末尾
+     * @return
+     */
+    BytesIterator scan(byte[] startKey, byte[] endKey);
+
+    /**
+     * 按key顺序遍历以prefix开头的数据，用完需要关闭
+     * @param prefix
+     * @return
+     */
+    BytesIterator prefixScan(byte[] prefix);
+
+    /**
+     * 读写计数、延迟分布、持久化和日志等统计的快照
+     * @return
+     */
+    StoreStats getStats();
+
+    /**
+     * 添加数据，复制缓冲区中剩余的字节，不修改缓冲区的位置
+     * @param key
+     * @param value
+     */
+    default void put(ByteBuffer key, ByteBuffer value) {
+        put(toBytes(key), toBytes(value));
+    }
+
+    /**
+     * 查询数据，返回直接包装存储中数据的只读缓冲区，不复制value
+     * @param key
+     * @return 不存在返回null
+     */
+    default ByteBuffer get(ByteBuffer key) {
+        byte[] value = get(toBytes(key));
+        return value == null ? null : ByteBuffer.wrap(value).asReadOnlyBuffer();
+    }
+
     /**
      * 添加数据
      * @param key
      * @param value
      */
-    void set(String key, String value);
+    default void set(String key, String value) {
+        put(BytesUtils.toBytes(key), BytesUtils.toBytes(value));
+    }
 
     /**
      * 查询数据
      * @param key
      * @return
      */
-    String get(String key);
+    default String get(String key) {
+        return BytesUtils.toString(get(BytesUtils.toBytes(key)));
+    }
+
+    /**
+     * 查询快照创建时的数据
+     * @param key
+     * @param snapshot
+     * @return
+     */
+    default String get(String key, Snapshot snapshot) {
+        return BytesUtils.toString(get(BytesUtils.toBytes(key), snapshot));
+    }
+
+    /**
+     * 释放快照，之后持久化和合并不再保留只有它可见的旧版本
+     * @param snapshot
+     */
+    default void releaseSnapshot(Snapshot snapshot) {
+        snapshot.release();
+    }
+
+    /**
+     * 批量查询
+     * @param keys
+     * @return 存在的key及其value，按keys的顺序排列
+     */
+    default Map<String, String> multiGet(Collection<String> keys) {
+        List<byte[]> byteKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            byteKeys.add(BytesUtils.toBytes(key));
+        }
+        List<byte[]> values = multiGet(byteKeys);
+        Map<String, String> result = new LinkedHashMap<>();
+        int i = 0;
+        for (String key : keys) {
+            byte[] value = values.get(i++);
+            if (value != null) {
+                result.put(key, BytesUtils.toString(value));
+            }
+        }
+        return result;
+    }
 
     /**
      * 删除数据
      * @param key
      */
-    void rm(String key);
+    default void rm(String key) {
+        rm(BytesUtils.toBytes(key));
+    }
+
+    /**
+     * 按key顺序遍历[startKey, endKey)范围内的数据，用完需要关闭
+     * @param startKey 为null时从头开始
+     * @param endKey   为null时直到末尾
+     * @return
+     */
+    default KvIterator scan(String startKey, String endKey) {
+        return new StringKvIterator(scan(BytesUtils.toBytes(startKey), BytesUtils.toBytes(endKey)));
+    }
+
+    /**
+     * 按key顺序遍历以prefix开头的数据，用完需要关闭
+     * @param prefix
+     * @return
+     */
+    default KvIterator prefixScan(String prefix) {
+        return new StringKvIterator(prefixScan(BytesUtils.toBytes(prefix)));
+    }
+
+    static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
 }
@@ -0,0 +1,195 @@
+package service;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+import model.ssTable.BlockCodec;
+import model.wal.WalSyncMode;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * KV存储配置
+ */
+@Data
+@Accessors(chain = true)
+public class KvStoreConfig {
+    /**
+     * 内存表阈值（key个数），为0时只按字节数切换
+     */
+    private long storeThreshold = 1000;
+
+    /**
+     * 单个内存表估算占用的字节数上限，达到后切换
+     */
+    private long writeBufferSize = 4 * 1024 * 1024;
+
+    /**
+     * 当前内存表和不可变内存表合计的内存预算，为0时为writeBufferSize * (maxImmutableCount + 1)
+     * 达到预算且有内存表等待持久化时写入阻塞
+     */
+    private long maxMemoryBytes;
+
+    /**
+     * 内存用量达到预算的该比例后开始减速写入，延迟随用量线性增加
+     */
+    private double writeSlowdownRatio = 0.8;
+
+    /**
+     * 减速写入时单次写入的最大延迟（微秒）
+     */
+    private long maxWriteDelayMicros = 1000;
+
+    /**
+     * data block大小
+     */
+    private long partSize = 16;
+
+    /**
+     * 等待持久化的内存表个数上限，达到上限时写入阻塞
+     */
+    private int maxImmutableCount = 2;
+
+    /**
+     * 日志持久化模式
+     */
+    private WalSyncMode walSyncMode = WalSyncMode.NONE;
+
+    /**
+     * INTERVAL模式下的日志刷盘间隔
+     */
+    private long walSyncIntervalMs = 100;
+
+    /**
+     * 布隆过滤器每个key占用的位数，为0时不生成过滤器
+     */
+    private int bloomBitsPerKey = 10;
+
+    /**
+     * data block缓存容量（字节），为0时不缓存
+     */
+    private long blockCacheCapacity = 8 * 1024 * 1024;
+
+    /**
+     * data block的压缩算法，levelCompression为null时各层都使用
+     */
+    private BlockCodec compression = BlockCodec.SNAPPY;
+
+    /**
+     * 按层级指定压缩算法，下标为层级，超出的层级使用最后一个，例如上层不压缩、下层使用高级别Deflate
+     */
+    private List<BlockCodec> levelCompression;
+
+    /**
+     * 压缩后节省的空间不足原始大小的该比例时不压缩该data block
+     */
+    private double minCompressionSavings = 0.125;
+
+    /**
+     * 是否使用内存映射读取SsTable文件
+     */
+    private boolean mmapTableFiles;
+
+    /**
+     * 是否开启后台合并
+     */
+    private boolean compactionEnabled = true;
+
+    /**
+     * 层数
+     */
+    private int maxLevels = 7;
+
+    /**
+     * 0层SsTable个数达到该值时合并到1层
+     */
+    private int l0CompactionTrigger = 4;
+
+    /**
+     * 1层的大小上限（字节）
+     */
+    private long levelSizeBase = 10 * 1024 * 1024;
+
+    /**
+     * 相邻两层的大小比例
+     */
+    private double levelSizeMultiplier = 10;
+
+    /**
+     * 合并输出的单个SsTable的目标大小（字节）
+     */
+    private long targetFileSize = 2 * 1024 * 1024;
+
+    /**
+     * multiGet在互不重叠的层中并行查询各SsTable的线程数，为0时在调用线程中顺序查询
+     */
+    private int multiGetParallelism;
+
+    /**
+     * 多分片存储共享的持久化线程数，单个存储使用自己的一个线程
+     */
+    private int flushThreads = 2;
+
+    /**
+     * 多分片存储共享的合并线程数，单个存储使用自己的一个线程
+     */
+    private int compactionThreads = 2;
+
+    /**
+     * 是否注册JMX MBean，名称为kvstore:type=KvStore,name="数据目录"
+     */
+    private boolean jmxEnabled;
+
+    /**
+     * 启动时并行打开SsTable的线程数，为0时使用CPU核数
+     */
+    private int tableOpenThreads;
+
+    /**
+     * 是否在第一次访问SsTable时才加载稀疏索引，开启后启动时只读取索引信息和布隆过滤器
+     */
+    private boolean lazyLoadIndex = true;
+
+    /**
+     * 超过该字节数的值写入值日志，日志、内存表和SsTable中只保存位置，为0时不分离
+     */
+    private int valueThreshold = 64 * 1024;
+
+    /**
+     * 单个值日志文件的大小上限
+     */
+    private long valueLogFileSize = 64 * 1024 * 1024;
+
+    /**
+     * 后台回收值日志的间隔，每次检查一个文件，为0时不在后台回收
+     */
+    private long valueLogGcIntervalMs = 60 * 1000;
+
+    /**
+     * 值日志文件中无效数据达到该比例时回收
+     */
+    private double valueLogGcDiscardRatio = 0.5;
+
+    /**
+     * 只读打开，例如打开检查点：不写日志、不持久化、不合并、不回收值日志，也不修改目录中的文件，写入抛出异常
+     */
+    private boolean readOnly;
+
+    /**
+     * 持久化和合并写SsTable的IO限速（字节/秒），持久化优先于合并，多分片存储为全部分片合计，为0时不限速
+     */
+    private long ioRateLimitBytesPerSec;
+
+    /**
+     * 是否自动调整IO限速：后台写入积压时提高，空闲时降低，ioRateLimitBytesPerSec为上限
+     */
+    private boolean ioRateLimitAutoTune;
+
+    /**
+     * 各层使用的压缩算法
+     * @return
+     */
+    public List<BlockCodec> levelCodecs() {
+        return levelCompression != null ? levelCompression : Collections.singletonList(compression);
+    }
+}
@@ -1,25 +1,81 @@
 package service;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONObject;
 import model.command.Command;
 import model.command.RmCommand;
 import model.command.SetCommand;
+import model.command.ValuePointerCommand;
+import model.iterator.BytesIterator;
+import model.iterator.StoreIterator;
+import model.manifest.Manifest;
+import model.manifest.TableFileMeta;
+import model.manifest.VersionEdit;
+import model.memTable.ImmutableMemTable;
+import model.memTable.MemTable;
+import model.ssTable.BlockCache;
 import model.ssTable.SsTable;
+import model.ssTable.SsTableOptions;
+import model.ssTable.TableReadStats;
+import model.ssTable.TableVersion;
+import model.vlog.ValueLog;
+import model.vlog.ValuePointer;
+import model.wal.PendingRecord;
+import model.wal.WalReader;
+import model.wal.WalRecord;
+import model.wal.WalWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import utils.ConvertUtils;
+import service.compaction.Compaction;
+import service.compaction.LeveledCompactor;
+import service.compaction.VersionRetention;
+import service.metrics.KvStoreMXBean;
+import service.metrics.StoreMetrics;
+import service.metrics.StoreStats;
+import utils.BytesUtils;
+import utils.FileUtils;
 import utils.LoggerUtil;
+import utils.NamedThreadFactory;
+import utils.RateLimiter;
+import utils.SerialExecutor;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.charset.StandardCharsets;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * KV存储实现
@@ -29,38 +85,149 @@ public class KvStoreImpl implements KvStore{
     public static final Logger LOGGER = LoggerFactory.getLogger(KvStoreImpl.class);
     public static final String WAL = "wal";
     public static final String WAL_TMP = "wal_tmp";
+    public static final String WAL_MIGRATE = "wal_migrate";
     public static final String TABLE = ".table";
     public static final String RW = "rw";
 
     /**
-     * 内存表
+     * 读取值时值日志文件已被回收的最多重试次数
      */
-    private TreeMap<String, Command> index;
+    private static final int MAX_VALUE_READ_RETRIES = 3;
 
     /**
-     * 持久化内存表
+     * 值日志回收时一次加锁重写的最多值个数
      */
-    private TreeMap<String, Command> immutableIndex;
+    private static final int VALUE_GC_BATCH = 64;
 
     /**
-     * SsTable集合
+     * 当前的内存表、不可变内存表和SsTable集合，读操作不加锁
      */
-    private LinkedList<SsTable> ssTables;
+    private volatile StoreState state;
 
     /**
-     * 内存表阈值
+     * 等待持久化的内存表个数上限，达到上限时写入阻塞
+     */
+    private final int maxImmutableCount;
+
+    /**
+     * SsTable共享的布隆过滤器策略和block缓存
+     */
+    private final SsTableOptions tableOptions;
+
+    /**
+     * 内存表阈值（key个数），为0时只按字节数切换
      */
     private final long storeThreshold;
 
+    /**
+     * 单个内存表的字节数上限
+     */
+    private final long writeBufferSize;
+
+    /**
+     * 全部内存表的内存预算，达到后写入阻塞
+     */
+    private final long memoryBudget;
+
+    /**
+     * 开始减速写入的内存用量
+     */
+    private final long slowdownBytes;
+
     /**
      * data block大小
      */
     private final long partSize;
 
     /**
-     * 读写锁
+     * 写锁，保证日志和内存表的写入顺序一致，并串行化内存表切换
+     */
+    private final ReentrantLock writeLock;
+
+    /**
+     * 状态锁，只保护state的替换
+     */
+    private final ReentrantLock stateLock;
+
+    /**
+     * 持久化完成通知，用于唤醒写阻塞的线程
+     */
+    private final Condition immutableFlushed;
+
+    /**
+     * 后台持久化线程
+     */
+    private final ExecutorService flushExecutor;
+
+    /**
+     * 后台合并线程
+     */
+    private final ExecutorService compactionExecutor;
+
+    /**
+     * multiGet并行查询SsTable的线程池，未开启时为null
+     */
+    private final ExecutorService readExecutor;
+
+    /**
+     * 合并策略
+     */
+    private final LeveledCompactor compactor;
+
+    /**
+     * 是否已提交合并任务，同一时间只有一个合并任务
+     */
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    /**
+     * 是否正在关闭，关闭后不再提交合并任务
+     */
+    private volatile boolean closing;
+
+    /**
+     * 是否已关闭，在写锁内设置，之后的写入直接失败
+     */
+    private boolean closed;
+
+    /**
+     * 后台持久化异常，出现后拒绝写入
+     */
+    private volatile Throwable backgroundError;
+
+    /**
+     * 日志写入失败的原因，出现后拒绝读写：失败的写入已在内存表中可见，但没有持久化
+     */
+    private volatile Throwable walError;
+
+    /**
+     * 文件编号生成器
+     */
+    private final AtomicLong fileId;
+
+    /**
+     * 最后一次写入的序列号，在写锁内递增
+     */
+    private long lastSequence;
+
+    /**
+     * 存活的读快照
+     */
+    private final SnapshotList snapshots = new SnapshotList();
+
+    /**
+     * 读写路径上的统计
+     */
+    private final StoreMetrics metrics;
+
+    /**
+     * 与其他实例共享的资源，单独使用时为null
+     */
+    private final StoreResources sharedResources;
+
+    /**
+     * 已注册的JMX名称，未注册时为null
      */
-    private final ReentrantReadWriteLock indexLock;
+    private ObjectName mbeanName;
 
     /**
      * 文件存储路径
@@ -68,9 +235,44 @@ public class KvStoreImpl implements KvStore{
     private final String dataDir;
 
     /**
-     * 日志文件句柄
+     * 存储配置
+     */
+    private final KvStoreConfig config;
+
+    /**
+     * SsTable集合的修改日志
+     */
+    private Manifest manifest;
+
+    /**
+     * 值日志，超过valueThreshold的值只写入一次
+     */
+    private final ValueLog valueLog;
+
+    /**
+     * 值日志后台回收线程，未开启时为null
+     */
+    private final ScheduledExecutorService valueLogGcExecutor;
+
+    /**
+     * 串行化后台回收和手动回收
+     */
+    private final ReentrantLock valueLogGcLock = new ReentrantLock();
+
+    /**
+     * 已重写有效值、等待删除的值日志文件：文件编号到重写完成时的序列号，早于该序列号的快照全部释放后删除
+     */
+    private final Map<Long, Long> reclaimedValueFiles = new ConcurrentHashMap<>();
+
+    /**
+     * 值日志文件上次检查的时间，后台回收每次检查最久未检查的文件，只在持有valueLogGcLock时访问
      */
-    private RandomAccessFile wal;
+    private final Map<Long, Long> valueFileCheckTimes = new HashMap<>();
+
+    /**
+     * 日志写入器
+     */
+    private WalWriter walWriter;
 
     /**
      * 日志文件
@@ -84,40 +286,168 @@ public class KvStoreImpl implements KvStore{
      * @param partSize
      */
     public KvStoreImpl(String dataDir, long storeThreshold, long partSize){
+        this(dataDir, new KvStoreConfig().setStoreThreshold(storeThreshold).setPartSize(partSize));
+    }
+
+    /**
+     * 初始化
+     * @param dataDir
+     * @param storeThreshold
+     * @param partSize
+     * @param maxImmutableCount 等待持久化的内存表个数上限
+     */
+    public KvStoreImpl(String dataDir, long storeThreshold, long partSize, int maxImmutableCount){
+        this(dataDir, new KvStoreConfig().setStoreThreshold(storeThreshold).setPartSize(partSize)
+                .setMaxImmutableCount(maxImmutableCount));
+    }
+
+    /**
+     * 初始化
+     * @param dataDir
+     * @param config
+     */
+    public KvStoreImpl(String dataDir, KvStoreConfig config){
+        this(dataDir, config, null);
+    }
+
+    /**
+     * 初始化，使用与其他实例共享的block缓存、统计和后台线程池
+     * @param dataDir
+     * @param config
+     * @param sharedResources 为null时创建自己的资源
+     */
+    public KvStoreImpl(String dataDir, KvStoreConfig config, StoreResources sharedResources){
         try{
+            this.sharedResources = sharedResources;
             this.dataDir = dataDir;
-            this.storeThreshold = storeThreshold;
-            this.partSize = partSize;
-            indexLock = new ReentrantReadWriteLock();
-            ssTables = new LinkedList<>();
-            index = new TreeMap<>();
-            immutableIndex = new TreeMap<>();
+            this.config = config;
+            this.storeThreshold = config.getStoreThreshold();
+            this.writeBufferSize = config.getWriteBufferSize() > 0 ? config.getWriteBufferSize() : Long.MAX_VALUE;
+            this.partSize = config.getPartSize();
+            this.maxImmutableCount = Math.max(1, config.getMaxImmutableCount());
+            this.memoryBudget = config.getMaxMemoryBytes() > 0 ? config.getMaxMemoryBytes()
+                    : writeBufferSize > Long.MAX_VALUE / (maxImmutableCount + 1)
+                    ? Long.MAX_VALUE : writeBufferSize * (maxImmutableCount + 1);
+            this.slowdownBytes = (long) (memoryBudget * Math.min(1, Math.max(0, config.getWriteSlowdownRatio())));
+            writeLock = new ReentrantLock();
+            stateLock = new ReentrantLock();
+            immutableFlushed = stateLock.newCondition();
+            if(sharedResources != null){
+                this.tableOptions = sharedResources.getTableOptions();
+                this.metrics = sharedResources.getMetrics();
+                //持久化和合并在共享线程池上仍然各自串行
+                flushExecutor = new SerialExecutor(sharedResources.getFlushPool());
+                compactionExecutor = new SerialExecutor(sharedResources.getCompactionPool());
+                readExecutor = sharedResources.getReadPool();
+            }else{
+                this.tableOptions = StoreResources.newTableOptions(config);
+                this.metrics = new StoreMetrics();
+                flushExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("kv-flush"));
+                compactionExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("kv-compaction"));
+                readExecutor = config.getMultiGetParallelism() > 0
+                        ? Executors.newFixedThreadPool(config.getMultiGetParallelism(),
+                        new NamedThreadFactory("kv-read"))
+                        : null;
+            }
+            compactor = new LeveledCompactor(config);
+            fileId = new AtomicLong();
+            MemTable memTable = new MemTable();
+            LinkedList<ImmutableMemTable> immutables = new LinkedList<>();
             File dir = new File(dataDir);
+            if(config.isReadOnly() && !dir.isDirectory()){
+                throw new RuntimeException("目录不存在:" + dataDir);
+            }
+            if(!dir.exists() && !dir.mkdirs()){
+                throw new RuntimeException("创建目录失败:" + dataDir);
+            }
+            valueLog = new ValueLog(dataDir, config.getValueLogFileSize(), this::nextFileId);
+            fileId.accumulateAndGet(valueLog.maxFileId(), Math::max);
+            valueLogGcExecutor = config.getValueThreshold() > 0 && config.getValueLogGcIntervalMs() > 0
+                    && !config.isReadOnly()
+                    ? Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("kv-vlog-gc"))
+                    : null;
+            Map<Long, TableFileMeta> manifestTables = Manifest.recover(dataDir);
             File[] files = dir.listFiles();
             //目录为空，则直接初始化
             if(files == null || files.length == 0){
+                if(config.isReadOnly()){
+                    throw new RuntimeException("目录中没有数据:" + dataDir);
+                }
+                state = new StoreState(memTable, Collections.emptyList(),
+                        TableVersion.of(Collections.emptyList(), config.getMaxLevels()));
+                manifest = Manifest.create(dataDir, Collections.emptyList());
                 walFile = new File(dataDir+WAL);
-                wal = new RandomAccessFile(walFile, RW);
+                walWriter = newWalWriter();
+                registerMBean();
+                scheduleValueLogGc();
                 return;
             }
             //从文件中恢复SsTable
-            TreeMap<Long, SsTable> ssTableTreeMap = new TreeMap<>(Comparator.reverseOrder());
+            TreeMap<Long, File> tableFiles = new TreeMap<>(Comparator.reverseOrder());
+            TreeMap<Long, File> walTmpFiles = new TreeMap<>();
+            File legacyWalTmp = null;
             for (File file:files){
                 String fileName = file.getName();
                 if(file.isFile() && fileName.equals(WAL_TMP)){
-                    restoreFromWal(new RandomAccessFile(file, RW));
+                    legacyWalTmp = file;
+                }else if(file.isFile() && fileName.startsWith(WAL_TMP + "_")){
+                    walTmpFiles.put(Long.parseLong(fileName.substring(WAL_TMP.length() + 1)), file);
                 }else if(file.isFile() && fileName.endsWith(TABLE)){
                     int dotIndex = fileName.indexOf('.');
-                    Long time = Long.parseLong(fileName.substring(0, dotIndex));
-                    ssTableTreeMap.put(time, SsTable.createFromFile(file.getAbsolutePath(), true));
+                    tableFiles.put(Long.parseLong(fileName.substring(0, dotIndex)), file);
                 }else if(file.isFile() && fileName.equals(WAL)){
                     walFile = file;
-                    wal = new RandomAccessFile(walFile, RW);
-                    restoreFromWal(wal);
                 }
             }
-            ssTables.addAll(ssTableTreeMap.values());
-        }catch (FileNotFoundException e) {
+            for (Long id : tableFiles.keySet()){
+                fileId.accumulateAndGet(id, Math::max);
+            }
+            List<SsTable> ssTables = manifestTables != null
+                    ? openManifestTables(manifestTables, tableFiles, walTmpFiles)
+                    : openLegacyTables(tableFiles, walTmpFiles);
+            TableVersion tableVersion = TableVersion.of(ssTables, config.getMaxLevels());
+            //版本已持有引用，释放创建时的引用
+            for (SsTable ssTable : ssTables){
+                ssTable.release();
+            }
+            //以恢复后的SsTable集合为快照重写MANIFEST，没有MANIFEST的旧目录由此迁移
+            if(!config.isReadOnly()){
+                VersionEdit snapshot = new VersionEdit();
+                for (SsTable ssTable : ssTables){
+                    snapshot.addTable(ssTable);
+                }
+                manifest = Manifest.create(dataDir, snapshot.getAddedTables());
+            }
+            //日志中的数据比所有SsTable都新，旧版本日志中没有序列号的命令按恢复顺序在其后分配
+            lastSequence = tableVersion.maxSequence();
+            for (Long id : walTmpFiles.keySet()){
+                fileId.accumulateAndGet(id, Math::max);
+            }
+            //旧版本的wal_tmp比所有SsTable都新，分配新的编号
+            if(legacyWalTmp != null){
+                restoreImmutable(nextFileId(), legacyWalTmp, immutables);
+            }
+            for (Map.Entry<Long, File> entry : walTmpFiles.entrySet()){
+                restoreImmutable(entry.getKey(), entry.getValue(), immutables);
+            }
+            if(walFile == null){
+                walFile = new File(dataDir+WAL);
+            }
+            restoreActiveWal(memTable);
+            state = new StoreState(memTable, Collections.unmodifiableList(new ArrayList<>(immutables)), tableVersion);
+            if(config.isReadOnly()){
+                //只读时不可变内存表留在内存中，不持久化
+                registerMBean();
+                return;
+            }
+            walWriter = newWalWriter();
+            for (int i = 0; i < immutables.size(); i++){
+                flushExecutor.execute(this::flushOldestImmutable);
+            }
+            maybeScheduleCompaction();
+            registerMBean();
+            scheduleValueLogGc();
+        }catch (IOException e) {
             throw new RuntimeException(e);
         }
 
@@ -125,183 +455,1306 @@ public class KvStoreImpl implements KvStore{
     }
 
     /**
-     * 从日志文件中恢复数据到内存表
-     * @param wal
+     * 按MANIFEST打开SsTable，只读取索引信息和布隆过滤器，层级和key范围来自MANIFEST
+     * 目录中不在MANIFEST里的SsTable是未完成的持久化或合并输出，删除；
+     * 已在MANIFEST中的SsTable对应的wal_tmp是持久化完成后未来得及删除的日志，也删除
+     * @param manifestTables
+     * @param tableFiles 目录中的SsTable文件
+     * @param walTmpFiles 目录中的wal_tmp文件，删除已持久化的
+     * @return
      */
-    public void restoreFromWal(RandomAccessFile wal){
-        try {
-            int start = 0;
-            while(start < wal.length()){
-                wal.seek(start);
-                int valueLen = wal.readInt();
-                byte[] bytes = new byte[valueLen];
-                wal.read(bytes);
-                JSONObject value = JSON.parseObject(new String(bytes, StandardCharsets.UTF_8));
-                Command command = ConvertUtils.toCommand(value);
-                if(command != null){
-                    index.put(command.getKey(), command);
-                }
-                start += 4;
-                start += valueLen;
+    private List<SsTable> openManifestTables(Map<Long, TableFileMeta> manifestTables, Map<Long, File> tableFiles,
+                                             Map<Long, File> walTmpFiles){
+        for (Map.Entry<Long, File> entry : tableFiles.entrySet()){
+            if(!manifestTables.containsKey(entry.getKey())){
+                LoggerUtil.info(LOGGER, "[KvStoreImpl][openManifestTables]: delete orphan {}",
+                        entry.getValue().getName());
+                deleteUnlessReadOnly(entry.getValue());
             }
-
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
+        Iterator<Map.Entry<Long, File>> walTmps = walTmpFiles.entrySet().iterator();
+        while (walTmps.hasNext()){
+            Map.Entry<Long, File> entry = walTmps.next();
+            if(manifestTables.containsKey(entry.getKey())){
+                deleteUnlessReadOnly(entry.getValue());
+                walTmps.remove();
+            }
+        }
+        List<Callable<SsTable>> tasks = new ArrayList<>(manifestTables.size());
+        for (TableFileMeta meta : manifestTables.values()){
+            File file = tableFiles.get(meta.getFileId());
+            if(file == null){
+                throw new RuntimeException("SsTable文件缺失:" + meta.getFileId() + TABLE);
+            }
+            tasks.add(() -> SsTable.openFromFile(file.getAbsolutePath(), true, tableOptions, meta.getLevel(),
+                    meta.getSmallestKey(), meta.getLargestKey(), config.isLazyLoadIndex()));
+        }
+        return openTables(tasks);
     }
 
     /**
-     * 添加数据
-     * @param key
-     * @param value
+     * 没有MANIFEST的旧目录：与wal_tmp同编号的SsTable是未完成的持久化，删除后由日志重新生成，其余全部读取
+     * @param tableFiles
+     * @param walTmpFiles
+     * @return
      */
-    @Override
-    public void set(String key, String value) {
-        try {
-            indexLock.writeLock().lock();
-            SetCommand command = new SetCommand(key, value);
-            //先写入wal日志
-            byte[] bytes = JSONObject.toJSONBytes(command);
-            wal.writeInt(bytes.length);
-            wal.write(bytes);
-            //写入内存表
-            index.put(key, command);
-            //内存表达到阈值，进行持久化
-            if(index.size() > storeThreshold){
-                switchIndex(index);
-                storeToSsTable();
+    private List<SsTable> openLegacyTables(Map<Long, File> tableFiles, Map<Long, File> walTmpFiles){
+        List<Callable<SsTable>> tasks = new ArrayList<>(tableFiles.size());
+        for (Map.Entry<Long, File> entry : tableFiles.entrySet()){
+            if(walTmpFiles.containsKey(entry.getKey())){
+                deleteUnlessReadOnly(entry.getValue());
+                continue;
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }finally {
-            indexLock.writeLock().unlock();
+            String path = entry.getValue().getAbsolutePath();
+            tasks.add(() -> SsTable.createFromFile(path, true, tableOptions));
         }
-
+        return openTables(tasks);
     }
 
     /**
-     * 内存表达到阈值，转化为持久化内存表
-     * @param index
+     * 在临时线程池中并行打开SsTable，任一失败时关闭已打开的表
+     * @param tasks
+     * @return
      */
-    public void switchIndex(TreeMap<String, Command> index){
+    private List<SsTable> openTables(List<Callable<SsTable>> tasks){
+        List<SsTable> tables = new ArrayList<>(tasks.size());
+        if(tasks.isEmpty()){
+            return tables;
+        }
+        int threads = config.getTableOpenThreads() > 0
+                ? config.getTableOpenThreads() : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()),
+                new NamedThreadFactory("kv-open"));
+        long start = System.nanoTime();
         try {
-            indexLock.writeLock().lock();
-            immutableIndex = index;
-            this.index = new TreeMap<>();
-            wal.close();
-            //切换日志
-            File walTmp = new File(dataDir+WAL_TMP);
-            if(walTmp.exists()){
-                if(!walTmp.delete()){
-                    throw new RuntimeException("删除文件失败:wal_tmp");
+            List<Future<SsTable>> futures = new ArrayList<>(tasks.size());
+            for (Callable<SsTable> task : tasks){
+                futures.add(executor.submit(task));
+            }
+            Throwable error = null;
+            for (Future<SsTable> future : futures){
+                try {
+                    tables.add(future.get());
+                } catch (ExecutionException e) {
+                    error = error == null ? e.getCause() : error;
                 }
             }
-            if(!walFile.renameTo(walTmp)){
-                throw new RuntimeException("重命名失败：wal");
+            if(error != null){
+                for (SsTable table : tables){
+                    table.release();
+                }
+                throw new RuntimeException("打开SsTable失败", error);
             }
-            walFile = new File(dataDir+WAL);
-            wal = new RandomAccessFile(walFile, RW);
-        } catch (Throwable e) {
+            LoggerUtil.info(LOGGER, "[KvStoreImpl][openTables]: {} tables, {}ms", tables.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return tables;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
         } finally {
-            indexLock.writeLock().unlock();
+            executor.shutdownNow();
+        }
+    }
+
+    private static void deleteFile(File file){
+        if(!file.delete()){
+            throw new RuntimeException("删除文件失败:" + file.getName());
         }
     }
 
     /**
-     * 将持久化内存表中的数据存到SsTable
+     * 恢复时删除无用的文件，只读时保留
+     * @param file
      */
-    public void storeToSsTable(){
-        try {SsTable ssTable = SsTable.createFromIndex(dataDir + System.currentTimeMillis() + TABLE,
-                partSize, immutableIndex, true);
-            ssTables.addFirst(ssTable);
-            immutableIndex = null;
-            File walTmp = new File(dataDir+WAL_TMP);
-            if(walTmp.exists()){
-                if(!walTmp.delete()){
-                    throw new RuntimeException("删除文件失败:wal_tmp");
-                }
-            }
-        } catch (Throwable e){
-            throw new RuntimeException(e);
+    private void deleteUnlessReadOnly(File file){
+        if(!config.isReadOnly()){
+            deleteFile(file);
         }
     }
 
     /**
-     * 查询数据
-     * @param key
-     * @return
+     * 日志刷盘前先将值日志刷盘，日志中的值位置总是指向已落盘的值
      */
-    @Override
-    public String get(String key) {
-        try {
-            indexLock.readLock().lock();
-            Command command = null;
-            if (index != null && index.containsKey(key)) {
-                command = index.get(key);
-            } else if (immutableIndex != null && immutableIndex.containsKey(key)) {
-                command = immutableIndex.get(key);
-            } else {
-                for (SsTable ssTable : ssTables) {
-                    if(ssTable == null){
-                        continue;
-                    }
-                    command = ssTable.query(key);
-                    if (command != null) {
-                        break;
-                    }
-                }
+    private WalWriter newWalWriter(){
+        return new WalWriter(walFile, config.getWalSyncMode(), config.getWalSyncIntervalMs(), valueLog::sync);
+    }
+
+    /**
+     * 从待持久化的日志中恢复不可变内存表
+     * @param id
+     * @param file
+     * @param immutables 恢复的不可变内存表，新的在前
+     */
+    private void restoreImmutable(long id, File file, LinkedList<ImmutableMemTable> immutables) {
+        TreeMap<byte[], Command> immutableIndex = new TreeMap<>(BytesUtils.COMPARATOR);
+        restoreFromWal(file, immutableIndex);
+        if(immutableIndex.isEmpty()){
+            deleteUnlessReadOnly(file);
+            return;
+        }
+        long bytes = 0;
+        for (Command command : immutableIndex.values()){
+            bytes += MemTable.entrySize(command);
+        }
+        immutables.addFirst(new ImmutableMemTable(id, immutableIndex, file, bytes));
+    }
+
+    /**
+     * 恢复当前日志：截断不完整的尾部，旧版日志转写为当前格式后继续追加
+     */
+    private void restoreActiveWal(MemTable memTable) throws IOException {
+        if(!walFile.exists()){
+            return;
+        }
+        long validLength;
+        boolean legacy;
+        try (WalReader reader = WalReader.open(walFile)){
+            Command command;
+            while ((command = reader.next()) != null){
+                assignSequence(command);
+                memTable.put(command);
             }
-            if (command instanceof SetCommand) {
-                SetCommand setCommand = (SetCommand) command;
-                LoggerUtil.debug(LOGGER,"key:"+key+"-> value:"+setCommand.getValue());
-                return setCommand.getValue();
+            validLength = reader.validLength();
+            legacy = reader.isLegacy();
+        }
+        if(config.isReadOnly()){
+            return;
+        }
+        if(legacy){
+            migrateWal(memTable);
+        }else if(walFile.length() > validLength){
+            LoggerUtil.info(LOGGER, "[KvStoreImpl][restoreActiveWal]: truncate wal from {} to {}",
+                    walFile.length(), validLength);
+            try (RandomAccessFile wal = new RandomAccessFile(walFile, RW)){
+                wal.setLength(validLength);
             }
-            if (command instanceof RmCommand) {
-                LoggerUtil.debug(LOGGER,"key:"+key+"-> value:null");
-                return null;
+        }
+    }
+
+    /**
+     * 将已恢复到内存表的旧版日志重写为当前格式，命令带有恢复时分配的序列号
+     */
+    private void migrateWal(MemTable memTable) throws IOException {
+        File migrateFile = new File(dataDir + WAL_MIGRATE);
+        try (FileOutputStream out = new FileOutputStream(migrateFile)){
+            BufferedOutputStream buffered = new BufferedOutputStream(out);
+            DataOutputStream data = new DataOutputStream(buffered);
+            data.writeInt(WalRecord.MAGIC);
+            for (Command command : memTable.getIndex().values()){
+                data.write(WalRecord.encode(command));
             }
-            LoggerUtil.debug(LOGGER,"key:"+key+"-> value:null");
-            return null;
-        }catch (Throwable e){
+            data.flush();
+            out.getFD().sync();
+        }
+        Files.move(migrateFile.toPath(), walFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LoggerUtil.info(LOGGER, "[KvStoreImpl][migrateWal]: migrated {} records", memTable.size());
+    }
+
+    /**
+     * 从日志文件中恢复数据到内存表，兼容旧版JSON日志
+     * @param file
+     * @param index
+     */
+    public void restoreFromWal(File file, Map<byte[], Command> index){
+        try (WalReader reader = WalReader.open(file)){
+            restoreFromWal(reader, index);
+        } catch (IOException e) {
             throw new RuntimeException(e);
-        }finally {
-            indexLock.readLock().unlock();
+        }
+    }
+
+    private void restoreFromWal(WalReader reader, Map<byte[], Command> index) throws IOException {
+        Command command;
+        while ((command = reader.next()) != null){
+            assignSequence(command);
+            index.put(command.getKey(), command);
         }
     }
 
     /**
-     * 删除数据
+     * 恢复时为旧版本日志中没有序列号的命令分配序列号
+     * @param command
+     */
+    private void assignSequence(Command command){
+        if(command.getSeq() == 0){
+            command.setSeq(++lastSequence);
+        }else{
+            lastSequence = Math.max(lastSequence, command.getSeq());
+        }
+    }
+
+    /**
+     * 添加数据
      * @param key
+     * @param value
+     */
+    @Override
+    public void put(byte[] key, byte[] value) {
+        checkWritable();
+        long start = System.nanoTime();
+        write(separateValue(new SetCommand(key, value)));
+        metrics.getSetLatency().record(System.nanoTime() - start);
+    }
+
+    /**
+     * 批量写入：一次编码、一条日志记录、一次加锁，崩溃恢复时要么全部重放要么全部丢弃
+     * @param batch
      */
     @Override
-    public void rm(String key) {
+    public void write(WriteBatch batch) {
+        if(batch.isEmpty()){
+            return;
+        }
+        checkWritable();
+        long start = System.nanoTime();
+        //写入时会设置序列号，复制一份，批量操作可以重复使用
+        List<Command> commands = new ArrayList<>(batch.size());
+        for (Command command : batch.getCommands()) {
+            commands.add(command instanceof SetCommand
+                    ? separateValue(new SetCommand(command.getKey(), ((SetCommand) command).getValue()))
+                    : new RmCommand(command.getKey()));
+        }
+        write(commands, WalRecord.prepareBatch(commands));
+        metrics.getWriteBatchLatency().record(System.nanoTime() - start);
+    }
+
+    private void write(Command command) {
+        write(Collections.singletonList(command), WalRecord.prepare(command));
+    }
+
+    /**
+     * 超过阈值的值追加到值日志，命令中只保留位置，在编码日志记录之前调用
+     * @param command
+     * @return
+     */
+    private Command separateValue(SetCommand command) {
+        if(config.getValueThreshold() <= 0 || command.getValue().length <= config.getValueThreshold()){
+            return command;
+        }
+        return new ValuePointerCommand(command.getKey(), valueLog.append(command.getKey(), command.getValue()));
+    }
+
+    /**
+     * 写入日志和内存表，内存表达到阈值时切换
+     * 锁外编码日志记录，锁内只分配序列号、按顺序提交日志并写入内存表，锁外等待日志达到持久化级别，使并发写入共享一次刷盘
+     * 读操作不获取写锁；同一条日志记录中的命令总是写入同一个内存表
+     * 写入在日志达到持久化级别之前已对读取和快照可见，崩溃时可能丢失；日志写入失败后拒绝全部读写，不会读到失败的写入
+     * @param commands
+     * @param record 已编码、尚未写入序列号的日志记录
+     */
+    private void write(List<Command> commands, PendingRecord record) {
+        throttle();
+        CompletableFuture<Void> walSynced;
+        try {
+            writeLock.lock();
+            walSynced = append(commands, record);
+        }finally {
+            writeLock.unlock();
+        }
+        awaitWal(walSynced);
+    }
+
+    /**
+     * 等待日志达到持久化级别，日志写入失败时记录原因；等待被中断时写入可能仍会完成，不记录
+     * @param walSynced
+     */
+    private void awaitWal(CompletableFuture<Void> walSynced) {
         try {
-            indexLock.writeLock().lock();
-            RmCommand command = new RmCommand(key);
-            //先写入wal日志
-            byte[] bytes = JSONObject.toJSONBytes(command);
-            wal.writeInt(bytes.length);
-            wal.write(bytes);
-            //写入内存表
-            index.put(key, command);
-            //内存表达到阈值，进行持久化
-            if(index.size() > storeThreshold){
-                switchIndex(index);
-                storeToSsTable();
+            WalWriter.await(walSynced);
+        } catch (RuntimeException e) {
+            if(!(e.getCause() instanceof InterruptedException)){
+                walError = e.getCause();
             }
-        } catch (IOException e) {
+            throw e;
+        }
+    }
+
+    /**
+     * 分配序列号，提交日志并写入内存表，调用方持有写锁
+     * @param commands
+     * @param record
+     * @return 日志达到持久化级别后完成
+     */
+    private CompletableFuture<Void> append(List<Command> commands, PendingRecord record) {
+        if(closed){
+            throw new IllegalStateException("存储已关闭:" + dataDir);
+        }
+        checkWalError();
+        checkBackgroundError();
+        long firstSequence = lastSequence + 1;
+        for (Command command : commands){
+            command.setSeq(++lastSequence);
+        }
+        //先写入wal日志
+        CompletableFuture<Void> walSynced = walWriter.append(record.seal(firstSequence));
+        //写入内存表，仍有快照可见的旧版本保留在版本链上
+        MemTable memTable = state.getMemTable();
+        long newestSnapshot = snapshots.newest();
+        for (Command command : commands){
+            memTable.put(command, newestSnapshot);
+        }
+        //内存表达到阈值，交给后台线程持久化
+        if(isFull(memTable)){
+            switchIndex();
+        }
+        return walSynced;
+    }
+
+    /**
+     * 内存表达到阈值，转化为不可变内存表并提交持久化
+     * 等待持久化的内存表已满时阻塞，直到后台线程完成一次持久化
+     */
+    public void switchIndex(){
+        try {
+            writeLock.lock();
+            awaitImmutableSlot();
+            //等待期间其他线程可能已经完成切换
+            MemTable memTable = state.getMemTable();
+            if(!isFull(memTable)){
+                return;
+            }
+            long id = nextFileId();
+            //切换日志
+            File walTmp = new File(dataDir + WAL_TMP + "_" + id);
+            walWriter.switchFile(walTmp);
+            stateLock.lock();
+            try {
+                StoreState current = state;
+                List<ImmutableMemTable> immutables = new ArrayList<>(current.getImmutables().size() + 1);
+                immutables.add(new ImmutableMemTable(id, memTable.getIndex(), walTmp, memTable.bytes()));
+                immutables.addAll(current.getImmutables());
+                state = new StoreState(new MemTable(), Collections.unmodifiableList(immutables),
+                        current.getTableVersion());
+            } finally {
+                stateLock.unlock();
+            }
+            flushExecutor.execute(this::flushOldestImmutable);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        }finally {
-            indexLock.writeLock().unlock();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        } finally {
+            writeLock.unlock();
         }
     }
 
-    @Override
-    public void close() throws IOException {
-        wal.close();
-        for(SsTable ssTable:ssTables){
-            ssTable.close();
+    /**
+     * 内存表的key个数或估算字节数达到阈值
+     */
+    private boolean isFull(MemTable memTable){
+        return (storeThreshold > 0 && memTable.size() > storeThreshold) || memTable.bytes() >= writeBufferSize;
+    }
+
+    /**
+     * 当前内存表和不可变内存表估算占用的字节数
+     */
+    private static long memoryUsage(StoreState current){
+        long bytes = current.getMemTable().bytes();
+        for (ImmutableMemTable immutable : current.getImmutables()){
+            bytes += immutable.getBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 写入前按内存用量限速，不持有写锁：
+     * 超过减速线时按超出比例延迟，最多maxWriteDelayMicros；达到预算且有内存表等待持久化时阻塞到持久化释放内存
+     * 没有等待持久化的内存表时不阻塞，由本次写入触发切换
+     */
+    private void throttle(){
+        long used = memoryUsage(state);
+        if(used < slowdownBytes){
+            return;
+        }
+        long start = System.nanoTime();
+        if(used >= memoryBudget && !state.getImmutables().isEmpty()){
+            metrics.getWriteStalls().increment();
+            stateLock.lock();
+            try {
+                while (memoryUsage(state) >= memoryBudget && !state.getImmutables().isEmpty()){
+                    checkBackgroundError();
+                    immutableFlushed.await(10, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } finally {
+                stateLock.unlock();
+            }
+        }else if(memoryBudget > slowdownBytes){
+            metrics.getWriteSlowdowns().increment();
+            double ratio = Math.min(1, (double) (used - slowdownBytes) / (memoryBudget - slowdownBytes));
+            LockSupport.parkNanos((long) (ratio * TimeUnit.MICROSECONDS.toNanos(config.getMaxWriteDelayMicros())));
+        }
+        metrics.getWriteDelayNanos().add(System.nanoTime() - start);
+    }
+
+    /**
+     * 等待持久化的内存表已满时阻塞，持有写锁等待，期间其他写入也被阻塞
+     * @throws InterruptedException
+     */
+    private void awaitImmutableSlot() throws InterruptedException {
+        stateLock.lock();
+        try {
+            while (state.getImmutables().size() >= maxImmutableCount){
+                LoggerUtil.info(LOGGER, "[KvStoreImpl][switchIndex]: write stall, immutables: {}",
+                        state.getImmutables().size());
+                immutableFlushed.await();
+                checkBackgroundError();
+            }
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * 后台线程：将最早的不可变内存表持久化为SsTable，并原子地发布
+     */
+    private void flushOldestImmutable(){
+        List<ImmutableMemTable> pending = state.getImmutables();
+        if(pending.isEmpty() || backgroundError != null){
+            return;
+        }
+        ImmutableMemTable immutable = pending.get(pending.size() - 1);
+        try {
+            long start = System.nanoTime();
+            SsTable ssTable = storeToSsTable(immutable);
+            metrics.recordFlush(System.nanoTime() - start, ssTable.getFileSize());
+            //不刷盘的日志模式下，删除日志之前SsTable引用的值也要落盘
+            valueLog.sync();
+            //记录到MANIFEST后才发布和删除日志，崩溃时未记录的SsTable由日志重新生成
+            manifest.apply(new VersionEdit().addTable(ssTable));
+            TableVersion oldVersion;
+            stateLock.lock();
+            try {
+                StoreState current = state;
+                List<ImmutableMemTable> immutables = new ArrayList<>(current.getImmutables());
+                immutables.remove(immutables.size() - 1);
+                oldVersion = current.getTableVersion();
+                state = new StoreState(current.getMemTable(), Collections.unmodifiableList(immutables),
+                        oldVersion.addTable(ssTable));
+                immutableFlushed.signalAll();
+            } finally {
+                stateLock.unlock();
+            }
+            //新版本已持有引用
+            ssTable.release();
+            oldVersion.release();
+            if(!immutable.getWalFile().delete()){
+                LoggerUtil.error(LOGGER, "[KvStoreImpl][flushOldestImmutable]: 删除文件失败 {}",
+                        immutable.getWalFile().getName());
+            }
+            maybeScheduleCompaction();
+        } catch (Throwable e) {
+            LoggerUtil.error(LOGGER, "[KvStoreImpl][flushOldestImmutable]: {}", e);
+            backgroundError = e;
+            stateLock.lock();
+            try {
+                immutableFlushed.signalAll();
+            } finally {
+                stateLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 将不可变内存表中的数据存到SsTable，保留存活快照可见的旧版本
+     * @param immutable
+     * @return
+     */
+    public SsTable storeToSsTable(ImmutableMemTable immutable){
+        VersionRetention retention = new VersionRetention(snapshots.toArray());
+        List<Command> commands = new ArrayList<>(immutable.getIndex().size());
+        for (Command head : immutable.getIndex().values()){
+            commands.addAll(retention.retain(MemTable.versions(head)));
+        }
+        return SsTable.createFromCommands(dataDir + immutable.getId() + TABLE,
+                partSize, commands, true, tableOptions, 0, RateLimiter.Priority.HIGH);
+    }
+
+    /**
+     * 需要合并且没有正在进行的合并时，提交后台合并任务
+     */
+    private void maybeScheduleCompaction(){
+        if(!config.isCompactionEnabled() || config.isReadOnly() || closing){
+            return;
+        }
+        if(!compactor.needsCompaction(state.getTableVersion()) || !compactionScheduled.compareAndSet(false, true)){
+            return;
+        }
+        try {
+            compactionExecutor.execute(this::backgroundCompaction);
+        } catch (RejectedExecutionException e) {
+            compactionScheduled.set(false);
+        }
+    }
+
+    /**
+     * 后台线程：合并直到各层都不再超出限制
+     * 合并过程中不持有锁，只在替换SsTable集合时短暂持有状态锁
+     */
+    private void backgroundCompaction(){
+        try {
+            while (!closing){
+                TableVersion version = acquireVersion();
+                List<SsTable> outputs;
+                Compaction compaction;
+                try {
+                    compaction = compactor.pick(version);
+                    if(compaction == null){
+                        break;
+                    }
+                    //合并开始后创建的快照能看到全部输入的最新版本，不需要额外保留
+                    outputs = compactor.compact(compaction, version, snapshots.toArray(),
+                            () -> dataDir + nextFileId() + TABLE, tableOptions);
+                } finally {
+                    version.release();
+                }
+                logCompaction(compaction, outputs);
+                TableVersion oldVersion;
+                stateLock.lock();
+                try {
+                    //在旧版本的引用释放之前标记，最后一个读取旧版本的操作结束后删除文件
+                    for (SsTable input : compaction.allInputs()){
+                        input.markObsolete();
+                    }
+                    StoreState current = state;
+                    oldVersion = current.getTableVersion();
+                    state = new StoreState(current.getMemTable(), current.getImmutables(),
+                            oldVersion.apply(compaction.allInputs(), outputs));
+                } finally {
+                    stateLock.unlock();
+                }
+                for (SsTable output : outputs){
+                    output.release();
+                }
+                oldVersion.release();
+            }
+        } catch (Throwable e) {
+            LoggerUtil.error(LOGGER, "[KvStoreImpl][backgroundCompaction]: {}", e);
+        } finally {
+            compactionScheduled.set(false);
+        }
+    }
+
+    /**
+     * 将合并的输入和输出作为一条记录写入MANIFEST，失败时删除输出
+     * @param compaction
+     * @param outputs
+     */
+    private void logCompaction(Compaction compaction, List<SsTable> outputs){
+        VersionEdit edit = new VersionEdit();
+        for (SsTable output : outputs){
+            edit.addTable(output);
+        }
+        for (SsTable input : compaction.allInputs()){
+            edit.removeTable(input.getFileId());
+        }
+        try {
+            manifest.apply(edit);
+        } catch (RuntimeException e) {
+            for (SsTable output : outputs){
+                output.markObsolete();
+                output.release();
+            }
+            throw e;
+        }
+    }
+
+    private void scheduleValueLogGc(){
+        if(valueLogGcExecutor != null){
+            valueLogGcExecutor.scheduleWithFixedDelay(this::backgroundValueLogGc, config.getValueLogGcIntervalMs(),
+                    config.getValueLogGcIntervalMs(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 后台线程：每次检查一个最久未检查的值日志文件
+     */
+    private void backgroundValueLogGc(){
+        try {
+            collectValueLog(false);
+        } catch (Throwable e) {
+            LoggerUtil.error(LOGGER, "[KvStoreImpl][backgroundValueLogGc]: {}", e);
+        }
+    }
+
+    /**
+     * 立即检查全部不再追加的值日志文件，回收无效数据比例达到valueLogGcDiscardRatio的文件
+     * 回收：把文件中仍有效的值追加到新的值日志文件并更新位置，早于回收的快照全部释放后删除原文件
+     * @return 本次回收的文件个数
+     */
+    public int runValueLogGc(){
+        checkWritable();
+        return collectValueLog(true);
+    }
+
+    private int collectValueLog(boolean all){
+        valueLogGcLock.lock();
+        try {
+            deleteReclaimedValueFiles();
+            List<Long> candidates = new ArrayList<>();
+            for (Long id : valueLog.sealedFiles()){
+                if(!reclaimedValueFiles.containsKey(id)){
+                    candidates.add(id);
+                }
+            }
+            valueFileCheckTimes.keySet().retainAll(candidates);
+            if(!all && !candidates.isEmpty()){
+                candidates.sort(Comparator.comparingLong(id -> valueFileCheckTimes.getOrDefault(id, 0L)));
+                candidates = candidates.subList(0, 1);
+            }
+            int reclaimed = 0;
+            for (Long id : candidates){
+                if(!all && valueLogGcExecutor.isShutdown()){
+                    break;
+                }
+                valueFileCheckTimes.put(id, System.currentTimeMillis());
+                if(reclaimValueFile(id)){
+                    reclaimed++;
+                }
+            }
+            deleteReclaimedValueFiles();
+            return reclaimed;
+        } finally {
+            valueLogGcLock.unlock();
+        }
+    }
+
+    /**
+     * 检查一个值日志文件：值仍是key的最新版本时有效，无效比例达到阈值时重写全部有效值
+     * 只看最新版本；快照可见的旧版本引用的值在快照释放前不会被删除
+     * @param id
+     * @return 是否已回收
+     */
+    private boolean reclaimValueFile(long id){
+        List<byte[]> liveKeys = new ArrayList<>();
+        List<ValuePointer> livePointers = new ArrayList<>();
+        long[] liveBytes = new long[1];
+        long totalBytes = valueLog.scanKeys(id, (key, pointer) -> {
+            if(pointsTo(lookup(key, Long.MAX_VALUE, false), pointer)){
+                liveKeys.add(key);
+                livePointers.add(pointer);
+                liveBytes[0] += pointer.getSize();
+            }
+        });
+        if(totalBytes < 0){
+            return false;
+        }
+        double discardRatio = totalBytes == 0 ? 1 : 1 - (double) liveBytes[0] / totalBytes;
+        if(discardRatio < config.getValueLogGcDiscardRatio()){
+            return false;
+        }
+        for (int from = 0; from < liveKeys.size(); from += VALUE_GC_BATCH){
+            int to = Math.min(liveKeys.size(), from + VALUE_GC_BATCH);
+            rewriteValues(liveKeys.subList(from, to), livePointers.subList(from, to));
+        }
+        //新位置落盘之后才能删除原文件
+        walWriter.sync();
+        long sequence;
+        writeLock.lock();
+        try {
+            sequence = lastSequence;
+        } finally {
+            writeLock.unlock();
+        }
+        reclaimedValueFiles.put(id, sequence);
+        LoggerUtil.info(LOGGER, "[KvStoreImpl][reclaimValueFile]: {}{} discard {}%, rewrite {} bytes",
+                id, ValueLog.SUFFIX, Math.round(discardRatio * 100), liveBytes[0]);
+        return true;
+    }
+
+    /**
+     * 把一批值追加到值日志的新位置：不持锁读出原值、确认key的最新版本仍指向原位置并追加新值，
+     * 再持有写锁只检查内存表，期间已被覆盖或删除的key不再写入，避免用旧值覆盖新的写入；
+     * 检查之后有SsTable生成时，期间的写入可能已不在内存表中，重新确认
+     * @param keys
+     * @param pointers 原位置
+     */
+    private void rewriteValues(List<byte[]> keys, List<ValuePointer> pointers){
+        List<byte[]> values = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++){
+            byte[] value = valueLog.read(pointers.get(i));
+            if(value == null){
+                LoggerUtil.error(LOGGER, "[KvStoreImpl][rewriteValues]: value missing at {}", pointers.get(i));
+            }
+            values.add(value);
+        }
+        ValuePointerCommand[] rewrites = new ValuePointerCommand[keys.size()];
+        CompletableFuture<Void> walSynced = null;
+        long rewriteBytes = 0;
+        while (true) {
+            StoreState checked = state;
+            boolean[] live = new boolean[keys.size()];
+            for (int i = 0; i < keys.size(); i++){
+                live[i] = values.get(i) != null && pointsTo(lookup(keys.get(i), Long.MAX_VALUE, false), pointers.get(i));
+                if(live[i] && rewrites[i] == null){
+                    rewrites[i] = new ValuePointerCommand(keys.get(i), valueLog.append(keys.get(i), values.get(i)));
+                }
+            }
+            writeLock.lock();
+            try {
+                StoreState current = state;
+                if(current.getTableVersion() != checked.getTableVersion()){
+                    continue;
+                }
+                List<Command> batch = new ArrayList<>(keys.size());
+                for (int i = 0; i < keys.size(); i++){
+                    if(!live[i]){
+                        continue;
+                    }
+                    //检查时内存表中没有的key，此后的写入都在内存表中
+                    Command newest = newestInMemory(current, keys.get(i));
+                    if(newest == null || pointsTo(newest, pointers.get(i))){
+                        batch.add(rewrites[i]);
+                        rewriteBytes += pointers.get(i).getSize();
+                    }
+                }
+                if(!batch.isEmpty()){
+                    walSynced = append(batch, WalRecord.prepareBatch(batch));
+                }
+                break;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        if(walSynced != null){
+            awaitWal(walSynced);
+        }
+        metrics.getValueLogGcRewriteBytes().add(rewriteBytes);
+    }
+
+    /**
+     * 内存表和不可变内存表中key的最新版本
+     * @param current
+     * @param key
+     * @return 不在内存中返回null
+     */
+    private static Command newestInMemory(StoreState current, byte[] key){
+        Command command = current.getMemTable().get(key);
+        for (int i = 0; command == null && i < current.getImmutables().size(); i++){
+            command = current.getImmutables().get(i).getIndex().get(key);
+        }
+        return command;
+    }
+
+    private static boolean pointsTo(Command command, ValuePointer pointer){
+        return command instanceof ValuePointerCommand && ((ValuePointerCommand) command).getPointer().equals(pointer);
+    }
+
+    /**
+     * 删除已回收、且不再有早于回收的快照的值日志文件
+     */
+    private void deleteReclaimedValueFiles(){
+        long[] live = snapshots.toArray();
+        long oldest = live.length == 0 ? Long.MAX_VALUE : live[0];
+        Iterator<Map.Entry<Long, Long>> iterator = reclaimedValueFiles.entrySet().iterator();
+        while (iterator.hasNext()){
+            Map.Entry<Long, Long> entry = iterator.next();
+            if(oldest >= entry.getValue()){
+                valueLog.delete(entry.getKey());
+                iterator.remove();
+                metrics.getValueLogGcDeletedFiles().increment();
+            }
+        }
+    }
+
+    /**
+     * 在targetDir中生成检查点，可以作为独立的存储打开，或设置readOnly只读打开
+     * SsTable、待持久化的日志和不再追加的值日志文件都不再修改，创建硬链接；只复制当前日志和正在追加的值日志文件，
+     * 耗时与数据量无关，只在复制当前日志期间阻塞写入。不在同一文件系统上时退化为复制
+     * 检查点包含调用前已返回的全部写入，MANIFEST只记录检查点中的SsTable
+     * @param targetDir 不能已存在
+     */
+    public void checkpoint(String targetDir){
+        checkWritable();
+        File target = new File(targetDir);
+        if(target.exists()){
+            throw new IllegalArgumentException("检查点目录已存在:" + targetDir);
+        }
+        if(!target.mkdirs()){
+            throw new RuntimeException("创建目录失败:" + targetDir);
+        }
+        long start = System.nanoTime();
+        TableVersion version = null;
+        //检查点引用的值日志文件在链接前不能被回收删除
+        valueLogGcLock.lock();
+        try {
+            writeLock.lock();
+            try {
+                //已提交的日志全部写入文件
+                walWriter.sync();
+                stateLock.lock();
+                try {
+                    //持有状态锁时持久化结果不能发布，待持久化的日志不会被删除
+                    version = acquireVersion();
+                    for (ImmutableMemTable immutable : state.getImmutables()){
+                        File walTmp = immutable.getWalFile();
+                        FileUtils.linkOrCopy(walTmp, new File(target, walTmp.getName()));
+                    }
+                } finally {
+                    stateLock.unlock();
+                }
+                FileUtils.copy(walFile, new File(target, WAL), walFile.length());
+            } finally {
+                writeLock.unlock();
+            }
+            //日志中的值位置都指向已追加的值
+            valueLog.checkpoint(target);
+            VersionEdit snapshot = new VersionEdit();
+            for (SsTable ssTable : version.allTables()){
+                File file = new File(ssTable.getFilePath());
+                FileUtils.linkOrCopy(file, new File(target, file.getName()));
+                snapshot.addTable(ssTable);
+            }
+            Manifest.create(target.getPath() + File.separator, snapshot.getAddedTables()).close();
+            LoggerUtil.info(LOGGER, "[KvStoreImpl][checkpoint]: {} tables to {}, {}ms",
+                    snapshot.getAddedTables().size(), targetDir,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if(version != null){
+                version.release();
+            }
+            valueLogGcLock.unlock();
+        }
+    }
+
+    /**
+     * 当前各层的SsTable，只用于查看，不持有引用
+     * @return
+     */
+    public TableVersion getTableVersion(){
+        return state.getTableVersion();
+    }
+
+    /**
+     * 获取当前版本并增加引用，用完需要release
+     * 获取期间版本可能被替换并释放，此时重新获取
+     * @return
+     */
+    private TableVersion acquireVersion(){
+        while (true){
+            TableVersion version = state.getTableVersion();
+            if(version.tryRetain()){
+                return version;
+            }
+        }
+    }
+
+    /**
+     * 生成单调递增的文件编号，兼容以时间戳命名的旧文件
+     * @return
+     */
+    private long nextFileId(){
+        return fileId.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+    }
+
+    /**
+     * 统计快照
+     * @return
+     */
+    @Override
+    public StoreStats getStats() {
+        StoreState current = state;
+        TableReadStats readStats = tableOptions.getReadStats();
+        BlockCache blockCache = tableOptions.getBlockCache();
+        RateLimiter rateLimiter = tableOptions.getRateLimiter();
+        int[] levelTableCounts = new int[current.getTableVersion().levelCount()];
+        for (int level = 0; level < levelTableCounts.length; level++) {
+            levelTableCounts[level] = current.getTableVersion().getLevel(level).size();
+        }
+        return new StoreStats()
+                .setGetLatency(metrics.getGetLatency().snapshot())
+                .setSetLatency(metrics.getSetLatency().snapshot())
+                .setRmLatency(metrics.getRmLatency().snapshot())
+                .setWriteBatchLatency(metrics.getWriteBatchLatency().snapshot())
+                .setMemTableHits(metrics.getMemTableHits().sum())
+                .setImmutableHits(metrics.getImmutableHits().sum())
+                .setSsTableHits(readStats.getLevelHits())
+                .setMisses(readStats.getMisses())
+                .setTablesProbed(readStats.getTablesProbed().snapshot())
+                .setBlocksRead(readStats.getBlocksRead())
+                .setBlockBytesRead(readStats.getBlockBytesRead())
+                .setBlockBytesDecompressed(readStats.getBlockBytesDecompressed())
+                .setBlockCacheHits(blockCache == null ? 0 : blockCache.getHitCount())
+                .setBlockCacheMisses(blockCache == null ? 0 : blockCache.getMissCount())
+                .setBloomFilterUseful(getBloomFilterUsefulCount())
+                .setBloomFilterFalsePositives(getBloomFilterFalsePositiveCount())
+                .setFlushCount(metrics.getFlushCount().sum())
+                .setFlushBytes(metrics.getFlushBytes().sum())
+                .setFlushDuration(metrics.getFlushDuration().snapshot())
+                .setWalBytes(walWriter == null ? 0 : walWriter.getBytesWritten())
+                .setWalSyncs(walWriter == null ? 0 : walWriter.getSyncCount())
+                .setMemTableSize(current.getMemTable().size())
+                .setMemTableBytes(current.getMemTable().bytes())
+                .setImmutableBytes(memoryUsage(current) - current.getMemTable().bytes())
+                .setWriteSlowdowns(metrics.getWriteSlowdowns().sum())
+                .setWriteStalls(metrics.getWriteStalls().sum())
+                .setWriteDelayNanos(metrics.getWriteDelayNanos().sum())
+                .setIoRateLimit(rateLimiter == null ? 0 : rateLimiter.getBytesPerSecond())
+                .setFlushIoThrottledNanos(rateLimiter == null ? 0
+                        : rateLimiter.getThrottledNanos(RateLimiter.Priority.HIGH))
+                .setCompactionIoThrottledNanos(rateLimiter == null ? 0
+                        : rateLimiter.getThrottledNanos(RateLimiter.Priority.LOW))
+                .setImmutableCount(current.getImmutables().size())
+                .setValueLogFiles(valueLog.fileCount())
+                .setValueLogBytes(valueLog.totalSize())
+                .setValueLogBytesWritten(valueLog.getBytesWritten())
+                .setValueLogGcRewriteBytes(metrics.getValueLogGcRewriteBytes().sum())
+                .setValueLogGcDeletedFiles(metrics.getValueLogGcDeletedFiles().sum())
+                .setLevelTableCounts(levelTableCounts);
+    }
+
+    /**
+     * 开启时注册JMX MBean，同名的MBean已存在时（同一目录被重复打开）只记录日志
+     */
+    private void registerMBean() {
+        if (!config.isJmxEnabled()) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName("kvstore:type=KvStore,name="
+                    + ObjectName.quote(new File(dataDir).getAbsolutePath()));
+            KvStoreMXBean bean = this::getStats;
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(bean, KvStoreMXBean.class, true), name);
+            mbeanName = name;
+        } catch (JMException e) {
+            LoggerUtil.error(LOGGER, "[KvStoreImpl][registerMBean]: {}", e);
+        }
+    }
+
+    private void unregisterMBean() {
+        if (mbeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        } catch (JMException e) {
+            LoggerUtil.error(LOGGER, "[KvStoreImpl][unregisterMBean]: {}", e);
+        }
+        mbeanName = null;
+    }
+
+    /**
+     * 布隆过滤器跳过读文件的次数
+     * @return
+     */
+    public long getBloomFilterUsefulCount(){
+        return tableOptions.getFilterPolicy().getUsefulCount();
+    }
+
+    /**
+     * 布隆过滤器误判的次数
+     * @return
+     */
+    public long getBloomFilterFalsePositiveCount(){
+        return tableOptions.getFilterPolicy().getFalsePositiveCount();
+    }
+
+    /**
+     * data block缓存，未开启时返回null，可用于查看命中、未命中和淘汰次数
+     * @return
+     */
+    public BlockCache getBlockCache(){
+        return tableOptions.getBlockCache();
+    }
+
+    private void checkWritable(){
+        if(config.isReadOnly()){
+            throw new IllegalStateException("只读打开，不能写入:" + dataDir);
+        }
+    }
+
+    private void checkWalError(){
+        if(walError != null){
+            throw new RuntimeException("wal写入失败", walError);
+        }
+    }
+
+    private void checkBackgroundError(){
+        if(backgroundError != null){
+            throw new RuntimeException("后台持久化失败", backgroundError);
+        }
+    }
+
+    /**
+     * 查询数据
+     * @param key
+     * @return
+     */
+    @Override
+    public byte[] get(byte[] key) {
+        return get(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * 创建读快照，短暂获取写锁，保证序列号不大于快照的写入都已进入内存表
+     * @return
+     */
+    @Override
+    public Snapshot getSnapshot() {
+        checkWalError();
+        writeLock.lock();
+        try {
+            return snapshots.create(lastSequence);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 查询快照创建时的数据，各处只取序列号不大于快照的最新版本
+     * @param key
+     * @param snapshot
+     * @return
+     */
+    @Override
+    public byte[] get(byte[] key, Snapshot snapshot) {
+        return get(key, snapshot.getSequence());
+    }
+
+    /**
+     * 依次查询内存表、不可变内存表和各层SsTable，各处只取序列号不大于sequence的最新版本
+     * @param key
+     * @param sequence 不使用快照时为Long.MAX_VALUE
+     * @return
+     */
+    private byte[] get(byte[] key, long sequence) {
+        checkWalError();
+        long start = System.nanoTime();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                Command command = lookup(key, sequence, true);
+                //删除标记或不存在时返回null
+                if (!(command instanceof SetCommand)) {
+                    return null;
+                }
+                byte[] value = readValue((SetCommand) command);
+                if (value != null) {
+                    return value;
+                }
+                //值所在的值日志文件已被回收，回收前已写入新的位置，重新查找
+                if (attempt >= MAX_VALUE_READ_RETRIES) {
+                    throw new IllegalStateException("值日志文件缺失:" + ((ValuePointerCommand) command).getPointer());
+                }
+            }
+        }catch (Throwable e){
+            throw new RuntimeException(e);
+        } finally {
+            metrics.getGetLatency().record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 查找key的、序列号不大于sequence的最新命令
+     * @param key
+     * @param sequence
+     * @param recordStats 是否记录命中统计，后台回收的查找不记录
+     * @return 不存在返回null
+     */
+    private Command lookup(byte[] key, long sequence, boolean recordStats) {
+        StoreState current = state;
+        Command command = current.getMemTable().get(key, sequence);
+        if (command != null && recordStats) {
+            metrics.getMemTableHits().increment();
+        }
+        for (int i = 0; command == null && i < current.getImmutables().size(); i++) {
+            command = MemTable.visible(current.getImmutables().get(i).getIndex().get(key), sequence);
+            if (command != null && recordStats) {
+                metrics.getImmutableHits().increment();
+            }
+        }
+        if (command == null) {
+            //期间持久化完成的数据在更新的版本中，不会遗漏
+            TableVersion version = acquireVersion();
+            try {
+                command = version.query(key, sequence, recordStats ? tableOptions.getReadStats() : null);
+            } finally {
+                version.release();
+            }
+        }
+        return command;
+    }
+
+    /**
+     * 读取新增命令的值，值在值日志中时到值日志读取
+     * @param command
+     * @return 值所在的值日志文件已被回收时返回null
+     */
+    private byte[] readValue(SetCommand command) {
+        return command instanceof ValuePointerCommand
+                ? valueLog.read(((ValuePointerCommand) command).getPointer()) : command.getValue();
+    }
+
+    /**
+     * 批量查询：key排序去重后先在内存表中查找，剩余的key按SsTable分组，同一个data block只读取和解码一次
+     * @param keys
+     * @return 与keys一一对应，不存在的为null
+     */
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys) {
+        checkWalError();
+        TreeMap<byte[], Command> found = new TreeMap<>(BytesUtils.COMPARATOR);
+        List<byte[]> remaining = new ArrayList<>();
+        TreeSet<byte[]> sortedKeys = new TreeSet<>(BytesUtils.COMPARATOR);
+        sortedKeys.addAll(keys);
+        StoreState current = state;
+        for (byte[] key : sortedKeys) {
+            Command command = current.getMemTable().get(key);
+            for (int i = 0; command == null && i < current.getImmutables().size(); i++) {
+                command = current.getImmutables().get(i).getIndex().get(key);
+            }
+            if (command != null) {
+                found.put(key, command);
+            } else {
+                remaining.add(key);
+            }
+        }
+        if (!remaining.isEmpty()) {
+            TableVersion version = acquireVersion();
+            try {
+                Command[] commands = version.multiQuery(remaining, readExecutor);
+                for (int i = 0; i < commands.length; i++) {
+                    if (commands[i] != null) {
+                        found.put(remaining.get(i), commands[i]);
+                    }
+                }
+            } finally {
+                version.release();
+            }
+        }
+        List<byte[]> values = new ArrayList<>(keys.size());
+        for (byte[] key : keys) {
+            Command command = found.get(key);
+            byte[] value = command instanceof SetCommand ? readValue((SetCommand) command) : null;
+            //值日志文件已被回收时单独重新查找
+            values.add(value == null && command instanceof SetCommand ? get(key) : value);
+        }
+        return values;
+    }
+
+    /**
+     * 范围遍历
+     * @param startKey 为null时从头开始
+     * @param endKey   为null时直到末尾，不包含
+     * @return
+     */
+    @Override
+    public BytesIterator scan(byte[] startKey, byte[] endKey) {
+        return scan(startKey, endKey, null);
+    }
+
+    /**
+     * 前缀遍历
+     * @param prefix
+     * @return
+     */
+    @Override
+    public BytesIterator prefixScan(byte[] prefix) {
+        return scan(prefix, null, prefix);
+    }
+
+    /**
+     * 在隐式快照上遍历，看不到遍历开始后的写入，也不阻塞写入
+     */
+    private BytesIterator scan(byte[] startKey, byte[] endKey, byte[] prefix) {
+        Snapshot snapshot = getSnapshot();
+        long sequence = snapshot.getSequence();
+        StoreState current = state;
+        List<Iterator<Command>> sources = new ArrayList<>();
+        sources.add(MemTable.visibleIterator(
+                range(current.getMemTable().getIndex(), startKey, endKey).values().iterator(), sequence));
+        for (ImmutableMemTable immutable : current.getImmutables()) {
+            sources.add(MemTable.visibleIterator(
+                    range(immutable.getIndex(), startKey, endKey).values().iterator(), sequence));
+        }
+        //遍历期间合并可能替换SsTable，持有版本的引用直到遍历结束
+        TableVersion version = acquireVersion();
+        sources.addAll(version.iterators(startKey, endKey));
+        //遍历持有快照，早于快照的回收不会删除值日志文件
+        return new StoreIterator(sources, endKey, prefix, sequence, command -> {
+            byte[] value = readValue(command);
+            if (value == null) {
+                throw new IllegalStateException("值日志文件缺失:" + ((ValuePointerCommand) command).getPointer());
+            }
+            return value;
+        }, () -> {
+            version.release();
+            snapshot.release();
+        });
+    }
+
+    private static SortedMap<byte[], Command> range(NavigableMap<byte[], Command> index, byte[] startKey, byte[] endKey) {
+        if (startKey == null) {
+            return endKey == null ? index : index.headMap(endKey);
+        }
+        return endKey == null ? index.tailMap(startKey) : index.subMap(startKey, endKey);
+    }
+
+    /**
+     * 删除数据
+     * @param key
+     */
+    @Override
+    public void rm(byte[] key) {
+        checkWritable();
+        long start = System.nanoTime();
+        write(new RmCommand(key));
+        metrics.getRmLatency().record(System.nanoTime() - start);
+    }
+
+    /**
+     * 关闭前等待已提交的持久化任务和正在进行的合并完成
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        unregisterMBean();
+        if(valueLogGcExecutor != null){
+            //不中断正在进行的回收，中断会关闭其正在读写的文件通道
+            valueLogGcExecutor.shutdown();
+            awaitTermination(valueLogGcExecutor, "等待值日志回收超时");
+        }
+        flushExecutor.shutdown();
+        awaitTermination(flushExecutor, "等待持久化超时");
+        closing = true;
+        compactionExecutor.shutdown();
+        awaitTermination(compactionExecutor, "等待合并超时");
+        if(readExecutor != null && sharedResources == null){
+            readExecutor.shutdown();
+        }
+        if(walWriter != null){
+            //拒绝之后的写入，已提交的日志记录关闭前全部写入
+            writeLock.lock();
+            try {
+                closed = true;
+                walWriter.close();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        valueLog.close();
+        if(manifest != null){
+            manifest.close();
+        }
+        //仍在进行的遍历结束后才真正关闭
+        state.getTableVersion().release();
+    }
+
+    private static void awaitTermination(ExecutorService executor, String timeoutMessage){
+        try {
+            if(!executor.awaitTermination(1, TimeUnit.MINUTES)){
+                LoggerUtil.error(LOGGER, "[KvStoreImpl][close]: {}", timeoutMessage);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 }
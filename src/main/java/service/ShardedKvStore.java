@@ -0,0 +1,363 @@
+package service;
+
+import model.command.Command;
+import model.command.SetCommand;
+import model.iterator.BytesIterator;
+import model.iterator.MergedBytesIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import service.metrics.StoreStats;
+import utils.FileUtils;
+import utils.LoggerUtil;
+import utils.NamedThreadFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 按key的哈希分片的KV存储，每个分片是独立的{@link KvStoreImpl}，有自己的内存表、日志和SsTable，
+ * 位于数据目录下的shard-i子目录，不同分片的写入互不阻塞
+ * 各分片共享block缓存、统计和后台线程池；分片数在创建时确定并记录在SHARDS文件中，之后不能修改
+ * 批量写入按分片拆分，只在同一个分片内是原子的
+ */
+public class ShardedKvStore implements KvStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardedKvStore.class);
+
+    public static final String SHARDS = "SHARDS";
+
+    public static final String SHARDS_TMP = "SHARDS_tmp";
+
+    public static final String SHARD_DIR = "shard-";
+
+    private final KvStoreImpl[] shards;
+
+    private final StoreResources resources;
+
+    /**
+     * 跨分片multiGet和启动时并行打开分片的线程池
+     */
+    private final ExecutorService fanOutExecutor;
+
+    /**
+     * 打开已有的多分片存储，分片数从SHARDS文件读取
+     * @param dataDir
+     * @param config
+     */
+    public ShardedKvStore(String dataDir, KvStoreConfig config) {
+        this(dataDir, 0, config);
+    }
+
+    /**
+     * 创建或打开多分片存储
+     * @param dataDir
+     * @param shardCount 分片数，为0时使用已记录的分片数；与已记录的分片数不同时抛出异常
+     * @param config 每个分片使用的配置，block缓存容量和线程数为全部分片合计
+     */
+    public ShardedKvStore(String dataDir, int shardCount, KvStoreConfig config) {
+        File dir = new File(dataDir);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("创建目录失败:" + dataDir);
+        }
+        int count = resolveShardCount(dir, shardCount);
+        this.resources = new StoreResources(config);
+        this.fanOutExecutor = Executors.newFixedThreadPool(count, new NamedThreadFactory("kv-shard"));
+        this.shards = new KvStoreImpl[count];
+        List<CompletableFuture<Void>> opening = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            String shardDir = new File(dir, SHARD_DIR + i).getPath() + File.separator;
+            opening.add(CompletableFuture.runAsync(
+                    () -> shards[index] = new KvStoreImpl(shardDir, config, resources), fanOutExecutor));
+        }
+        try {
+            CompletableFuture.allOf(opening.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            closeQuietly();
+            throw new RuntimeException("打开分片失败", e.getCause());
+        }
+        LoggerUtil.info(LOGGER, "[ShardedKvStore][init]: {} shards in {}", count, dataDir);
+    }
+
+    /**
+     * 读取已记录的分片数，新目录记录给定的分片数
+     */
+    private static int resolveShardCount(File dir, int shardCount) {
+        File file = new File(dir, SHARDS);
+        try {
+            if (file.exists()) {
+                int recorded = Integer.parseInt(new String(Files.readAllBytes(file.toPath()),
+                        StandardCharsets.UTF_8).trim());
+                if (shardCount > 0 && shardCount != recorded) {
+                    throw new IllegalArgumentException("分片数在创建时已确定为" + recorded + "，不能修改为" + shardCount);
+                }
+                return recorded;
+            }
+            if (shardCount <= 0) {
+                throw new IllegalArgumentException("新建多分片存储需要指定分片数:" + dir.getPath());
+            }
+            File tmp = new File(dir, SHARDS_TMP);
+            try (FileOutputStream tmpOut = new FileOutputStream(tmp)) {
+                tmpOut.write(String.valueOf(shardCount).getBytes(StandardCharsets.UTF_8));
+                tmpOut.getChannel().force(true);
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            FileUtils.syncDir(dir);
+            return shardCount;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * key所在的分片，使用FNV-1a哈希，结果与JVM和运行次数无关
+     * @param key
+     * @param shardCount
+     * @return
+     */
+    public static int shardOf(byte[] key, int shardCount) {
+        int hash = 0x811C9DC5;
+        for (byte b : key) {
+            hash ^= b & 0xFF;
+            hash *= 0x01000193;
+        }
+        return (hash & Integer.MAX_VALUE) % shardCount;
+    }
+
+    private KvStoreImpl shard(byte[] key) {
+        return shards[shardOf(key, shards.length)];
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        shard(key).put(key, value);
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        return shard(key).get(key);
+    }
+
+    @Override
+    public void rm(byte[] key) {
+        shard(key).rm(key);
+    }
+
+    /**
+     * 依次创建各分片的快照
+     * @return
+     */
+    @Override
+    public Snapshot getSnapshot() {
+        List<Snapshot> snapshots = new ArrayList<>(shards.length);
+        for (KvStoreImpl shard : shards) {
+            snapshots.add(shard.getSnapshot());
+        }
+        return new ShardedSnapshot(snapshots);
+    }
+
+    @Override
+    public byte[] get(byte[] key, Snapshot snapshot) {
+        if (!(snapshot instanceof ShardedSnapshot)) {
+            throw new IllegalArgumentException("snapshot不是由多分片存储创建的");
+        }
+        int index = shardOf(key, shards.length);
+        return shards[index].get(key, ((ShardedSnapshot) snapshot).shard(index));
+    }
+
+    /**
+     * 按分片分组，多个分片时除最后一组外在线程池中并行查询
+     * @param keys
+     * @return 与keys一一对应，不存在的为null
+     */
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys) {
+        List<List<Integer>> positions = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            positions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            positions.get(shardOf(keys.get(i), shards.length)).add(i);
+        }
+        byte[][] results = new byte[keys.size()][];
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        Runnable inline = null;
+        for (int i = 0; i < shards.length; i++) {
+            List<Integer> shardPositions = positions.get(i);
+            if (shardPositions.isEmpty()) {
+                continue;
+            }
+            KvStoreImpl shard = shards[i];
+            Runnable task = () -> {
+                List<byte[]> shardKeys = new ArrayList<>(shardPositions.size());
+                for (int position : shardPositions) {
+                    shardKeys.add(keys.get(position));
+                }
+                List<byte[]> values = shard.multiGet(shardKeys);
+                for (int j = 0; j < shardPositions.size(); j++) {
+                    results[shardPositions.get(j)] = values.get(j);
+                }
+            };
+            if (inline != null) {
+                futures.add(CompletableFuture.runAsync(inline, fanOutExecutor));
+            }
+            inline = task;
+        }
+        if (inline != null) {
+            inline.run();
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 按分片拆分为多个批量写入，每个分片内原子，跨分片不保证原子
+     * @param batch
+     */
+    @Override
+    public void write(WriteBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        WriteBatch[] shardBatches = new WriteBatch[shards.length];
+        for (Command command : batch.getCommands()) {
+            int index = shardOf(command.getKey(), shards.length);
+            if (shardBatches[index] == null) {
+                shardBatches[index] = new WriteBatch();
+            }
+            if (command instanceof SetCommand) {
+                shardBatches[index].put(command.getKey(), ((SetCommand) command).getValue());
+            } else {
+                shardBatches[index].rm(command.getKey());
+            }
+        }
+        for (int i = 0; i < shards.length; i++) {
+            if (shardBatches[i] != null) {
+                shards[i].write(shardBatches[i]);
+            }
+        }
+    }
+
+    /**
+     * 归并各分片的遍历结果
+     * @param startKey
+     * @param endKey
+     * @return
+     */
+    @Override
+    public BytesIterator scan(byte[] startKey, byte[] endKey) {
+        List<BytesIterator> iterators = new ArrayList<>(shards.length);
+        for (KvStoreImpl shard : shards) {
+            iterators.add(shard.scan(startKey, endKey));
+        }
+        return new MergedBytesIterator(iterators);
+    }
+
+    @Override
+    public BytesIterator prefixScan(byte[] prefix) {
+        List<BytesIterator> iterators = new ArrayList<>(shards.length);
+        for (KvStoreImpl shard : shards) {
+            iterators.add(shard.prefixScan(prefix));
+        }
+        return new MergedBytesIterator(iterators);
+    }
+
+    /**
+     * 在targetDir中生成检查点，各分片依次生成到shard-i子目录，可以作为多分片存储打开
+     * 每个分片各自一致，不同分片不是同一时刻的数据
+     * @param targetDir 不能已存在
+     */
+    public void checkpoint(String targetDir) {
+        File dir = new File(targetDir);
+        if (dir.exists()) {
+            throw new IllegalArgumentException("检查点目录已存在:" + targetDir);
+        }
+        if (!dir.mkdirs()) {
+            throw new RuntimeException("创建目录失败:" + targetDir);
+        }
+        resolveShardCount(dir, shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].checkpoint(new File(dir, SHARD_DIR + i).getPath());
+        }
+    }
+
+    /**
+     * 延迟、命中、缓存和持久化等共享的统计取自任一分片，内存表、日志、值日志和各层SsTable个数为全部分片合计
+     * @return
+     */
+    @Override
+    public StoreStats getStats() {
+        StoreStats total = shards[0].getStats();
+        for (int i = 1; i < shards.length; i++) {
+            StoreStats stats = shards[i].getStats();
+            total.setWalBytes(total.getWalBytes() + stats.getWalBytes())
+                    .setWalSyncs(total.getWalSyncs() + stats.getWalSyncs())
+                    .setMemTableSize(total.getMemTableSize() + stats.getMemTableSize())
+                    .setMemTableBytes(total.getMemTableBytes() + stats.getMemTableBytes())
+                    .setImmutableBytes(total.getImmutableBytes() + stats.getImmutableBytes())
+                    .setImmutableCount(total.getImmutableCount() + stats.getImmutableCount())
+                    .setValueLogFiles(total.getValueLogFiles() + stats.getValueLogFiles())
+                    .setValueLogBytes(total.getValueLogBytes() + stats.getValueLogBytes())
+                    .setValueLogBytesWritten(total.getValueLogBytesWritten() + stats.getValueLogBytesWritten());
+            int[] levelTableCounts = total.getLevelTableCounts();
+            for (int level = 0; level < levelTableCounts.length; level++) {
+                levelTableCounts[level] += stats.getLevelTableCounts()[level];
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (KvStoreImpl shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                error = error == null ? e : error;
+            }
+        }
+        fanOutExecutor.shutdown();
+        resources.close();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 打开失败时关闭已打开的分片
+     */
+    private void closeQuietly() {
+        for (KvStoreImpl shard : shards) {
+            if (shard == null) {
+                continue;
+            }
+            try {
+                shard.close();
+            } catch (IOException | RuntimeException e) {
+                LoggerUtil.error(LOGGER, "[ShardedKvStore][closeQuietly]: {}", e);
+            }
+        }
+        fanOutExecutor.shutdown();
+        resources.close();
+    }
+}
@@ -0,0 +1,27 @@
+package service;
+
+import java.util.List;
+
+/**
+ * 多分片存储的读快照，由各分片的快照组成
+ * 各分片的快照依次创建，同一个分片内的读取是一致的，跨分片不是同一时间点
+ */
+class ShardedSnapshot extends Snapshot {
+    private final List<Snapshot> shards;
+
+    ShardedSnapshot(List<Snapshot> shards) {
+        super(0, null);
+        this.shards = shards;
+    }
+
+    Snapshot shard(int index) {
+        return shards.get(index);
+    }
+
+    @Override
+    public void release() {
+        for (Snapshot shard : shards) {
+            shard.release();
+        }
+    }
+}
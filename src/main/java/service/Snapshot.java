@@ -0,0 +1,41 @@
+package service;
+
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 读快照：只能看到创建时已提交的写入
+ * 持有期间持久化和合并会保留它可见的版本，用完需要释放
+ */
+public class Snapshot implements Closeable {
+    /**
+     * 创建时最后一次写入的序列号
+     */
+    @Getter
+    private final long sequence;
+
+    private final SnapshotList owner;
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    Snapshot(long sequence, SnapshotList owner) {
+        this.sequence = sequence;
+        this.owner = owner;
+    }
+
+    /**
+     * 释放快照，重复调用无效
+     */
+    public void release() {
+        if (released.compareAndSet(false, true)) {
+            owner.remove(sequence);
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+}
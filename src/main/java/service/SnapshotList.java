@@ -0,0 +1,55 @@
+package service;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 存活的快照，同一个序列号可以有多个快照
+ */
+class SnapshotList {
+    /**
+     * 序列号到快照个数
+     */
+    private final TreeMap<Long, Integer> counts = new TreeMap<>();
+
+    /**
+     * 最新快照的序列号，没有快照时为-1，写入时不加锁读取
+     */
+    private volatile long newest = -1;
+
+    synchronized Snapshot create(long sequence) {
+        counts.merge(sequence, 1, Integer::sum);
+        newest = counts.lastKey();
+        return new Snapshot(sequence, this);
+    }
+
+    synchronized void remove(long sequence) {
+        Integer count = counts.get(sequence);
+        if (count == null) {
+            return;
+        }
+        if (count == 1) {
+            counts.remove(sequence);
+        } else {
+            counts.put(sequence, count - 1);
+        }
+        newest = counts.isEmpty() ? -1 : counts.lastKey();
+    }
+
+    long newest() {
+        return newest;
+    }
+
+    /**
+     * 存活快照的序列号，递增且不重复
+     * @return
+     */
+    synchronized long[] toArray() {
+        long[] sequences = new long[counts.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> entry : counts.entrySet()) {
+            sequences[i++] = entry.getKey();
+        }
+        return sequences;
+    }
+}
@@ -0,0 +1,96 @@
+package service;
+
+import lombok.Getter;
+import model.ssTable.BlockCache;
+import model.ssTable.BloomFilterPolicy;
+import model.ssTable.SsTableOptions;
+import model.ssTable.TableReadStats;
+import service.metrics.StoreMetrics;
+import utils.NamedThreadFactory;
+import utils.RateLimiter;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个存储实例共享的资源：布隆过滤器策略、block缓存、读取统计、读写统计和后台线程池
+ * 各实例在共享线程池上串行执行自己的持久化和合并任务，关闭实例不会关闭共享资源
+ */
+@Getter
+public class StoreResources implements Closeable {
+    /**
+     * SsTable共享的组件，block缓存容量为全部实例合计
+     */
+    private final SsTableOptions tableOptions;
+
+    /**
+     * 读写路径上的统计，全部实例合计
+     */
+    private final StoreMetrics metrics;
+
+    /**
+     * 持久化线程池
+     */
+    private final ExecutorService flushPool;
+
+    /**
+     * 合并线程池
+     */
+    private final ExecutorService compactionPool;
+
+    /**
+     * multiGet并行查询SsTable的线程池，未开启时为null
+     */
+    private final ExecutorService readPool;
+
+    public StoreResources(KvStoreConfig config) {
+        this.tableOptions = newTableOptions(config);
+        this.metrics = new StoreMetrics();
+        this.flushPool = Executors.newFixedThreadPool(Math.max(1, config.getFlushThreads()),
+                new NamedThreadFactory("kv-flush"));
+        this.compactionPool = Executors.newFixedThreadPool(Math.max(1, config.getCompactionThreads()),
+                new NamedThreadFactory("kv-compaction"));
+        this.readPool = config.getMultiGetParallelism() > 0
+                ? Executors.newFixedThreadPool(config.getMultiGetParallelism(), new NamedThreadFactory("kv-read"))
+                : null;
+    }
+
+    /**
+     * 按配置创建SsTable共享的组件
+     * @param config
+     * @return
+     */
+    public static SsTableOptions newTableOptions(KvStoreConfig config) {
+        return new SsTableOptions()
+                .setFilterPolicy(new BloomFilterPolicy(config.getBloomBitsPerKey()))
+                .setBlockCache(config.getBlockCacheCapacity() > 0
+                        ? new BlockCache(config.getBlockCacheCapacity()) : null)
+                .setMmap(config.isMmapTableFiles())
+                .setReadStats(new TableReadStats(config.getMaxLevels()))
+                .setLevelCodecs(config.levelCodecs())
+                .setMinCompressionSavings(config.getMinCompressionSavings())
+                .setRateLimiter(config.getIoRateLimitBytesPerSec() > 0
+                        ? new RateLimiter(config.getIoRateLimitBytesPerSec(), config.isIoRateLimitAutoTune())
+                        : null);
+    }
+
+    /**
+     * 关闭线程池，在使用它的实例全部关闭之后调用
+     */
+    @Override
+    public void close() {
+        flushPool.shutdown();
+        compactionPool.shutdown();
+        if (readPool != null) {
+            readPool.shutdown();
+        }
+        try {
+            flushPool.awaitTermination(1, TimeUnit.MINUTES);
+            compactionPool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
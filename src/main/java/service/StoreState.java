@@ -0,0 +1,32 @@
+package service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import model.memTable.ImmutableMemTable;
+import model.memTable.MemTable;
+import model.ssTable.TableVersion;
+
+import java.util.List;
+
+/**
+ * 存储某一时刻的内存表、不可变内存表和SsTable集合，不可变
+ * 读操作取一次引用后不加锁，切换内存表、持久化和合并时整体替换
+ */
+@Getter
+@AllArgsConstructor
+class StoreState {
+    /**
+     * 当前内存表
+     */
+    private final MemTable memTable;
+
+    /**
+     * 等待持久化的内存表，新的在前，不可修改
+     */
+    private final List<ImmutableMemTable> immutables;
+
+    /**
+     * 当前各层的SsTable
+     */
+    private final TableVersion tableVersion;
+}
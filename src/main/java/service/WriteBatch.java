@@ -0,0 +1,79 @@
+package service;
+
+import model.command.Command;
+import model.command.RmCommand;
+import model.command.SetCommand;
+import utils.BytesUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批量写入，收集多个添加和删除操作，由{@link KvStore#write(WriteBatch)}原子地写入
+ * 同一个key的多次操作以最后一次为准，非线程安全
+ */
+public class WriteBatch {
+    private final List<Command> commands = new ArrayList<>();
+
+    /**
+     * key和value的总字节数
+     */
+    private long byteSize;
+
+    /**
+     * 添加数据，写入前调用方不能再修改数组
+     * @param key
+     * @param value
+     * @return
+     */
+    public WriteBatch put(byte[] key, byte[] value) {
+        commands.add(new SetCommand(key, value));
+        byteSize += key.length + value.length;
+        return this;
+    }
+
+    /**
+     * 删除数据
+     * @param key
+     * @return
+     */
+    public WriteBatch rm(byte[] key) {
+        commands.add(new RmCommand(key));
+        byteSize += key.length;
+        return this;
+    }
+
+    public WriteBatch set(String key, String value) {
+        return put(BytesUtils.toBytes(key), BytesUtils.toBytes(value));
+    }
+
+    public WriteBatch rm(String key) {
+        return rm(BytesUtils.toBytes(key));
+    }
+
+    public int size() {
+        return commands.size();
+    }
+
+    public boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    public long getByteSize() {
+        return byteSize;
+    }
+
+    public void clear() {
+        commands.clear();
+        byteSize = 0;
+    }
+
+    /**
+     * 按添加顺序排列的操作
+     * @return
+     */
+    public List<Command> getCommands() {
+        return Collections.unmodifiableList(commands);
+    }
+}
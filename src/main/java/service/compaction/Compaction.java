@@ -0,0 +1,44 @@
+package service.compaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import model.ssTable.SsTable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一次合并的输入：level层的inputs与level+1层中与之重叠的nextInputs，输出到level+1层
+ */
+@Getter
+@AllArgsConstructor
+public class Compaction {
+    /**
+     * 输入所在层级
+     */
+    private final int level;
+
+    /**
+     * level层的输入
+     */
+    private final List<SsTable> inputs;
+
+    /**
+     * level+1层的输入
+     */
+    private final List<SsTable> nextInputs;
+
+    public int getOutputLevel() {
+        return level + 1;
+    }
+
+    /**
+     * 全部输入，删除时先删更深一层的，中途崩溃时上层的删除标记仍然有效
+     * @return
+     */
+    public List<SsTable> allInputs() {
+        List<SsTable> all = new ArrayList<>(nextInputs);
+        all.addAll(inputs);
+        return all;
+    }
+}
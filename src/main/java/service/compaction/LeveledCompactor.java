@@ -0,0 +1,232 @@
+package service.compaction;
+
+import model.command.Command;
+import model.command.RmCommand;
+import model.command.SetCommand;
+import model.iterator.MergingIterator;
+import model.ssTable.SsTable;
+import model.ssTable.SsTableOptions;
+import model.ssTable.TableVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import service.KvStoreConfig;
+import utils.BytesUtils;
+import utils.LoggerUtil;
+import utils.RateLimiter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 分层合并：选择得分最高的层，将其与下一层重叠的SsTable归并为互不重叠、大小受限的新SsTable
+ * 0层得分为文件个数 / l0CompactionTrigger，其余层为层大小 / 该层上限
+ */
+public class LeveledCompactor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LeveledCompactor.class);
+
+    /**
+     * 每条记录除key和value外的估算开销
+     */
+    private static final int ENTRY_OVERHEAD = 8;
+
+    private final KvStoreConfig config;
+
+    /**
+     * 各层上次合并到的最大key，下次从其后开始轮流选择
+     */
+    private final byte[][] compactPointers;
+
+    public LeveledCompactor(KvStoreConfig config) {
+        this.config = config;
+        this.compactPointers = new byte[config.getMaxLevels()][];
+    }
+
+    /**
+     * 某一层的大小上限
+     * @param level
+     * @return
+     */
+    public long maxBytesForLevel(int level) {
+        double bytes = config.getLevelSizeBase();
+        for (int i = 1; i < level; i++) {
+            bytes *= config.getLevelSizeMultiplier();
+        }
+        return (long) bytes;
+    }
+
+    /**
+     * 某一层的合并得分，不小于1时需要合并
+     * @param version
+     * @param level
+     * @return
+     */
+    public double score(TableVersion version, int level) {
+        if (level == 0) {
+            return (double) version.getLevel(0).size() / Math.max(1, config.getL0CompactionTrigger());
+        }
+        return (double) version.levelBytes(level) / Math.max(1, maxBytesForLevel(level));
+    }
+
+    public boolean needsCompaction(TableVersion version) {
+        for (int level = 0; level < version.levelCount() - 1; level++) {
+            if (score(version, level) >= 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 选择下一次合并
+     * @param version
+     * @return 不需要合并时返回null
+     */
+    public Compaction pick(TableVersion version) {
+        int bestLevel = -1;
+        double bestScore = 1;
+        //最后一层没有下一层，不参与合并
+        for (int level = 0; level < version.levelCount() - 1; level++) {
+            double score = score(version, level);
+            if (score >= bestScore) {
+                bestScore = score;
+                bestLevel = level;
+            }
+        }
+        if (bestLevel < 0) {
+            return null;
+        }
+        List<SsTable> inputs = new ArrayList<>();
+        List<SsTable> tables = version.getLevel(bestLevel);
+        if (bestLevel == 0) {
+            //0层之间互相重叠，全部参与
+            inputs.addAll(tables);
+        } else {
+            SsTable picked = tables.get(0);
+            byte[] pointer = compactPointers[bestLevel];
+            if (pointer != null) {
+                for (SsTable table : tables) {
+                    if (BytesUtils.compare(table.getSmallestKey(), pointer) > 0) {
+                        picked = table;
+                        break;
+                    }
+                }
+            }
+            inputs.add(picked);
+            //与选中表重叠的同层表（崩溃恢复后可能存在）一起合并
+            for (SsTable table : version.overlapping(bestLevel, picked.getSmallestKey(), picked.getLargestKey())) {
+                if (table != picked) {
+                    inputs.add(table);
+                }
+            }
+        }
+        byte[] smallest = null;
+        byte[] largest = null;
+        for (SsTable table : inputs) {
+            if (smallest == null || BytesUtils.compare(table.getSmallestKey(), smallest) < 0) {
+                smallest = table.getSmallestKey();
+            }
+            if (largest == null || BytesUtils.compare(table.getLargestKey(), largest) > 0) {
+                largest = table.getLargestKey();
+            }
+        }
+        compactPointers[bestLevel] = largest;
+        return new Compaction(bestLevel, inputs, version.overlapping(bestLevel + 1, smallest, largest));
+    }
+
+    /**
+     * 执行合并，生成输出层的新SsTable，不修改输入
+     * @param compaction
+     * @param version      合并开始时的版本，用于判断删除标记能否丢弃
+     * @param snapshots    存活快照的序列号，递增，保留它们可见的旧版本
+     * @param newTablePath 新SsTable文件路径生成器
+     * @param options
+     * @return 新生成的SsTable
+     */
+    public List<SsTable> compact(Compaction compaction, TableVersion version, long[] snapshots,
+                                 Supplier<String> newTablePath, SsTableOptions options) {
+        long start = System.currentTimeMillis();
+        //序列号相同的旧数据取最新的：上层在前，同层新文件在前
+        Comparator<SsTable> newestFirst = Comparator.comparingLong(SsTable::getFileId).reversed();
+        List<SsTable> inputs = new ArrayList<>(compaction.getInputs());
+        inputs.sort(newestFirst);
+        List<SsTable> nextInputs = new ArrayList<>(compaction.getNextInputs());
+        nextInputs.sort(newestFirst);
+        List<Iterator<Command>> sources = new ArrayList<>();
+        for (SsTable table : inputs) {
+            sources.add(table.iterator());
+        }
+        for (SsTable table : nextInputs) {
+            sources.add(table.iterator());
+        }
+
+        int outputLevel = compaction.getOutputLevel();
+        List<SsTable> outputs = new ArrayList<>();
+        try {
+            MergingIterator merging = new MergingIterator(sources);
+            VersionRetention retention = new VersionRetention(snapshots);
+            List<Command> chunk = new ArrayList<>();
+            long chunkBytes = 0;
+            Command command = merging.hasNext() ? merging.next() : null;
+            while (command != null) {
+                //同一个key的全部版本，从新到旧
+                byte[] key = command.getKey();
+                List<Command> versions = new ArrayList<>();
+                while (command != null && Arrays.equals(command.getKey(), key)) {
+                    versions.add(command);
+                    command = merging.hasNext() ? merging.next() : null;
+                }
+                List<Command> retained = retention.retain(versions);
+                //最旧的保留版本是删除标记且更深的层中没有该key时，删除标记可以丢弃
+                while (!retained.isEmpty() && retained.get(retained.size() - 1) instanceof RmCommand
+                        && !version.existsBelow(outputLevel, key)) {
+                    retained.remove(retained.size() - 1);
+                }
+                for (Command retainedCommand : retained) {
+                    chunk.add(retainedCommand);
+                    chunkBytes += estimateSize(retainedCommand);
+                }
+                //同一个key的版本不跨越文件
+                if (chunkBytes >= config.getTargetFileSize()) {
+                    outputs.add(SsTable.createFromCommands(newTablePath.get(), config.getPartSize(), chunk,
+                            true, options, outputLevel, RateLimiter.Priority.LOW));
+                    chunk = new ArrayList<>();
+                    chunkBytes = 0;
+                }
+            }
+            if (!chunk.isEmpty()) {
+                outputs.add(SsTable.createFromCommands(newTablePath.get(), config.getPartSize(), chunk,
+                        true, options, outputLevel, RateLimiter.Priority.LOW));
+            }
+        } catch (RuntimeException e) {
+            for (SsTable output : outputs) {
+                deleteTable(output);
+            }
+            throw e;
+        }
+        LoggerUtil.info(LOGGER, "[LeveledCompactor][compact]: L{} {} files + L{} {} files -> {} files, {}ms",
+                compaction.getLevel(), inputs.size(), outputLevel, nextInputs.size(), outputs.size(),
+                System.currentTimeMillis() - start);
+        return outputs;
+    }
+
+    private static long estimateSize(Command command) {
+        long size = command.getKey().length + ENTRY_OVERHEAD;
+        if (command instanceof SetCommand) {
+            size += ((SetCommand) command).getValue().length;
+        }
+        return size;
+    }
+
+    /**
+     * 关闭并删除尚未发布的SsTable，用于合并失败时清理已生成的输出
+     * @param table
+     */
+    public static void deleteTable(SsTable table) {
+        table.markObsolete();
+        table.release();
+    }
+}
@@ -0,0 +1,51 @@
+package service.compaction;
+
+import model.command.Command;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 按存活的快照决定同一个key保留哪些版本
+ * 快照把序列号划分为若干区间，每个区间只需保留其中最新的版本，更旧的版本不会再被任何读取看到
+ */
+public class VersionRetention {
+    /**
+     * 存活快照的序列号，递增
+     */
+    private final long[] snapshots;
+
+    /**
+     * @param snapshots 存活快照的序列号，递增
+     */
+    public VersionRetention(long[] snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * 筛选需要保留的版本，最新的版本总是保留
+     * @param versions 同一个key的版本，从新到旧
+     * @return 需要保留的版本，从新到旧
+     */
+    public List<Command> retain(List<Command> versions) {
+        List<Command> retained = new ArrayList<>(Math.min(versions.size(), snapshots.length + 1));
+        int lastStripe = -1;
+        for (Command command : versions) {
+            int stripe = stripe(command.getSeq());
+            if (stripe != lastStripe) {
+                retained.add(command);
+                lastStripe = stripe;
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * 能看到该序列号的最旧快照的下标，所有快照都看不到时为快照个数
+     */
+    private int stripe(long seq) {
+        int index = Arrays.binarySearch(snapshots, seq);
+        return index >= 0 ? index : -index - 1;
+    }
+}
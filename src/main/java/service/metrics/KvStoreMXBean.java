@@ -0,0 +1,8 @@
+package service.metrics;
+
+/**
+ * 存储的JMX接口，属性为统计快照
+ */
+public interface KvStoreMXBean {
+    StoreStats getStats();
+}
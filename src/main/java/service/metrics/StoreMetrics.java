@@ -0,0 +1,71 @@
+package service.metrics;
+
+import lombok.Getter;
+import utils.Histogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 存储读写路径上的计数和延迟直方图，记录不加锁
+ * 延迟以纳秒记录
+ */
+@Getter
+public class StoreMetrics {
+    private final Histogram getLatency = new Histogram();
+
+    private final Histogram setLatency = new Histogram();
+
+    private final Histogram rmLatency = new Histogram();
+
+    private final Histogram writeBatchLatency = new Histogram();
+
+    /**
+     * 在当前内存表中命中的点查次数
+     */
+    private final LongAdder memTableHits = new LongAdder();
+
+    /**
+     * 在不可变内存表中命中的点查次数
+     */
+    private final LongAdder immutableHits = new LongAdder();
+
+    private final LongAdder flushCount = new LongAdder();
+
+    /**
+     * 持久化生成的SsTable文件字节数
+     */
+    private final LongAdder flushBytes = new LongAdder();
+
+    private final Histogram flushDuration = new Histogram();
+
+    /**
+     * 内存接近预算时被减速的写入次数
+     */
+    private final LongAdder writeSlowdowns = new LongAdder();
+
+    /**
+     * 内存达到预算时阻塞的写入次数
+     */
+    private final LongAdder writeStalls = new LongAdder();
+
+    /**
+     * 减速和阻塞的总时间
+     */
+    private final LongAdder writeDelayNanos = new LongAdder();
+
+    /**
+     * 值日志回收时重写的有效值字节数
+     */
+    private final LongAdder valueLogGcRewriteBytes = new LongAdder();
+
+    /**
+     * 值日志回收删除的文件个数
+     */
+    private final LongAdder valueLogGcDeletedFiles = new LongAdder();
+
+    public void recordFlush(long durationNanos, long bytes) {
+        flushCount.increment();
+        flushBytes.add(bytes);
+        flushDuration.record(durationNanos);
+    }
+}
@@ -0,0 +1,128 @@
+package service.metrics;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+import utils.HistogramSnapshot;
+
+/**
+ * 存储统计的快照，由{@link service.KvStore#getStats()}生成，延迟单位为纳秒
+ */
+@Data
+@Accessors(chain = true)
+public class StoreStats {
+    private HistogramSnapshot getLatency;
+
+    private HistogramSnapshot setLatency;
+
+    private HistogramSnapshot rmLatency;
+
+    private HistogramSnapshot writeBatchLatency;
+
+    /**
+     * 在当前内存表中命中的点查次数
+     */
+    private long memTableHits;
+
+    /**
+     * 在不可变内存表中命中的点查次数
+     */
+    private long immutableHits;
+
+    /**
+     * 各层SsTable命中的点查次数
+     */
+    private long[] ssTableHits;
+
+    /**
+     * 各处都不存在的点查次数
+     */
+    private long misses;
+
+    /**
+     * 每次查询SsTable时访问的SsTable个数
+     */
+    private HistogramSnapshot tablesProbed;
+
+    /**
+     * 从文件读取的data block个数和字节数（压缩后）
+     */
+    private long blocksRead;
+
+    private long blockBytesRead;
+
+    /**
+     * 解压后的字节数
+     */
+    private long blockBytesDecompressed;
+
+    private long blockCacheHits;
+
+    private long blockCacheMisses;
+
+    private long bloomFilterUseful;
+
+    private long bloomFilterFalsePositives;
+
+    private long flushCount;
+
+    private long flushBytes;
+
+    private HistogramSnapshot flushDuration;
+
+    private long walBytes;
+
+    private long walSyncs;
+
+    /**
+     * 当前内存表的key个数
+     */
+    private long memTableSize;
+
+    /**
+     * 当前内存表和不可变内存表估算占用的字节数
+     */
+    private long memTableBytes;
+
+    private long immutableBytes;
+
+    private long writeSlowdowns;
+
+    private long writeStalls;
+
+    private long writeDelayNanos;
+
+    /**
+     * 当前的IO限速（字节/秒），未限速时为0
+     */
+    private long ioRateLimit;
+
+    /**
+     * 持久化和合并因IO限速等待的时间
+     */
+    private long flushIoThrottledNanos;
+
+    private long compactionIoThrottledNanos;
+
+    private int immutableCount;
+
+    /**
+     * 值日志文件个数和字节数
+     */
+    private int valueLogFiles;
+
+    private long valueLogBytes;
+
+    /**
+     * 写入值日志的字节数，包括回收时的重写
+     */
+    private long valueLogBytesWritten;
+
+    private long valueLogGcRewriteBytes;
+
+    private long valueLogGcDeletedFiles;
+
+    /**
+     * 各层SsTable个数
+     */
+    private int[] levelTableCounts;
+}
@@ -0,0 +1,55 @@
+package utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+
+/**
+ * 字节数组工具，key按无符号字节序排列
+ */
+public class BytesUtils {
+    /**
+     * 无符号字节序比较器，与UTF-8编码后的字符串按码点排序一致
+     */
+    public static final Comparator<byte[]> COMPARATOR = BytesUtils::compare;
+
+    public static int compare(byte[] a, byte[] b) {
+        int limit = Math.min(a.length, b.length);
+        for (int i = 0; i < limit; i++) {
+            int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    public static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 字符串按UTF-8编码，null返回null
+     * @param value
+     * @return
+     */
+    public static byte[] toBytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 按UTF-8解码，null返回null
+     * @param bytes
+     * @return
+     */
+    public static String toString(byte[] bytes) {
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -8,12 +8,20 @@ import model.command.SetCommand;
 
 public class ConvertUtils {
     public static final String TYPE = "type";
+    public static final String KEY = "key";
+    public static final String VALUE = "value";
 
+    /**
+     * 旧版JSON格式中key和value是字符串，按UTF-8转为字节
+     * @param value
+     * @return
+     */
     public static Command toCommand(JSONObject value){
+        byte[] key = BytesUtils.toBytes(value.getString(KEY));
         if(value.getString(TYPE).equals(CommandTypeEnum.SET.name())){
-            return value.toJavaObject(SetCommand.class);
+            return new SetCommand(key, BytesUtils.toBytes(value.getString(VALUE)));
         }else if(value.getString(TYPE).equals(CommandTypeEnum.RM.name())){
-            return value.toJavaObject(RmCommand.class);
+            return new RmCommand(key);
         }
         return null;
     }
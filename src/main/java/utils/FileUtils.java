@@ -0,0 +1,76 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 文件工具，用于生成检查点和替换元数据文件
+ */
+public class FileUtils {
+    /**
+     * 为不再修改的文件创建硬链接，不共享同一文件系统等无法链接时复制
+     * @param source
+     * @param target
+     * @return 是否创建了硬链接
+     * @throws IOException
+     */
+    public static boolean linkOrCopy(File source, File target) throws IOException {
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+            return true;
+        } catch (UnsupportedOperationException | IOException e) {
+            //目标已存在时不覆盖
+            if (target.exists()) {
+                throw new IOException("file exists: " + target.getAbsolutePath(), e);
+            }
+            copy(source, target, source.length());
+            return false;
+        }
+    }
+
+    /**
+     * 复制文件开头的length个字节并刷盘，用于仍在追加的文件
+     * @param source
+     * @param target
+     * @param length
+     * @throws IOException
+     */
+    public static void copy(File source, File target, long length) throws IOException {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE_NEW,
+                     StandardOpenOption.WRITE)) {
+            long position = 0;
+            while (position < length) {
+                long n = in.transferTo(position, length - position, out);
+                if (n <= 0) {
+                    throw new IOException("unexpected end of file: " + source.getAbsolutePath());
+                }
+                position += n;
+            }
+            out.force(true);
+        }
+    }
+
+    /**
+     * 刷盘目录，使其中文件的创建、重命名和删除在崩溃后仍然有效
+     * 不能打开目录的平台上直接返回
+     * @param dir
+     * @throws IOException
+     */
+    public static void syncDir(File dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对数线性分桶的直方图，与HdrHistogram类似：每个2的幂区间再等分为64个子桶，相对误差约1.6%
+ * 记录只做一次原子自增和一次累加，不加锁，适合在读写路径上记录延迟
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 6;
+
+    /**
+     * 小于该值时每个值一个桶
+     */
+    private static final int LINEAR_LIMIT = 2 << SUB_BUCKET_BITS;
+
+    /**
+     * 可记录的最大值，超出的按最大值记录；以纳秒计约4.9小时
+     */
+    public static final long MAX_VALUE = (1L << 44) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(bucketIndex(MAX_VALUE) + 1);
+
+    private final LongAdder sum = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一个值，负数按0记录
+     * @param value
+     */
+    public void record(long value) {
+        long v = Math.min(Math.max(value, 0), MAX_VALUE);
+        counts.incrementAndGet(bucketIndex(v));
+        sum.add(v);
+        long current;
+        while ((current = max.get()) < v && !max.compareAndSet(current, v)) {
+        }
+    }
+
+    /**
+     * 当前分布的快照，记录与快照并发时结果可能相差几条记录
+     * @return
+     */
+    public HistogramSnapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        long maxValue = max.get();
+        return new HistogramSnapshot(count, count == 0 ? 0 : (double) sum.sum() / count,
+                percentile(copy, count, 50, maxValue), percentile(copy, count, 90, maxValue),
+                percentile(copy, count, 99, maxValue), percentile(copy, count, 99.9, maxValue), maxValue);
+    }
+
+    /**
+     * 第percentile百分位所在桶的上界，不超过记录过的最大值
+     */
+    private static long percentile(long[] counts, long count, double percentile, long maxValue) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    static long upperBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long lower = (long) ((index & ((1 << SUB_BUCKET_BITS) - 1)) + (1 << SUB_BUCKET_BITS)) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,27 @@
+package utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * 直方图某一时刻的统计结果，单位与记录时一致
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class HistogramSnapshot {
+    private final long count;
+
+    private final double mean;
+
+    private final long p50;
+
+    private final long p90;
+
+    private final long p99;
+
+    private final long p999;
+
+    private final long max;
+}
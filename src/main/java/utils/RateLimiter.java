@@ -0,0 +1,200 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 令牌桶IO限速，用于后台写SsTable，避免持久化和合并占满磁盘带宽、拉高前台读取的延迟
+ * 每个周期补充bytesPerSecond * 周期的令牌，最多积累一个周期，没有令牌时等待下一次补充；
+ * 高优先级（持久化）有等待时低优先级（合并）让出，持久化落后会阻塞写入，合并落后只影响读放大
+ * 自动调整：每REFILLS_PER_TUNE个周期统计一次令牌耗尽的周期比例，超过90%说明后台写入积压，提高5%，
+ * 低于50%降低5%，在上限的1/20到上限之间调整
+ */
+public class RateLimiter {
+    /**
+     * IO优先级
+     */
+    public enum Priority {
+        HIGH,
+        LOW
+    }
+
+    public static final long DEFAULT_REFILL_PERIOD_MICROS = 100 * 1000;
+
+    private static final int REFILLS_PER_TUNE = 100;
+
+    /**
+     * 自动调整的范围：上限 / ALLOWED_RANGE_FACTOR 到上限
+     */
+    private static final int ALLOWED_RANGE_FACTOR = 20;
+
+    private final long maxBytesPerSecond;
+
+    private final long refillPeriodNanos;
+
+    private final boolean autoTune;
+
+    private volatile long bytesPerSecond;
+
+    private long available;
+
+    private long nextRefillNanos;
+
+    /**
+     * 各优先级正在等待的请求数
+     */
+    private final int[] waiting = new int[Priority.values().length];
+
+    /**
+     * 当前周期是否有请求因令牌耗尽而等待
+     */
+    private boolean drained;
+
+    private int tunePeriods;
+
+    private int drainedPeriods;
+
+    private final LongAdder[] requestedBytes = newAdders();
+
+    private final LongAdder[] throttledNanos = newAdders();
+
+    /**
+     * @param bytesPerSecond 限速，开启自动调整时为上限
+     * @param refillPeriodMicros 补充令牌的周期
+     * @param autoTune 是否按积压情况自动调整
+     */
+    public RateLimiter(long bytesPerSecond, long refillPeriodMicros, boolean autoTune) {
+        if (bytesPerSecond <= 0 || refillPeriodMicros <= 0) {
+            throw new IllegalArgumentException("rate and refill period must be positive");
+        }
+        this.maxBytesPerSecond = bytesPerSecond;
+        this.refillPeriodNanos = TimeUnit.MICROSECONDS.toNanos(refillPeriodMicros);
+        this.autoTune = autoTune;
+        this.bytesPerSecond = bytesPerSecond;
+        this.nextRefillNanos = System.nanoTime();
+    }
+
+    public RateLimiter(long bytesPerSecond, boolean autoTune) {
+        this(bytesPerSecond, DEFAULT_REFILL_PERIOD_MICROS, autoTune);
+    }
+
+    /**
+     * 申请写入bytes字节，令牌不足时阻塞；超过一个周期的申请分多个周期取得
+     * 等待中被中断时保留中断状态并直接返回，不影响正在进行的写入
+     * @param bytes
+     * @param priority
+     */
+    public void request(long bytes, Priority priority) {
+        if (bytes <= 0) {
+            return;
+        }
+        requestedBytes[priority.ordinal()].add(bytes);
+        long start = System.nanoTime();
+        boolean throttled = false;
+        synchronized (this) {
+            waiting[priority.ordinal()]++;
+            try {
+                while (bytes > 0) {
+                    long now = System.nanoTime();
+                    refill(now, throttled);
+                    if (available > 0 && (priority == Priority.HIGH || waiting[Priority.HIGH.ordinal()] == 0)) {
+                        long granted = Math.min(bytes, available);
+                        available -= granted;
+                        bytes -= granted;
+                        continue;
+                    }
+                    drained = true;
+                    throttled = true;
+                    TimeUnit.NANOSECONDS.timedWait(this, Math.max(1, nextRefillNanos - now));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                waiting[priority.ordinal()]--;
+                //让出的低优先级请求不必等到下一个周期
+                if (priority == Priority.HIGH) {
+                    notifyAll();
+                }
+            }
+        }
+        if (throttled) {
+            throttledNanos[priority.ordinal()].add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 补充已经过的周期的令牌，调用方持有锁
+     * @param now
+     * @param waited 调用方是否一直在等待，是则经过的周期都算作耗尽
+     */
+    private void refill(long now, boolean waited) {
+        if (now < nextRefillNanos) {
+            return;
+        }
+        long periods = (now - nextRefillNanos) / refillPeriodNanos + 1;
+        //最多积累一个周期的令牌
+        available = bytesPerPeriod();
+        nextRefillNanos += periods * refillPeriodNanos;
+        if (!autoTune) {
+            return;
+        }
+        //空闲的周期算作未耗尽
+        int elapsed = (int) Math.min(periods, REFILLS_PER_TUNE);
+        tunePeriods += elapsed;
+        if (waited) {
+            drainedPeriods += elapsed;
+        } else if (drained) {
+            drainedPeriods++;
+        }
+        drained = false;
+        if (tunePeriods >= REFILLS_PER_TUNE) {
+            tune();
+        }
+    }
+
+    private void tune() {
+        long min = Math.max(1, maxBytesPerSecond / ALLOWED_RANGE_FACTOR);
+        long current = bytesPerSecond;
+        int drainedPercent = drainedPeriods * 100 / tunePeriods;
+        if (drainedPercent > 90) {
+            bytesPerSecond = Math.min(maxBytesPerSecond, Math.max(current + 1, current * 105 / 100));
+        } else if (drainedPercent < 50) {
+            bytesPerSecond = Math.max(min, current * 100 / 105);
+        }
+        tunePeriods = 0;
+        drainedPeriods = 0;
+    }
+
+    private long bytesPerPeriod() {
+        return Math.max(1, (long) ((double) bytesPerSecond * refillPeriodNanos / TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    /**
+     * 当前的限速，自动调整时随积压变化
+     * @return
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public long getRequestedBytes(Priority priority) {
+        return requestedBytes[priority.ordinal()].sum();
+    }
+
+    /**
+     * 因限速等待的总时间
+     * @param priority
+     * @return
+     */
+    public long getThrottledNanos(Priority priority) {
+        return throttledNanos[priority.ordinal()].sum();
+    }
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[Priority.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
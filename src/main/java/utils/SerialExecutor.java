@@ -0,0 +1,118 @@
+package utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在共享线程池上按提交顺序逐个执行任务，同一时间最多一个任务在运行
+ * 每次只向共享线程池提交一个任务，多个串行执行器共享线程池时轮流执行
+ * 关闭只影响自身，不关闭共享线程池
+ */
+public class SerialExecutor extends AbstractExecutorService {
+    private final Executor delegate;
+
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+    /**
+     * 是否已向共享线程池提交了任务，尚未执行完
+     */
+    private boolean active;
+
+    private boolean shutdown;
+
+    public SerialExecutor(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public synchronized void execute(Runnable task) {
+        if (shutdown) {
+            throw new RejectedExecutionException("serial executor shut down");
+        }
+        tasks.add(task);
+        if (!active) {
+            scheduleNext();
+        }
+    }
+
+    /**
+     * 在持有锁时调用，提交下一个任务，共享线程池拒绝时丢弃剩余任务
+     */
+    private void scheduleNext() {
+        if (tasks.isEmpty()) {
+            active = false;
+            notifyAll();
+            return;
+        }
+        active = true;
+        try {
+            delegate.execute(this::runNext);
+        } catch (RejectedExecutionException e) {
+            tasks.clear();
+            active = false;
+            notifyAll();
+            throw e;
+        }
+    }
+
+    private void runNext() {
+        Runnable task;
+        synchronized (this) {
+            task = tasks.poll();
+        }
+        try {
+            if (task != null) {
+                task.run();
+            }
+        } finally {
+            synchronized (this) {
+                try {
+                    scheduleNext();
+                } catch (RejectedExecutionException ignored) {
+                    //共享线程池已关闭，剩余任务已丢弃
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> pending = new ArrayList<>(tasks);
+        tasks.clear();
+        return pending;
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated() {
+        return shutdown && !active && tasks.isEmpty();
+    }
+
+    @Override
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+}
@@ -1,13 +1,61 @@
 package KvStore;
 
+import com.alibaba.fastjson.JSONObject;
+import model.command.Command;
+import model.command.SetCommand;
+import model.iterator.BytesIterator;
+import model.iterator.KvIterator;
+import model.manifest.Manifest;
+import model.ssTable.BlockCodec;
+import model.ssTable.SsTable;
+import model.ssTable.TableVersion;
+import model.wal.WalRecord;
+import model.wal.WalSyncMode;
 import org.junit.Test;
+import server.LoadGenerator;
+import server.RespServer;
+import service.AsyncKvStore;
 import service.KvStore;
+import service.KvStoreConfig;
 import service.KvStoreImpl;
+import service.ShardedKvStore;
+import service.Snapshot;
+import service.WriteBatch;
+import service.metrics.StoreStats;
+import utils.BytesUtils;
+import utils.RateLimiter;
 
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class KvStoreTest {
     @Test
@@ -34,4 +82,863 @@ public class KvStoreTest {
         }
         kvStore.close();
     }
+
+    @Test
+    public void backgroundFlush() throws IOException {
+        String dataDir = "db_flush/";
+        deleteDir(new File(dataDir));
+        KvStore kvStore = new KvStoreImpl(dataDir, 8, 4, 1);
+        for (int i = 0; i < 200; i++) {
+            kvStore.set(i + "", "v" + i);
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals("v" + i, kvStore.get(i + ""));
+        }
+        kvStore.close();
+        kvStore = new KvStoreImpl(dataDir, 8, 4, 1);
+        for (int i = 0; i < 200; i++) {
+            assertEquals("v" + i, kvStore.get(i + ""));
+        }
+        kvStore.close();
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void groupCommitWal() throws Exception {
+        String dataDir = "db_wal/";
+        deleteDir(new File(dataDir));
+        KvStoreConfig config = new KvStoreConfig().setStoreThreshold(50).setPartSize(8)
+                .setWalSyncMode(WalSyncMode.BATCH);
+        KvStore kvStore = new KvStoreImpl(dataDir, config);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t * 100;
+            threads[t] = new Thread(() -> {
+                for (int i = offset; i < offset + 100; i++) {
+                    kvStore.set(i + "", "v" + i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        kvStore.close();
+        //关闭后的写入直接失败，不会被确认后丢失
+        try {
+            kvStore.set("late", "v");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        KvStore reopened = new KvStoreImpl(dataDir, config);
+        for (int i = 0; i < 400; i++) {
+            assertEquals("v" + i, reopened.get(i + ""));
+        }
+        reopened.close();
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void walRecovery() throws IOException {
+        String dataDir = "db_wal_recovery/";
+        deleteDir(new File(dataDir));
+        new File(dataDir).mkdirs();
+        //旧版JSON日志
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(dataDir + KvStoreImpl.WAL))) {
+            for (int i = 0; i < 3; i++) {
+                JSONObject command = new JSONObject();
+                command.put("type", "SET");
+                command.put("key", i + "");
+                command.put("value", "v" + i);
+                byte[] bytes = command.toJSONString().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            //内容不完整的尾部记录
+            byte[] torn = "{\"type\":\"SE".getBytes(StandardCharsets.UTF_8);
+            out.writeInt(torn.length);
+            out.write(torn);
+        }
+        KvStore kvStore = new KvStoreImpl(dataDir, 100, 4);
+        assertEquals("v1", kvStore.get("1"));
+        kvStore.set("3", "v3");
+        kvStore.close();
+        //模拟写入一半的尾部记录
+        try (FileOutputStream out = new FileOutputStream(dataDir + KvStoreImpl.WAL, true)) {
+            byte[] record = WalRecord.encode(new SetCommand(BytesUtils.toBytes("4"), BytesUtils.toBytes("v4")));
+            out.write(record, 0, record.length - 2);
+        }
+        kvStore = new KvStoreImpl(dataDir, 100, 4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals("v" + i, kvStore.get(i + ""));
+        }
+        assertNull(kvStore.get("4"));
+        kvStore.set("5", "v5");
+        kvStore.close();
+        kvStore = new KvStoreImpl(dataDir, 100, 4);
+        assertEquals("v5", kvStore.get("5"));
+        kvStore.close();
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void leveledCompaction() throws Exception {
+        String dataDir = "db_compaction/";
+        deleteDir(new File(dataDir));
+        KvStoreConfig config = new KvStoreConfig().setStoreThreshold(50).setPartSize(8)
+                .setL0CompactionTrigger(2).setLevelSizeBase(4 * 1024).setTargetFileSize(1024);
+        KvStoreImpl kvStore = new KvStoreImpl(dataDir, config);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 300; i++) {
+                kvStore.set(i + "", "v" + round + "-" + i);
+            }
+        }
+        for (int i = 0; i < 300; i += 3) {
+            kvStore.rm(i + "");
+        }
+        kvStore.close();
+
+        kvStore = new KvStoreImpl(dataDir, config);
+        for (int i = 0; i < 300; i++) {
+            if (i % 3 == 0) {
+                assertNull(kvStore.get(i + ""));
+            } else {
+                assertEquals("v2-" + i, kvStore.get(i + ""));
+            }
+        }
+        //重新打开时可能触发合并，等待后台合并完成
+        long deadline = System.currentTimeMillis() + 10000;
+        while (kvStore.getTableVersion().getLevel(0).size() >= 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        kvStore.close();
+        TableVersion version = kvStore.getTableVersion();
+        assertTrue(version.getLevel(0).size() < 2);
+        for (int level = 1; level < version.levelCount(); level++) {
+            List<SsTable> tables = version.getLevel(level);
+            for (int i = 1; i < tables.size(); i++) {
+                assertTrue(BytesUtils.compare(tables.get(i - 1).getLargestKey(), tables.get(i).getSmallestKey()) < 0);
+            }
+        }
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void scan() throws IOException {
+        String dataDir = "db_scan/";
+        deleteDir(new File(dataDir));
+        KvStoreConfig config = new KvStoreConfig().setStoreThreshold(40).setPartSize(8)
+                .setL0CompactionTrigger(2).setLevelSizeBase(2 * 1024).setTargetFileSize(512);
+        KvStoreImpl kvStore = new KvStoreImpl(dataDir, config);
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 200; i++) {
+                String key = String.format("k%03d", i);
+                kvStore.set(key, "v" + round + "-" + i);
+                expected.put(key, "v" + round + "-" + i);
+            }
+        }
+        for (int i = 0; i < 200; i += 7) {
+            String key = String.format("k%03d", i);
+            kvStore.rm(key);
+            expected.remove(key);
+        }
+        kvStore.set("k050", "latest");
+        expected.put("k050", "latest");
+
+        KvIterator iterator = kvStore.scan("k040", "k120");
+        List<Map.Entry<String, String>> entries = new ArrayList<>();
+        while (iterator.hasNext()) {
+            entries.add(iterator.next());
+        }
+        iterator.close();
+        assertEquals(new ArrayList<>(expected.subMap("k040", "k120").entrySet()), entries);
+
+        int count = 0;
+        try (KvIterator prefixIterator = kvStore.prefixScan("k19")) {
+            while (prefixIterator.hasNext()) {
+                assertTrue(prefixIterator.next().getKey().startsWith("k19"));
+                count++;
+            }
+        }
+        assertEquals(expected.subMap("k19", "k1:").size(), count);
+        kvStore.close();
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void concurrentReadWrite() throws Exception {
+        String dataDir = "db_concurrent/";
+        deleteDir(new File(dataDir));
+        KvStoreConfig config = new KvStoreConfig().setStoreThreshold(50).setPartSize(8)
+                .setL0CompactionTrigger(2).setLevelSizeBase(4 * 1024).setTargetFileSize(1024);
+        KvStoreImpl kvStore = new KvStoreImpl(dataDir, config);
+        int threads = 4;
+        int count = 300;
+        ExecutorService executor = Executors.newFixedThreadPool(threads * 2);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < count; i++) {
+                    kvStore.set(thread + "-" + i, "v" + i);
+                }
+            }));
+            //每个线程只读自己写过的key，写入完成后必须可见
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < count; i++) {
+                    String value = kvStore.get(thread + "-" + i);
+                    assertTrue(value == null || value.equals("v" + i));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < count; i++) {
+                assertEquals("v" + i, kvStore.get(t + "-" + i));
+            }
+        }
+        kvStore.close();
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void binaryKeys() throws IOException {
+        String dataDir = "db_binary/";
+        deleteDir(new File(dataDir));
+        KvStoreConfig config = new KvStoreConfig().setStoreThreshold(20).setPartSize(4);
+        KvStoreImpl kvStore = new KvStoreImpl(dataDir, config);
+        //按无符号字节序，0xFF开头的key排在最后
+        for (int i = 0; i < 100; i++) {
+            kvStore.put(new byte[]{(byte) (i % 2 == 0 ? 0x01 : 0xFF), (byte) i}, new byte[]{(byte) i, 0, (byte) 0x80});
+        }
+        kvStore.close();
+
+        kvStore = new KvStoreImpl(dataDir, config);
+        assertArrayEquals(new byte[]{3, 0, (byte) 0x80}, kvStore.get(new byte[]{(byte) 0xFF, 3}));
+        ByteBuffer value = kvStore.get(ByteBuffer.wrap(new byte[]{0x01, 4}));
+        assertTrue(value.isReadOnly());
+        assertEquals(4, value.get(0));
+        assertNull(kvStore.get(new byte[]{0x01, 3}));
+        byte[] last = null;
+        int count = 0;
+        try (BytesIterator iterator = kvStore.scan((byte[]) null, null)) {
+            while (iterator.hasNext()) {
+                byte[] key = iterator.next().getKey();
+                assertTrue(last == null || BytesUtils.compare(last, key) < 0);
+                last = key;
+                count++;
+            }
+        }
+        assertEquals(100, count);
+        assertEquals((byte) 0xFF, last[0]);
+        kvStore.close();
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void writeBatch() throws IOException {
+        String dataDir = "db_batch/";
+        deleteDir(new File(dataDir));
+        KvStore kvStore = new KvStoreImpl(dataDir, 1000, 4);
+        WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < 10; i++) {
+            batch.set("k" + i, "v" + i);
+        }
+        batch.rm("k3");
+        kvStore.write(batch);
+        kvStore.close();
+        //模拟写入一半的批量记录，恢复时整批丢弃
+        List<Command> torn = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            torn.add(new SetCommand(BytesUtils.toBytes("k" + i), BytesUtils.toBytes("torn")));
+        }
+        try (FileOutputStream out = new FileOutputStream(dataDir + KvStoreImpl.WAL, true)) {
+            byte[] record = WalRecord.encodeBatch(torn);
+            out.write(record, 0, record.length - 5);
+        }
+        kvStore = new KvStoreImpl(dataDir, 1000, 4);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i == 3 ? null : "v" + i, kvStore.get("k" + i));
+        }
+        kvStore.close();
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void multiGet() throws IOException {
+        String dataDir = "db_multi_get/";
+        deleteDir(new File(dataDir));
+        KvStoreConfig config = new KvStoreConfig().setStoreThreshold(50).setPartSize(8)
+                .setL0CompactionTrigger(2).setLevelSizeBase(2 * 1024).setTargetFileSize(512)
+                .setMultiGetParallelism(2);
+        KvStoreImpl kvStore = new KvStoreImpl(dataDir, config);
+        for (int i = 0; i < 400; i++) {
+            kvStore.set(String.format("k%03d", i), "v" + i);
+        }
+        for (int i = 0; i < 400; i += 5) {
+            kvStore.rm(String.format("k%03d", i));
+        }
+        List<String> keys = new ArrayList<>();
+        for (int i = 399; i >= 0; i -= 3) {
+            keys.add(String.format("k%03d", i));
+        }
+        keys.add("k001");
+        keys.add("missing");
+        Map<String, String> values = kvStore.multiGet(keys);
+        for (String key : keys) {
+            assertEquals(kvStore.get(key), values.get(key));
+        }
+        assertTrue(!values.containsKey("missing") && !values.containsKey("k000"));
+        kvStore.close();
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void snapshot() throws Exception {
+        String dataDir = "db_snapshot/";
+        deleteDir(new File(dataDir));
+        KvStoreConfig config = new KvStoreConfig().setStoreThreshold(50).setPartSize(8)
+                .setL0CompactionTrigger(2).setLevelSizeBase(2 * 1024).setTargetFileSize(512);
+        KvStoreImpl kvStore = new KvStoreImpl(dataDir, config);
+        //快照之后多次覆盖，内存表的版本链仍保留快照可见的版本
+        kvStore.set("multi", "a");
+        Snapshot multi = kvStore.getSnapshot();
+        kvStore.set("multi", "b");
+        kvStore.set("multi", "c");
+        assertEquals("a", kvStore.get("multi", multi));
+        assertEquals("c", kvStore.get("multi"));
+        multi.release();
+        for (int i = 0; i < 100; i++) {
+            kvStore.set(String.format("k%03d", i), "a" + i);
+        }
+        Snapshot snapshot = kvStore.getSnapshot();
+        for (int i = 0; i < 100; i++) {
+            if (i % 4 == 0) {
+                kvStore.rm(String.format("k%03d", i));
+            } else {
+                kvStore.set(String.format("k%03d", i), "b" + i);
+            }
+        }
+        kvStore.set("k100", "b100");
+        //触发持久化和合并，快照可见的旧版本需要保留
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++) {
+                if (i % 4 == 0) {
+                    kvStore.rm(String.format("k%03d", i));
+                } else {
+                    kvStore.set(String.format("k%03d", i), "b" + i);
+                }
+            }
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (kvStore.getTableVersion().getLevel(0).size() >= 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        for (int i = 0; i < 100; i++) {
+            String key = String.format("k%03d", i);
+            assertEquals("a" + i, kvStore.get(key, snapshot));
+            assertEquals(i % 4 == 0 ? null : "b" + i, kvStore.get(key));
+        }
+        assertNull(kvStore.get("k100", snapshot));
+        //遍历使用隐式快照，看不到开始后的写入
+        try (KvIterator iterator = kvStore.scan("k000", "k010")) {
+            kvStore.set("k005", "c5");
+            int count = 0;
+            while (iterator.hasNext()) {
+                Map.Entry<String, String> entry = iterator.next();
+                assertTrue(entry.getValue().startsWith("b"));
+                count++;
+            }
+            assertEquals(7, count);
+        }
+        snapshot.release();
+        kvStore.close();
+        kvStore = new KvStoreImpl(dataDir, config);
+        Snapshot reopened = kvStore.getSnapshot();
+        kvStore.set("k001", "d1");
+        assertEquals("b1", kvStore.get("k001", reopened));
+        assertEquals("d1", kvStore.get("k001"));
+        assertEquals("c5", kvStore.get("k005"));
+        reopened.release();
+        kvStore.close();
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void stats() throws Exception {
+        String dataDir = "db_stats/";
+        deleteDir(new File(dataDir));
+        KvStoreConfig config = new KvStoreConfig().setStoreThreshold(50).setPartSize(8)
+                .setWalSyncMode(WalSyncMode.BATCH).setJmxEnabled(true);
+        KvStoreImpl kvStore = new KvStoreImpl(dataDir, config);
+        for (int i = 0; i < 200; i++) {
+            kvStore.set("k" + i, "v" + i);
+        }
+        kvStore.rm("k0");
+        for (int i = 0; i < 200; i++) {
+            kvStore.get("k" + i);
+        }
+        kvStore.get("missing");
+        StoreStats stats = kvStore.getStats();
+        assertEquals(200, stats.getSetLatency().getCount());
+        assertEquals(1, stats.getRmLatency().getCount());
+        assertEquals(201, stats.getGetLatency().getCount());
+        assertTrue(stats.getGetLatency().getP50() <= stats.getGetLatency().getP99());
+        assertTrue(stats.getGetLatency().getP99() <= stats.getGetLatency().getMax());
+        long tableHits = 0;
+        for (long hits : stats.getSsTableHits()) {
+            tableHits += hits;
+        }
+        //k0的删除标记也算命中
+        assertEquals(201, stats.getMemTableHits() + stats.getImmutableHits() + tableHits + stats.getMisses());
+        assertTrue(stats.getFlushCount() > 0 && stats.getFlushBytes() > 0);
+        assertTrue(stats.getWalBytes() > 0 && stats.getWalSyncs() > 0);
+        assertTrue(stats.getBlocksRead() > 0 && stats.getBlockBytesDecompressed() > 0);
+        ObjectName name = new ObjectName("kvstore:type=KvStore,name="
+                + ObjectName.quote(new File(dataDir).getAbsolutePath()));
+        CompositeData jmxStats = (CompositeData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Stats");
+        assertTrue((Long) jmxStats.get("flushCount") > 0);
+        kvStore.close();
+        assertTrue(!ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void memoryBudget() throws Exception {
+        String dataDir = "db_memory/";
+        deleteDir(new File(dataDir));
+        //只按字节数切换内存表，预算很紧时写入会被减速
+        KvStoreConfig config = new KvStoreConfig().setStoreThreshold(0).setPartSize(8)
+                .setWriteBufferSize(16 * 1024).setMaxMemoryBytes(40 * 1024)
+                .setWriteSlowdownRatio(0.3).setMaxWriteDelayMicros(100);
+        KvStoreImpl kvStore = new KvStoreImpl(dataDir, config);
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1024; i++) {
+            value.append('v');
+        }
+        long maxMemTableBytes = 0;
+        for (int i = 0; i < 300; i++) {
+            kvStore.set("k" + i, value.toString() + i);
+            maxMemTableBytes = Math.max(maxMemTableBytes, kvStore.getStats().getMemTableBytes());
+        }
+        StoreStats stats = kvStore.getStats();
+        assertTrue(stats.getFlushCount() > 0);
+        assertTrue(maxMemTableBytes < 16 * 1024 + 2 * 1024);
+        assertTrue(stats.getWriteSlowdowns() > 0 && stats.getWriteDelayNanos() > 0);
+        for (int i = 0; i < 300; i++) {
+            assertEquals(value.toString() + i, kvStore.get("k" + i));
+        }
+        kvStore.close();
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void manifest() throws Exception {
+        String dataDir = "db_manifest/";
+        deleteDir(new File(dataDir));
+        KvStoreConfig config = new KvStoreConfig().setStoreThreshold(50).setPartSize(8)
+                .setL0CompactionTrigger(2).setLevelSizeBase(4 * 1024).setTargetFileSize(1024)
+                .setTableOpenThreads(2);
+        KvStoreImpl kvStore = new KvStoreImpl(dataDir, config);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 300; i++) {
+                kvStore.set(i + "", "v" + round + "-" + i);
+            }
+        }
+        kvStore.close();
+        int tableCount = 0;
+        for (int level = 0; level < kvStore.getTableVersion().levelCount(); level++) {
+            tableCount += kvStore.getTableVersion().getLevel(level).size();
+        }
+        assertTrue(new File(dataDir + Manifest.MANIFEST).exists());
+        //未记录到MANIFEST的SsTable是未完成的文件，重新打开时删除
+        File orphan = new File(dataDir + "1" + KvStoreImpl.TABLE);
+        try (FileOutputStream out = new FileOutputStream(orphan)) {
+            out.write(new byte[128]);
+        }
+
+        kvStore = new KvStoreImpl(dataDir, config);
+        assertTrue(!orphan.exists());
+        int reopenedCount = 0;
+        for (int level = 0; level < kvStore.getTableVersion().levelCount(); level++) {
+            reopenedCount += kvStore.getTableVersion().getLevel(level).size();
+        }
+        assertEquals(tableCount, reopenedCount);
+        for (int i = 0; i < 300; i++) {
+            assertEquals("v1-" + i, kvStore.get(i + ""));
+        }
+        try (KvIterator iterator = kvStore.scan("0", null)) {
+            int count = 0;
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            assertEquals(300, count);
+        }
+        kvStore.close();
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void shardedStore() throws Exception {
+        String dataDir = "db_sharded/";
+        deleteDir(new File(dataDir));
+        KvStoreConfig config = new KvStoreConfig().setStoreThreshold(50).setPartSize(8);
+        ShardedKvStore kvStore = new ShardedKvStore(dataDir, 4, config);
+        for (int i = 0; i < 400; i++) {
+            kvStore.set(String.format("k%03d", i), "v" + i);
+        }
+        kvStore.write(new WriteBatch().rm("k000").set("k001", "batch").set("k400", "v400"));
+        Snapshot snapshot = kvStore.getSnapshot();
+        kvStore.set("k002", "after");
+        assertEquals("v2", kvStore.get("k002", snapshot));
+        snapshot.release();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i <= 400; i += 7) {
+            keys.add(String.format("k%03d", i));
+        }
+        Map<String, String> values = kvStore.multiGet(keys);
+        assertNull(values.get("k000"));
+        assertEquals("v399", values.get("k399"));
+        assertEquals(keys.size() - 1, values.size());
+        kvStore.close();
+
+        kvStore = new ShardedKvStore(dataDir, config);
+        assertEquals(4, kvStore.getShardCount());
+        assertTrue(new File(dataDir + "shard-3").isDirectory());
+        assertEquals("batch", kvStore.get("k001"));
+        try (KvIterator iterator = kvStore.scan((String) null, null)) {
+            String last = null;
+            int count = 0;
+            while (iterator.hasNext()) {
+                String key = iterator.next().getKey();
+                assertTrue(last == null || last.compareTo(key) < 0);
+                last = key;
+                count++;
+            }
+            assertEquals(400, count);
+        }
+        kvStore.close();
+        try {
+            new ShardedKvStore(dataDir, 3, config);
+            assertTrue(false);
+        } catch (IllegalArgumentException expected) {
+        }
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void asyncStore() throws Exception {
+        String dataDir = "db_async/";
+        deleteDir(new File(dataDir));
+        KvStoreImpl kvStore = new KvStoreImpl(dataDir, new KvStoreConfig().setStoreThreshold(100).setPartSize(8)
+                .setWalSyncMode(WalSyncMode.BATCH));
+        //写线程阻塞在第一次写入时，其余写入排队；同时记下写线程，之后只中断它
+        KvStoreImpl target = kvStore;
+        CountDownLatch firstWrite = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread[] writer = new Thread[1];
+        KvStore gated = (KvStore) Proxy.newProxyInstance(KvStore.class.getClassLoader(), new Class<?>[]{KvStore.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("write")) {
+                        writer[0] = Thread.currentThread();
+                        firstWrite.countDown();
+                        release.await();
+                    }
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        AsyncKvStore asyncStore = new AsyncKvStore(gated);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(asyncStore.setAsync("k0", "v0"));
+        firstWrite.await();
+        for (int i = 1; i < 1000; i++) {
+            futures.add(asyncStore.setAsync("k" + i, "v" + i));
+        }
+        futures.add(asyncStore.rmAsync("k0"));
+        release.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+        //排队的写入合并为一次批量写入
+        assertEquals(2, kvStore.getStats().getWriteBatchLatency().getCount());
+        assertNull(asyncStore.getAsync("k0").get());
+        assertEquals("v999", asyncStore.getAsync("k999").get());
+        List<byte[]> values = asyncStore.multiGetAsync(Arrays.asList(BytesUtils.toBytes("k1"),
+                BytesUtils.toBytes("missing"))).get();
+        assertEquals("v1", BytesUtils.toString(values.get(0)));
+        assertNull(values.get(1));
+        //合并的一组写入中有一个出错，只有它失败
+        futures.clear();
+        for (int i = 0; i < 100; i++) {
+            futures.add(asyncStore.setAsync("g" + i, i == 50 ? null : "v" + i));
+        }
+        for (int i = 0; i < 100; i++) {
+            try {
+                futures.get(i).get();
+                assertTrue(i != 50);
+            } catch (ExecutionException expected) {
+                assertEquals(50, i);
+            }
+        }
+        assertEquals("v99", asyncStore.getAsync("g99").get());
+        //写线程被中断退出后，写入立即失败而不是一直等待
+        writer[0].interrupt();
+        writer[0].join();
+        try {
+            asyncStore.setAsync("late", "v").get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+        }
+        asyncStore.close();
+        try {
+            asyncStore.getAsync("k1").get();
+            fail();
+        } catch (ExecutionException expected) {
+        }
+
+        kvStore = new KvStoreImpl(dataDir, new KvStoreConfig());
+        if (AsyncKvStore.isVirtualThreadSupported()) {
+            asyncStore = AsyncKvStore.withVirtualThreads(kvStore);
+            asyncStore.setAsync("vt", "virtual").get();
+            assertEquals("virtual", asyncStore.getAsync("vt").get());
+            assertEquals("v1", asyncStore.getAsync("k1").get());
+            asyncStore.close();
+        } else {
+            try {
+                AsyncKvStore.withVirtualThreads(kvStore);
+                fail();
+            } catch (UnsupportedOperationException expected) {
+            }
+            kvStore.close();
+        }
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void respServer() throws Exception {
+        String dataDir = "db_server/";
+        deleteDir(new File(dataDir));
+        RespServer server = new RespServer(new KvStoreImpl(dataDir, new KvStoreConfig()), 0, 2);
+        server.start();
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()))) {
+            //一次发送多条命令，响应按顺序返回
+            String request = "*3\r\n$3\r\nSET\r\n$2\r\nk1\r\n$2\r\nv1\r\n"
+                    + "*3\r\n$3\r\nSET\r\n$2\r\nk2\r\n$2\r\nv2\r\n"
+                    + "*3\r\n$3\r\nSET\r\n$2\r\nk3\r\n$0\r\n\r\n"
+                    + "*2\r\n$3\r\nGET\r\n$2\r\nk1\r\n"
+                    + "*4\r\n$4\r\nMGET\r\n$2\r\nk2\r\n$7\r\nmissing\r\n$2\r\nk3\r\n"
+                    + "*3\r\n$3\r\nDEL\r\n$2\r\nk1\r\n$7\r\nmissing\r\n"
+                    + "GET k1\r\n"
+                    + "*4\r\n$4\r\nSCAN\r\n$1\r\n0\r\n$5\r\nCOUNT\r\n$1\r\n1\r\n"
+                    + "*1\r\n$4\r\nPING\r\n"
+                    + "*1\r\n$5\r\nHELLO\r\n";
+            String expected = "+OK\r\n+OK\r\n+OK\r\n"
+                    + "$2\r\nv1\r\n"
+                    + "*3\r\n$2\r\nv2\r\n$-1\r\n$0\r\n\r\n"
+                    + ":1\r\n"
+                    + "$-1\r\n"
+                    + "*2\r\n$4\r\n6b33\r\n*1\r\n$2\r\nk2\r\n"
+                    + "+PONG\r\n"
+                    + "-ERR unknown command 'hello'\r\n";
+            channel.write(ByteBuffer.wrap(request.getBytes(StandardCharsets.UTF_8)));
+            assertEquals(expected, readFully(channel, expected.length()));
+            //按游标继续遍历
+            channel.write(ByteBuffer.wrap("SCAN 6b33\r\n".getBytes(StandardCharsets.UTF_8)));
+            expected = "*2\r\n$1\r\n0\r\n*1\r\n$2\r\nk3\r\n";
+            assertEquals(expected, readFully(channel, expected.length()));
+        }
+        LoadGenerator.Result result = LoadGenerator.run("127.0.0.1", server.getPort(), 4, 32, 500, 100, 0.5);
+        assertTrue(result.getOps() > 0);
+        assertEquals(0, result.getErrors());
+        server.close();
+        deleteDir(new File(dataDir));
+    }
+
+    private static String readFully(SocketChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        }
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void valueLog() throws Exception {
+        String dataDir = "db_vlog/";
+        deleteDir(new File(dataDir));
+        KvStoreConfig config = new KvStoreConfig().setStoreThreshold(16).setPartSize(4)
+                .setValueThreshold(100).setValueLogFileSize(8 * 1024).setValueLogGcIntervalMs(0);
+        KvStoreImpl kvStore = new KvStoreImpl(dataDir, config);
+        for (int i = 0; i < 100; i++) {
+            kvStore.put(BytesUtils.toBytes("k" + i), largeValue(i, 0));
+            kvStore.set("small" + i, "v" + i);
+        }
+        //大的值只写入值日志，日志中只有位置
+        StoreStats stats = kvStore.getStats();
+        assertTrue(stats.getValueLogFiles() > 5);
+        assertTrue(stats.getWalBytes() < 100 * 1000);
+        assertArrayEquals(largeValue(7, 0), kvStore.get(BytesUtils.toBytes("k7")));
+        assertEquals("v7", kvStore.get("small7"));
+        List<byte[]> values = kvStore.multiGet(Arrays.asList(BytesUtils.toBytes("k1"), BytesUtils.toBytes("k99")));
+        assertArrayEquals(largeValue(1, 0), values.get(0));
+        assertArrayEquals(largeValue(99, 0), values.get(1));
+        try (BytesIterator iterator = kvStore.scan(BytesUtils.toBytes("k10"), BytesUtils.toBytes("k11"))) {
+            Map.Entry<byte[], byte[]> entry = iterator.next();
+            assertArrayEquals(largeValue(10, 0), entry.getValue());
+        }
+
+        //覆盖前一半key，旧文件中的值大多失效；快照释放前原文件不删除
+        Snapshot snapshot = kvStore.getSnapshot();
+        int filesBefore = kvStore.getStats().getValueLogFiles();
+        for (int i = 0; i < 50; i++) {
+            kvStore.put(BytesUtils.toBytes("k" + i), largeValue(i, 1));
+        }
+        assertTrue(kvStore.runValueLogGc() > 0);
+        assertEquals(0, kvStore.getStats().getValueLogGcDeletedFiles());
+        assertArrayEquals(largeValue(3, 0), kvStore.get(BytesUtils.toBytes("k3"), snapshot));
+        snapshot.release();
+        kvStore.runValueLogGc();
+        stats = kvStore.getStats();
+        assertTrue(stats.getValueLogGcDeletedFiles() > 0);
+        assertTrue(stats.getValueLogFiles() < filesBefore + 8);
+        for (int i = 0; i < 100; i++) {
+            assertArrayEquals(largeValue(i, i < 50 ? 1 : 0), kvStore.get(BytesUtils.toBytes("k" + i)));
+        }
+        kvStore.close();
+
+        //重新打开后位置仍然有效
+        kvStore = new KvStoreImpl(dataDir, config);
+        for (int i = 0; i < 100; i++) {
+            assertArrayEquals(largeValue(i, i < 50 ? 1 : 0), kvStore.get(BytesUtils.toBytes("k" + i)));
+        }
+        kvStore.rm("k0");
+        assertNull(kvStore.get("k0"));
+        kvStore.close();
+        deleteDir(new File(dataDir));
+    }
+
+    @Test
+    public void checkpoint() throws Exception {
+        String dataDir = "db_cp/";
+        String checkpointDir = "db_cp_checkpoint/";
+        deleteDir(new File(dataDir));
+        deleteDir(new File(checkpointDir));
+        KvStoreConfig config = new KvStoreConfig().setStoreThreshold(50).setPartSize(4)
+                .setValueThreshold(100).setValueLogGcIntervalMs(0);
+        KvStoreImpl kvStore = new KvStoreImpl(dataDir, config);
+        for (int i = 0; i < 500; i++) {
+            kvStore.set("key" + i, "value" + i);
+        }
+        kvStore.put(BytesUtils.toBytes("large"), largeValue(1, 0));
+        kvStore.checkpoint(checkpointDir);
+        //检查点之后的写入不可见
+        kvStore.set("key1", "changed");
+        kvStore.rm("key2");
+        kvStore.set("after", "checkpoint");
+        try {
+            kvStore.checkpoint(checkpointDir);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //目录已存在
+        }
+        assertEquals("changed", kvStore.get("key1"));
+        kvStore.close();
+        deleteDir(new File(dataDir));
+
+        //源目录删除后检查点仍然完整，只读打开不能写入
+        KvStoreImpl readOnly = new KvStoreImpl(checkpointDir, new KvStoreConfig().setReadOnly(true));
+        assertEquals("value1", readOnly.get("key1"));
+        assertEquals("value2", readOnly.get("key2"));
+        assertNull(readOnly.get("after"));
+        assertArrayEquals(largeValue(1, 0), readOnly.get(BytesUtils.toBytes("large")));
+        int count = 0;
+        try (KvIterator iterator = readOnly.prefixScan("key")) {
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+        }
+        assertEquals(500, count);
+        try {
+            readOnly.set("key1", "x");
+            fail();
+        } catch (IllegalStateException e) {
+            //只读
+        }
+        readOnly.close();
+
+        //也可以作为普通存储打开
+        KvStoreImpl reopened = new KvStoreImpl(checkpointDir, config);
+        reopened.set("key1", "again");
+        assertEquals("again", reopened.get("key1"));
+        assertEquals("value499", reopened.get("key499"));
+        reopened.close();
+        deleteDir(new File(checkpointDir));
+    }
+
+    @Test
+    public void ioRateLimiter() throws Exception {
+        //100KB/s，每10ms补充1KB
+        RateLimiter limiter = new RateLimiter(100 * 1024, 10 * 1000, false);
+        long start = System.nanoTime();
+        limiter.request(30 * 1024, RateLimiter.Priority.LOW);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+        assertTrue(limiter.getThrottledNanos(RateLimiter.Priority.LOW) > 0);
+
+        //合并进行中时持久化优先取得配额
+        Thread compaction = new Thread(() -> limiter.request(100 * 1024, RateLimiter.Priority.LOW));
+        compaction.start();
+        Thread.sleep(50);
+        limiter.request(10 * 1024, RateLimiter.Priority.HIGH);
+        assertTrue(compaction.isAlive());
+        compaction.join();
+
+        //空闲时降低限速，积压时提高，不超过上限
+        RateLimiter autoTuned = new RateLimiter(1024 * 1024, 1000, true);
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(120);
+            autoTuned.request(1, RateLimiter.Priority.HIGH);
+        }
+        long idleRate = autoTuned.getBytesPerSecond();
+        assertTrue(idleRate < 1024 * 1024);
+        autoTuned.request(idleRate / 2, RateLimiter.Priority.LOW);
+        assertTrue(autoTuned.getBytesPerSecond() > idleRate);
+        assertTrue(autoTuned.getBytesPerSecond() <= 1024 * 1024);
+
+        //持久化经过限速，等待时间计入统计
+        String dataDir = "db_ratelimit/";
+        deleteDir(new File(dataDir));
+        KvStoreImpl kvStore = new KvStoreImpl(dataDir, new KvStoreConfig().setStoreThreshold(200)
+                .setCompression(BlockCodec.NONE).setIoRateLimitBytesPerSec(100 * 1024));
+        for (int i = 0; i < 1000; i++) {
+            kvStore.put(BytesUtils.toBytes("key" + i), new byte[100]);
+        }
+        kvStore.close();
+        StoreStats stats = kvStore.getStats();
+        assertEquals(100 * 1024, stats.getIoRateLimit());
+        assertTrue(stats.getFlushIoThrottledNanos() > 0);
+        deleteDir(new File(dataDir));
+    }
+
+    private static byte[] largeValue(int key, int version) {
+        byte[] value = new byte[1000];
+        Arrays.fill(value, (byte) ('a' + (key + version) % 26));
+        value[0] = (byte) version;
+        return value;
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
 }
@@ -0,0 +1,211 @@
+package KvStore;
+
+import model.command.Command;
+import model.command.RmCommand;
+import model.command.SetCommand;
+import model.ssTable.BlockCache;
+import model.ssTable.BlockCodec;
+import model.ssTable.BloomFilterPolicy;
+import model.ssTable.SsTable;
+import model.ssTable.SsTableOptions;
+import org.junit.Test;
+import utils.BytesUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SsTableTest {
+    @Test
+    public void binaryBlock() throws IOException {
+        File file = new File("ss_table_test.table");
+        file.delete();
+        TreeMap<byte[], Command> index = new TreeMap<>(BytesUtils.COMPARATOR);
+        for (int i = 0; i < 500; i++) {
+            String key = String.format("key-%05d", i * 2);
+            if (i % 7 == 0) {
+                index.put(bytes(key), new RmCommand(bytes(key)));
+            } else {
+                index.put(bytes(key), set(key, "value-" + i));
+            }
+        }
+        SsTable.createFromIndex(file.getPath(), 37, index, true).close();
+        try (SsTable ssTable = SsTable.createFromFile(file.getPath(), true)) {
+            for (int i = 0; i < 500; i++) {
+                String key = String.format("key-%05d", i * 2);
+                Command command = ssTable.query(bytes(key));
+                if (i % 7 == 0) {
+                    assertTrue(command instanceof RmCommand);
+                } else {
+                    assertEquals("value-" + i, value(command));
+                }
+                assertNull(ssTable.query(bytes(String.format("key-%05d", i * 2 + 1))));
+            }
+            assertNull(ssTable.query(bytes("a")));
+            assertNull(ssTable.query(bytes("z")));
+        }
+        file.delete();
+    }
+
+    @Test
+    public void bloomFilter() throws IOException {
+        File file = new File("ss_table_filter_test.table");
+        file.delete();
+        TreeMap<byte[], Command> index = new TreeMap<>(BytesUtils.COMPARATOR);
+        for (int i = 0; i < 1000; i++) {
+            SetCommand command = set("key-" + i, "value-" + i);
+            command.setSeq(100);
+            index.put(bytes("key-" + i), command);
+        }
+        BloomFilterPolicy policy = new BloomFilterPolicy(10);
+        SsTableOptions options = new SsTableOptions().setFilterPolicy(policy);
+        SsTable.createFromIndex(file.getPath(), 16, index, true, options).close();
+        try (SsTable ssTable = SsTable.createFromFile(file.getPath(), true, options)) {
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("value-" + i, value(ssTable.query(bytes("key-" + i))));
+                assertNull(ssTable.query(bytes("missing-" + i)));
+            }
+            assertEquals(1000, policy.getUsefulCount() + policy.getFalsePositiveCount());
+            assertTrue(policy.getFalsePositiveCount() < 50);
+            //只有比快照新的版本时不算误判
+            long falsePositives = policy.getFalsePositiveCount();
+            assertNull(ssTable.query(bytes("key-1"), 50));
+            assertNull(ssTable.multiQuery(Arrays.asList(bytes("key-1"), bytes("key-2")), 50)[1]);
+            assertEquals(falsePositives, policy.getFalsePositiveCount());
+        }
+        file.delete();
+    }
+
+    @Test
+    public void blockCodecs() throws IOException {
+        SsTableOptions options = new SsTableOptions()
+                .setLevelCodecs(Arrays.asList(BlockCodec.NONE, BlockCodec.SNAPPY, BlockCodec.deflate(9)));
+        Random random = new Random(42);
+        List<Command> text = new ArrayList<>();
+        List<Command> noise = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String key = String.format("key-%05d", i);
+            text.add(set(key, "value-value-value-" + i));
+            byte[] randomValue = new byte[64];
+            random.nextBytes(randomValue);
+            noise.add(new SetCommand(bytes(key), randomValue));
+        }
+        long[] textSizes = new long[3];
+        long[] noiseSizes = new long[3];
+        for (int level = 0; level < 3; level++) {
+            File file = new File("ss_table_codec_test.table");
+            file.delete();
+            SsTable.createFromCommands(file.getPath(), 16, text, true, options, level).close();
+            textSizes[level] = file.length();
+            //压缩算法记录在block中，与打开时的配置无关
+            try (SsTable ssTable = SsTable.createFromFile(file.getPath(), false, options)) {
+                for (int i = 0; i < 500; i++) {
+                    assertEquals("value-value-value-" + i, value(ssTable.query(bytes(String.format("key-%05d", i)))));
+                }
+            }
+            file.delete();
+            SsTable.createFromCommands(file.getPath(), 16, noise, true, options, level).close();
+            noiseSizes[level] = file.length();
+            try (SsTable ssTable = SsTable.createFromFile(file.getPath(), true, options)) {
+                assertArrayEquals(((SetCommand) noise.get(7)).getValue(),
+                        ((SetCommand) ssTable.query(bytes("key-00007"))).getValue());
+            }
+            file.delete();
+        }
+        assertTrue(textSizes[0] > textSizes[1] && textSizes[1] > textSizes[2]);
+        //压缩不划算的block存储原始数据
+        assertEquals(noiseSizes[0], noiseSizes[2]);
+    }
+
+    @Test
+    public void blockCache() throws IOException {
+        File file = new File("ss_table_cache_test.table");
+        file.delete();
+        TreeMap<byte[], Command> index = new TreeMap<>(BytesUtils.COMPARATOR);
+        for (int i = 0; i < 100; i++) {
+            index.put(bytes("key-" + i), set("key-" + i, "value-" + i));
+        }
+        BlockCache blockCache = new BlockCache(1024 * 1024);
+        SsTableOptions options = new SsTableOptions().setBlockCache(blockCache);
+        SsTable.createFromIndex(file.getPath(), 10, index, true, options).close();
+        try (SsTable ssTable = SsTable.createFromFile(file.getPath(), true, options)) {
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 100; i++) {
+                    assertEquals("value-" + i, value(ssTable.query(bytes("key-" + i))));
+                }
+            }
+            assertEquals(10, blockCache.getMissCount());
+            assertEquals(290, blockCache.getHitCount());
+        }
+        assertEquals(0, blockCache.getUsage());
+
+        //容量不足时淘汰
+        BlockCache small = new BlockCache(16 * 200);
+        options = new SsTableOptions().setBlockCache(small);
+        try (SsTable ssTable = SsTable.createFromFile(file.getPath(), true, options)) {
+            for (int i = 0; i < 100; i++) {
+                ssTable.query(bytes("key-" + i));
+            }
+            assertTrue(small.getEvictionCount() > 0);
+            assertTrue(small.getUsage() <= 16 * 200);
+        }
+        file.delete();
+    }
+
+    @Test
+    public void concurrentQuery() throws Exception {
+        File file = new File("ss_table_concurrent_test.table");
+        file.delete();
+        TreeMap<byte[], Command> index = new TreeMap<>(BytesUtils.COMPARATOR);
+        for (int i = 0; i < 2000; i++) {
+            index.put(bytes("key-" + i), set("key-" + i, "value-" + i));
+        }
+        SsTable.createFromIndex(file.getPath(), 8, index, true).close();
+        for (boolean mmap : new boolean[]{false, true}) {
+            try (SsTable ssTable = SsTable.createFromFile(file.getPath(), true, new SsTableOptions().setMmap(mmap))) {
+                AtomicInteger errors = new AtomicInteger();
+                Thread[] threads = new Thread[4];
+                for (int t = 0; t < threads.length; t++) {
+                    int seed = t;
+                    threads[t] = new Thread(() -> {
+                        for (int n = 0; n < 2000; n++) {
+                            int i = (n * 7 + seed * 13) % 2000;
+                            Command command = ssTable.query(bytes("key-" + i));
+                            if (!(command instanceof SetCommand) || !("value-" + i).equals(value(command))) {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    });
+                    threads[t].start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                assertEquals(0, errors.get());
+            }
+        }
+        file.delete();
+    }
+
+    private static byte[] bytes(String value) {
+        return BytesUtils.toBytes(value);
+    }
+
+    private static SetCommand set(String key, String value) {
+        return new SetCommand(bytes(key), bytes(value));
+    }
+
+    private static String value(Command command) {
+        return BytesUtils.toString(((SetCommand) command).getValue());
+    }
+}